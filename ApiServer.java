@@ -0,0 +1,340 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Server mode for the registration desk: student and event CRUD plus
+// participant registration over HTTP, for many clients at once.
+//
+// Every request runs on its own virtual thread, so a request blocked on a
+// file lock or an fsync costs no platform thread. Bodies are CSV records in
+// the same format as students.csv and events.csv, one record per line.
+//
+//   GET    /students                       every student
+//   GET    /students/{roll}                one student, with its version as ETag
+//   PUT    /students/{roll}                add or replace; If-Match: version
+//   DELETE /students/{roll}                If-Match: version
+//   GET    /events                         every event, as id,fields...
+//   GET    /events/{id}                    one event, with its version as ETag
+//   POST   /events                         add; answers the new id
+//   PUT    /events/{id}                    replace; If-Match: version
+//   DELETE /events/{id}                    If-Match: version
+//   GET    /events/{id}/participants       registered roll numbers
+//   POST   /events/{id}/participants       register the roll numbers in the body
+//   DELETE /events/{id}/participants       unregister them
+//
+// Registrations are the hot path during sign-ups, so they go through a
+// GroupCommitter: concurrent requests are appended to the participant log
+// together and share one force. The student log already shares fsyncs
+// between concurrent writers, and event writes are rare, so those go to
+// their stores directly. A registration leaves out students who are at
+// another event at the time, by the same check EventManager makes.
+public class ApiServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final String STUDENTS_FILE = "students.csv";
+    private static final String STUDENTS_LOG_FILE = "students.log";
+    private static final String EVENTS_FILE = "events.csv";
+    private static final String EVENTS_DATA_FILE = "events.db";
+    private static final String EVENTS_INDEX_FILE = "events.idx";
+    private static final String PARTICIPANTS_FILE = "participants.log";
+    private static final int MAX_BODY = 1024 * 1024;
+
+    // Sent back to the client as the response status and message
+    private static class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private static StudentStore students;
+    private static EventStore events;
+    private static ParticipantStore participants;
+    private static EventSchedule schedule; // Used by the registration writer thread only
+    private static GroupCommitter<ParticipantStore.Change, EventSchedule.Registration> registrations;
+
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        try {
+            students = StudentStore.open(STUDENTS_LOG_FILE, STUDENTS_FILE);
+            events = EventStore.open(EVENTS_DATA_FILE, EVENTS_INDEX_FILE, EVENTS_FILE);
+            participants = ParticipantStore.open(PARTICIPANTS_FILE);
+            schedule = new EventSchedule(events, participants);
+            registrations = new GroupCommitter<>("registration-writer", schedule::registerAll);
+
+            ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.setExecutor(executor);
+            server.createContext("/students", ApiServer::handle);
+            server.createContext("/events", ApiServer::handle);
+            server.start();
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(1);
+                executor.close();
+                registrations.close();
+                System.out.printf("Registrations averaged %.1f requests per commit.%n", registrations.averageBatch());
+                try {
+                    students.close();
+                    events.close();
+                    participants.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing stores: " + e.getMessage());
+                }
+            }));
+            System.out.println("Serving on port " + port + ". Press Ctrl+C to stop.");
+        } catch (IOException e) {
+            System.out.println("Error starting server: " + e.getMessage());
+        }
+    }
+
+    private static void handle(HttpExchange exchange) {
+        try (exchange) {
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+            String method = exchange.getRequestMethod();
+            try {
+                if (path[0].equals("students")) {
+                    students(exchange, method, path);
+                } else if (path.length == 3 && path[2].equals("participants")) {
+                    participants(exchange, method, eventId(path[1]));
+                } else {
+                    events(exchange, method, path);
+                }
+            } catch (HttpError e) {
+                send(exchange, e.status, e.getMessage() + "\n", null);
+            } catch (ConcurrentModificationException e) {
+                send(exchange, 409, e.getMessage() + "\n", null);
+            } catch (InterruptedException e) {
+                send(exchange, 503, "Server is shutting down\n", null);
+            } catch (IllegalArgumentException e) {
+                // Includes NumberFormatException, from input that did not parse
+                send(exchange, 400, "Bad request: " + e.getMessage() + "\n", null);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Error handling " + method + " " + exchange.getRequestURI() + ": " + e);
+                send(exchange, 500, "Error: " + e.getMessage() + "\n", null);
+            }
+        } catch (IOException e) {
+            // The client went away before the response was sent
+        }
+    }
+
+    private static void students(HttpExchange exchange, String method, String[] path)
+            throws IOException, HttpError {
+        if (path.length == 1) {
+            if (!method.equals("GET")) {
+                throw new HttpError(405, "Method not allowed");
+            }
+            StringBuilder out = new StringBuilder();
+            for (Student s : students.all()) {
+                out.append(CsvCodec.format(CsvCodec.studentFields(s))).append('\n');
+            }
+            send(exchange, 200, out.toString(), null);
+            return;
+        }
+        if (path.length != 2) {
+            throw new HttpError(404, "Not found");
+        }
+
+        String roll = path[1];
+        switch (method) {
+            case "GET" -> {
+                // One snapshot, so the ETag is the version of the body sent
+                StudentStore.Snapshot snapshot = students.snapshot();
+                Student s = snapshot.get(roll);
+                if (s == null) {
+                    throw new HttpError(404, "No student with roll number " + roll);
+                }
+                send(exchange, 200, CsvCodec.format(CsvCodec.studentFields(s)) + "\n", snapshot.version(roll));
+            }
+            case "PUT" -> {
+                Student s = CsvCodec.toStudent(body(exchange));
+                if (s == null) {
+                    throw new HttpError(400, "Expected first,last,roll,email,course,group,hosteller,hostel");
+                }
+                // Keys are case-sensitive, so a roll number differing only in
+                // case would be saved under another key than the ETag's
+                if (!s.rollNumber.trim().equals(roll.trim())) {
+                    throw new HttpError(400, "Roll number in the body does not match the path");
+                }
+                long version = students.put(s, ifMatch(exchange, StudentStore.ANY_VERSION));
+                send(exchange, 200, "Saved\n", version);
+            }
+            case "DELETE" -> {
+                if (!students.delete(roll, ifMatch(exchange, StudentStore.ANY_VERSION))) {
+                    throw new HttpError(404, "No student with roll number " + roll);
+                }
+                send(exchange, 200, "Deleted\n", null);
+            }
+            default -> throw new HttpError(405, "Method not allowed");
+        }
+    }
+
+    private static void events(HttpExchange exchange, String method, String[] path)
+            throws IOException, HttpError {
+        if (path.length == 1) {
+            switch (method) {
+                case "GET" -> {
+                    StringBuilder out = new StringBuilder();
+                    for (EventStore.Record record : events.all()) {
+                        String[] row = new String[record.fields.length + 1];
+                        row[0] = String.valueOf(record.id);
+                        System.arraycopy(record.fields, 0, row, 1, record.fields.length);
+                        out.append(CsvCodec.format(row)).append('\n');
+                    }
+                    send(exchange, 200, out.toString(), null);
+                }
+                case "POST" -> {
+                    long id = events.add(eventFields(body(exchange)));
+                    exchange.getResponseHeaders().set("Location", "/events/" + id);
+                    send(exchange, 201, id + "\n", null);
+                }
+                default -> throw new HttpError(405, "Method not allowed");
+            }
+            return;
+        }
+        if (path.length != 2) {
+            throw new HttpError(404, "Not found");
+        }
+
+        long id = eventId(path[1]);
+        switch (method) {
+            case "GET" -> {
+                EventStore.Record record = events.get(id);
+                if (record == null) {
+                    throw new HttpError(404, "No event with id " + id);
+                }
+                send(exchange, 200, CsvCodec.format(record.fields) + "\n", record.version);
+            }
+            case "PUT" -> {
+                if (!events.update(id, eventFields(body(exchange)), ifMatch(exchange, EventStore.ANY_VERSION))) {
+                    throw new HttpError(404, "No event with id " + id);
+                }
+                // Read once: it may have been deleted since the update
+                EventStore.Record saved = events.get(id);
+                if (saved == null) {
+                    throw new HttpError(404, "No event with id " + id);
+                }
+                send(exchange, 200, "Saved\n", saved.version);
+            }
+            case "DELETE" -> {
+                if (!events.delete(id, ifMatch(exchange, EventStore.ANY_VERSION))) {
+                    throw new HttpError(404, "No event with id " + id);
+                }
+                participants.dropEvent(id);
+                send(exchange, 200, "Deleted\n", null);
+            }
+            default -> throw new HttpError(405, "Method not allowed");
+        }
+    }
+
+    private static void participants(HttpExchange exchange, String method, long eventId)
+            throws IOException, HttpError, InterruptedException {
+        if (method.equals("GET")) {
+            if (events.get(eventId) == null) {
+                throw new HttpError(404, "No event with id " + eventId);
+            }
+            StringBuilder out = new StringBuilder();
+            for (String roll : participants.rollNumbers(participants.participants(eventId))) {
+                out.append(roll).append('\n');
+            }
+            send(exchange, 200, out.toString(), null);
+            return;
+        }
+        if (!method.equals("POST") && !method.equals("DELETE")) {
+            throw new HttpError(405, "Method not allowed");
+        }
+
+        Set<String> rolls = new LinkedHashSet<>();
+        for (String roll : body(exchange).split("[,\\s]+")) {
+            if (!roll.isEmpty()) {
+                rolls.add(roll);
+            }
+        }
+        if (rolls.isEmpty()) {
+            throw new HttpError(400, "Expected roll numbers separated by commas or lines");
+        }
+        boolean register = method.equals("POST");
+        if (register) {
+            for (String roll : rolls) {
+                if (!students.contains(roll)) {
+                    throw new HttpError(404, "No student with roll number " + roll);
+                }
+            }
+        }
+        ParticipantStore.Change change;
+        try {
+            change = new ParticipantStore.Change(eventId, rolls, register);
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, e.getMessage());
+        }
+        // The writer checks the event and the clashes under the participant
+        // log's lock, with the same rules as EventManager
+        EventSchedule.Registration result = registrations.submit(change);
+        if (!result.eventFound) {
+            throw new HttpError(404, "No event with id " + eventId);
+        }
+        StringBuilder out = new StringBuilder((register ? "Registered " : "Unregistered ") + result.changed + "\n");
+        for (Map.Entry<String, List<Long>> clash : result.clashes.entrySet()) {
+            out.append("Not registered, ").append(clash.getKey()).append(" is at event(s) ").append(clash.getValue())
+                    .append(" then.\n");
+        }
+        send(exchange, 200, out.toString(), null);
+    }
+
+    private static String[] eventFields(String line) throws HttpError {
+        Event event = CsvCodec.toEvent(line);
+        if (event == null) {
+            throw new HttpError(400, "Expected name,building,room,date,time,organiser,details[,duration]");
+        }
+        return CsvCodec.eventFields(event);
+    }
+
+    private static long eventId(String text) throws HttpError {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new HttpError(404, "No event with id " + text);
+        }
+    }
+
+    // The version from an If-Match header, or anyVersion if there is none
+    private static long ifMatch(HttpExchange exchange, long anyVersion) throws HttpError {
+        String header = exchange.getRequestHeaders().getFirst("If-Match");
+        if (header == null || header.trim().equals("*")) {
+            return anyVersion;
+        }
+        try {
+            return Long.parseLong(header.trim().replace("\"", ""));
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "If-Match must be a version number");
+        }
+    }
+
+    private static String body(HttpExchange exchange) throws IOException, HttpError {
+        byte[] bytes = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+        if (bytes.length > MAX_BODY) {
+            throw new HttpError(413, "Request body is too large");
+        }
+        return new String(bytes, StandardCharsets.UTF_8).strip();
+    }
+
+    private static void send(HttpExchange exchange, int status, String text, Long version) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+        if (version != null) {
+            exchange.getResponseHeaders().set("ETag", "\"" + version + "\"");
+        }
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
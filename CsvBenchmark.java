@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+
+// Measures CsvCodec export and import throughput in rows per second on
+// generated students and events files.
+//
+// Run with: java CsvBenchmark [rows]   (default 2,000,000)
+public class CsvBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Path dir = Files.createTempDirectory("csv-bench");
+        Path studentsFile = dir.resolve("students.csv");
+        Path eventsFile = dir.resolve("events.csv");
+
+        List<Student> students = new ArrayList<>(rows);
+        List<Event> events = new ArrayList<>(rows);
+        Random random = new Random(7);
+        for (int i = 0; i < rows; i++) {
+            students.add(new Student("First" + i, "Last" + (i % 997), String.valueOf(2310990000L + i),
+                    "student" + i + ".be23@chitkara.edu.in", "BE-CSE", 1 + random.nextInt(30), i % 3 != 0,
+                    i % 3 != 0 ? "Archimedes" : ""));
+            events.add(new Event("Event " + i, "Edison Block", "Room " + (i % 40),
+                    LocalDate.of(2025, 1, 1).plusDays(i % 365), LocalTime.of(9 + i % 8, 0), "ACM Club",
+                    "Talk on \"topic " + i + "\", with Q&A, snacks"));
+        }
+        System.out.println("Rows: " + rows + ", cores: " + Runtime.getRuntime().availableProcessors());
+
+        for (int round = 0; round < 3; round++) {
+            boolean report = round == 2; // Earlier rounds warm up the JIT
+            time(report, "students export", rows, () -> {
+                CsvCodec.export(studentsFile, students, CsvCodec::studentFields);
+                return null;
+            });
+            time(report, "students import (1 thread)", rows,
+                    () -> CsvCodec.importSequential(studentsFile, CsvCodec::toStudent));
+            time(report, "students import (parallel)", rows, () -> CsvCodec.importStudents(studentsFile));
+            time(report, "events export", rows, () -> {
+                CsvCodec.export(eventsFile, events, CsvCodec::eventFields);
+                return null;
+            });
+            time(report, "events import (1 thread)", rows,
+                    () -> CsvCodec.importSequential(eventsFile, CsvCodec::toEvent));
+            time(report, "events import (parallel)", rows, () -> CsvCodec.importEvents(eventsFile));
+        }
+
+        List<Event> back = CsvCodec.importEvents(eventsFile);
+        System.out.println("Round trip check: " + (back.size() == rows
+                && back.get(rows - 1).eventDetails.equals(events.get(rows - 1).eventDetails) ? "ok" : "FAILED"));
+        System.out.printf("File sizes: students %.1f MB, events %.1f MB%n", Files.size(studentsFile) / 1e6,
+                Files.size(eventsFile) / 1e6);
+
+        Files.delete(studentsFile);
+        Files.delete(eventsFile);
+        Files.delete(dir);
+    }
+
+    private interface Task {
+        Object run() throws IOException;
+    }
+
+    private static void time(boolean report, String name, int rows, Task task) throws IOException {
+        long start = System.nanoTime();
+        task.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (report) {
+            System.out.printf("%-28s %10.0f rows/s  (%.2f s)%n", name, rows / seconds, seconds);
+        }
+    }
+}
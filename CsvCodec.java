@@ -0,0 +1,451 @@
+import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Shared RFC 4180 CSV codec for students.csv and events.csv.
+//
+// Fields containing commas, quotes or line breaks are written in double quotes
+// with embedded quotes doubled, and read back the same way. The parser works
+// on a reused char buffer and a reused row array, so the only per-field
+// allocation is the String handed to the caller.
+//
+// Large files can be imported in parallel: one cheap byte pass finds record
+// boundaries outside quotes, then the chunks between them are parsed on the
+// common fork-join pool and mapped to objects in file order.
+public class CsvCodec {
+
+    // Maps the current row of a parser to an object, or to null to skip the row
+    public interface RowMapper<T> {
+        T map(Parser row);
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_PARALLEL_SIZE = 4L * 1024 * 1024;
+    private static final long MIN_CHUNK_SIZE = 1L * 1024 * 1024;
+    private static final long MAX_CHUNK_SIZE = 32L * 1024 * 1024;
+
+    private CsvCodec() {
+    }
+
+    // Streaming reader returning one record at a time. The values of the
+    // current row are only valid until the next call to next().
+    public static class Parser implements Closeable {
+        private final Reader in;
+        private final char[] buf = new char[BUFFER_SIZE];
+        private final StringBuilder field = new StringBuilder();
+        private int pos;
+        private int limit;
+        private String[] fields = new String[16];
+        private int count;
+
+        public Parser(Reader in) {
+            this.in = in;
+        }
+
+        // Advances to the next record; returns false at end of input
+        public boolean next() throws IOException {
+            count = 0;
+            if (pos >= limit && !fill()) {
+                return false;
+            }
+            while (readField() == ',') {
+                // Keep reading fields until the end of the record
+            }
+            return true;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        // Returns the field, or "" if the row is shorter than that
+        public String get(int i) {
+            return i < count ? fields[i] : "";
+        }
+
+        public boolean isBlank() {
+            return count == 0 || (count == 1 && fields[0].isEmpty());
+        }
+
+        public String[] toArray() {
+            return Arrays.copyOf(fields, count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        // Reads one field and returns what ended it: ',' , '\n' or -1 for EOF
+        private int readField() throws IOException {
+            if (pos >= limit && !fill()) {
+                add("");
+                return -1;
+            }
+            if (buf[pos] == '"') {
+                pos++;
+                return readQuoted();
+            }
+
+            int start = pos;
+            while (true) {
+                while (pos < limit) {
+                    char c = buf[pos];
+                    if (c == ',' || c == '\n' || c == '\r') {
+                        if (field.length() == 0) {
+                            add(new String(buf, start, pos - start));
+                        } else {
+                            field.append(buf, start, pos - start);
+                            add(takeField());
+                        }
+                        pos++;
+                        if (c == '\r') {
+                            skipLineFeed();
+                        }
+                        return c == ',' ? ',' : '\n';
+                    }
+                    pos++;
+                }
+                // The field continues past the end of the buffer
+                field.append(buf, start, pos - start);
+                if (!fill()) {
+                    add(takeField());
+                    return -1;
+                }
+                start = pos;
+            }
+        }
+
+        private int readQuoted() throws IOException {
+            while (true) {
+                int start = pos;
+                while (pos < limit && buf[pos] != '"') {
+                    pos++;
+                }
+                field.append(buf, start, pos - start);
+                if (pos >= limit) {
+                    if (!fill()) {
+                        add(takeField()); // Unterminated quote, keep what was read
+                        return -1;
+                    }
+                    continue;
+                }
+
+                pos++; // Skip the quote
+                if (pos >= limit && !fill()) {
+                    add(takeField());
+                    return -1;
+                }
+                if (buf[pos] == '"') {
+                    field.append('"'); // Escaped quote
+                    pos++;
+                    continue;
+                }
+
+                // Closing quote; anything before the delimiter is kept as-is
+                while (true) {
+                    if (pos >= limit && !fill()) {
+                        add(takeField());
+                        return -1;
+                    }
+                    char c = buf[pos++];
+                    if (c == ',') {
+                        add(takeField());
+                        return ',';
+                    }
+                    if (c == '\n' || c == '\r') {
+                        add(takeField());
+                        if (c == '\r') {
+                            skipLineFeed();
+                        }
+                        return '\n';
+                    }
+                    field.append(c);
+                }
+            }
+        }
+
+        private void skipLineFeed() throws IOException {
+            if ((pos < limit || fill()) && buf[pos] == '\n') {
+                pos++;
+            }
+        }
+
+        private String takeField() {
+            String value = field.toString();
+            field.setLength(0);
+            return value;
+        }
+
+        private void add(String value) {
+            if (count == fields.length) {
+                fields = Arrays.copyOf(fields, count * 2);
+            }
+            fields[count++] = value;
+        }
+
+        private boolean fill() throws IOException {
+            pos = 0;
+            int n = in.read(buf);
+            limit = Math.max(n, 0);
+            return n > 0;
+        }
+    }
+
+    // Buffered writer producing one quoted-as-needed record per row
+    public static class Writer implements Closeable, Flushable {
+        private final java.io.Writer out;
+        private final StringBuilder line = new StringBuilder(256);
+
+        public Writer(java.io.Writer out) {
+            this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out, BUFFER_SIZE);
+        }
+
+        public void writeRow(String... fields) throws IOException {
+            line.setLength(0);
+            appendRow(line, fields);
+            line.append('\n');
+            out.append(line);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // Formats a single record without the trailing line break
+    public static String format(String... fields) {
+        StringBuilder sb = new StringBuilder(128);
+        appendRow(sb, fields);
+        return sb.toString();
+    }
+
+    // Parses a single record; an empty string gives one empty field
+    public static String[] parseLine(String line) {
+        try (Parser parser = new Parser(new StringReader(line))) {
+            return parser.next() ? parser.toArray() : new String[] { "" };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringReader does not fail
+        }
+    }
+
+    private static void appendRow(StringBuilder sb, String... fields) {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendField(sb, fields[i]);
+        }
+    }
+
+    private static void appendField(StringBuilder sb, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    // Reads every row of a file in order on the calling thread
+    public static <T> List<T> importSequential(Path file, RowMapper<T> mapper) throws IOException {
+        List<T> result = new ArrayList<>();
+        try (Parser parser = new Parser(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            while (parser.next()) {
+                T value = mapper.map(parser);
+                if (value != null) {
+                    result.add(value);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Reads every row of a file, parsing chunks of it in parallel. Results are
+    // in file order. Small files are read sequentially.
+    public static <T> List<T> importParallel(Path file, RowMapper<T> mapper) throws IOException {
+        long size = Files.size(file);
+        if (size < MIN_PARALLEL_SIZE) {
+            return importSequential(file, mapper);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int parallelism = Runtime.getRuntime().availableProcessors();
+            long target = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (parallelism * 4L)));
+            List<Long> bounds = recordBoundaries(channel, size, target);
+
+            List<List<T>> parts = IntStream.range(0, bounds.size() - 1).parallel()
+                    .mapToObj(i -> parseChunk(channel, bounds.get(i), bounds.get(i + 1), mapper))
+                    .collect(Collectors.toList());
+
+            List<T> result = new ArrayList<>(parts.stream().mapToInt(List::size).sum());
+            for (List<T> part : parts) {
+                result.addAll(part);
+            }
+            return result;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Finds offsets roughly target bytes apart that each start a record. A
+    // newline only ends a record outside quotes, and since an escaped quote is
+    // two quote characters, counting quotes tells us which side we are on.
+    private static List<Long> recordBoundaries(FileChannel channel, long size, long target) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long next = target;
+        boolean inQuotes = false;
+
+        for (long base = 0; base < size; base += Integer.MAX_VALUE) {
+            long length = Math.min(Integer.MAX_VALUE, size - base);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, base, length);
+            for (int i = 0; i < length; i++) {
+                byte b = map.get(i);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes && base + i + 1 >= next && base + i + 1 < size) {
+                    bounds.add(base + i + 1);
+                    next = base + i + 1 + target;
+                }
+            }
+        }
+        bounds.add(size);
+        return bounds;
+    }
+
+    private static <T> List<T> parseChunk(FileChannel channel, long start, long end, RowMapper<T> mapper) {
+        try {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            CharBuffer chars = StandardCharsets.UTF_8.decode(map);
+            List<T> result = new ArrayList<>();
+            try (Parser parser = new Parser(new CharArrayReader(chars.array(), chars.arrayOffset(), chars.limit()))) {
+                while (parser.next()) {
+                    T value = mapper.map(parser);
+                    if (value != null) {
+                        result.add(value);
+                    }
+                }
+            }
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // students.csv: first,last,roll,email,course,group,hosteller,hostel
+
+    public static String[] studentFields(Student s) {
+        return new String[] { s.firstName, s.lastName, s.rollNumber, s.emailId, s.course,
+                String.valueOf(s.groupNumber), String.valueOf(s.isHosteller), s.hostelName == null ? "" : s.hostelName };
+    }
+
+    // Returns null for rows that are not a complete student record
+    public static Student toStudent(Parser row) {
+        if (row.size() < 7) {
+            return null;
+        }
+        try {
+            return new Student(row.get(0), row.get(1), row.get(2), row.get(3), row.get(4),
+                    Integer.parseInt(row.get(5).trim()), Boolean.parseBoolean(row.get(6).trim()), row.get(7));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Parses one line of students.csv; null if it is not a student record
+    public static Student toStudent(String line) {
+        try (Parser parser = new Parser(new StringReader(line))) {
+            return parser.next() ? toStudent(parser) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringReader does not fail
+        }
+    }
+
+    public static List<Student> importStudents(Path file) throws IOException {
+        return importParallel(file, CsvCodec::toStudent);
+    }
+
+    // events.csv: name,building,room,date,time,organiser,details[,duration]
+    // Older files have no duration column; those events last the default time
+
+    public static String[] eventFields(Event e) {
+        return new String[] { e.eventName, e.eventBuilding, e.eventRoom, String.valueOf(e.eventDate),
+                String.valueOf(e.eventStartTime), e.eventOrganiser, e.eventDetails,
+                String.valueOf(e.eventDurationMinutes) };
+    }
+
+    // Returns null for rows that are not a complete event record
+    public static Event toEvent(Parser row) {
+        if (row.size() < 5) {
+            return null;
+        }
+        try {
+            String minutes = row.get(7).trim();
+            int duration = minutes.isEmpty() ? Event.DEFAULT_DURATION_MINUTES : Integer.parseInt(minutes);
+            return new Event(row.get(0), row.get(1), row.get(2), LocalDate.parse(row.get(3).trim()),
+                    LocalTime.parse(row.get(4).trim()), duration, row.get(5), row.get(6));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Parses one line of events.csv; null if it is not an event record
+    public static Event toEvent(String line) {
+        try (Parser parser = new Parser(new StringReader(line))) {
+            return parser.next() ? toEvent(parser) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringReader does not fail
+        }
+    }
+
+    public static List<Event> importEvents(Path file) throws IOException {
+        return importParallel(file, CsvCodec::toEvent);
+    }
+
+    // Writes all rows through a temporary file and an atomic rename, so
+    // readers never see a half-written file
+    public static <T> void export(Path file, Iterable<T> rows, java.util.function.Function<T, String[]> fields)
+            throws IOException {
+        Path tmp = FileLocks.tempFileFor(file);
+        try {
+            try (Writer out = new Writer(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+                for (T row : rows) {
+                    out.writeRow(fields.apply(row));
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
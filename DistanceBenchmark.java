@@ -0,0 +1,83 @@
+import java.util.Random;
+
+// Measures DistanceKernel throughput on one core, scalar against vector.
+//
+// Run with:
+//   java --add-modules jdk.incubator.vector DistanceBenchmark [points] [rounds]
+// Without the module, or without vector/VectorDistanceKernel.java built (see
+// DistanceKernel), only the scalar numbers are printed.
+public class DistanceBenchmark {
+
+    public static void main(String[] args) {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        // Random points spread over a few kilometres around the campus
+        Random random = new Random(42);
+        double[] lats = new double[points];
+        double[] lons = new double[points];
+        double[] lats2 = new double[points];
+        double[] lons2 = new double[points];
+        for (int i = 0; i < points; i++) {
+            lats[i] = 30.5 + random.nextDouble() * 0.05;
+            lons[i] = 76.64 + random.nextDouble() * 0.05;
+            lats2[i] = 30.5 + random.nextDouble() * 0.05;
+            lons2[i] = 76.64 + random.nextDouble() * 0.05;
+        }
+        double[] out = new double[points];
+        double qLat = 30.5164;
+        double qLon = 76.6599;
+
+        System.out.println("Points: " + points + ", rounds: " + rounds
+                + ", vector kernel: " + (DistanceKernel.VECTORIZED ? "present" : "absent"));
+
+        report("scalar one-to-many", points, rounds,
+                () -> DistanceKernel.scalarDistances(qLat, qLon, lats, lons, out, points));
+        report("scalar pairs", points, rounds,
+                () -> DistanceKernel.scalarPairDistances(lats, lons, lats2, lons2, out, points));
+        report("scalar nearest", points, rounds,
+                () -> sink += DistanceKernel.scalarNearest(qLat, qLon, lats, lons, points));
+
+        // With the vector kernel present, DistanceKernel's public methods use it
+        if (DistanceKernel.VECTORIZED) {
+            report("vector one-to-many", points, rounds,
+                    () -> DistanceKernel.distances(qLat, qLon, lats, lons, out, points));
+            report("vector pairs", points, rounds,
+                    () -> DistanceKernel.pairDistances(lats, lons, lats2, lons2, out, points));
+            report("vector nearest", points, rounds,
+                    () -> sink += DistanceKernel.nearest(qLat, qLon, lats, lons, points));
+
+            // Sanity check that both paths agree
+            double[] expected = new double[points];
+            DistanceKernel.scalarDistances(qLat, qLon, lats, lons, expected, points);
+            DistanceKernel.distances(qLat, qLon, lats, lons, out, points);
+            double maxError = 0;
+            for (int i = 0; i < points; i++) {
+                maxError = Math.max(maxError, Math.abs(expected[i] - out[i]));
+            }
+            System.out.printf("Max scalar/vector difference: %.3e meters%n", maxError);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    // Keeps the JIT from discarding results that are otherwise unused
+    private static long sink;
+
+    private static void report(String name, int points, int rounds, Runnable kernel) {
+        // Warm up so the measured rounds run compiled code
+        for (int i = 0; i < Math.max(5, rounds / 2); i++) {
+            kernel.run();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            kernel.run();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double perSecond = (double) points * rounds / (elapsed / 1e9);
+        System.out.printf("%-20s %8.1f M distances/s per core%n", name, perSecond / 1e6);
+    }
+}
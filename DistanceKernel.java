@@ -0,0 +1,154 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// Batch great-circle distance evaluation over structure-of-arrays coordinate
+// blocks (one array of latitudes, one of longitudes, both in degrees).
+//
+// When the JVM is started with --add-modules jdk.incubator.vector the work is
+// delegated to VectorDistanceKernel, which processes several coordinates per
+// instruction. Otherwise the plain scalar loops below are used, so callers
+// never need to know which path is active.
+//
+// VectorDistanceKernel lives in vector/ so that the rest of the tree builds
+// without the incubator module, and it is bound here through method handles
+// rather than named directly. Build it into the same output directory with:
+//   javac --add-modules jdk.incubator.vector -cp <out> -d <out> vector/VectorDistanceKernel.java
+// If the class was not built, or the module is missing at run time, the
+// scalar loops are used.
+public class DistanceKernel {
+
+    static final double EARTH_RADIUS_METERS = 6371 * 1000.0;
+
+    // Handles on VectorDistanceKernel's methods, or null when the vector path
+    // is unavailable. The class is only looked up when the Vector API module is
+    // present in the running JVM, so it is never loaded otherwise.
+    private static final MethodHandle VECTOR_DISTANCES;
+    private static final MethodHandle VECTOR_PAIR_DISTANCES;
+    private static final MethodHandle VECTOR_NEAREST;
+
+    static {
+        MethodHandle distances = null;
+        MethodHandle pairDistances = null;
+        MethodHandle nearest = null;
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+                && !Boolean.getBoolean("distance.kernel.scalar")) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                Class<?> vector = Class.forName("VectorDistanceKernel");
+                distances = lookup.findStatic(vector, "distances", MethodType.methodType(void.class,
+                        double.class, double.class, double[].class, double[].class, double[].class, int.class));
+                pairDistances = lookup.findStatic(vector, "pairDistances", MethodType.methodType(void.class,
+                        double[].class, double[].class, double[].class, double[].class, double[].class, int.class));
+                nearest = lookup.findStatic(vector, "nearest", MethodType.methodType(int.class,
+                        double.class, double.class, double[].class, double[].class, int.class));
+            } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+                distances = null;
+                pairDistances = null;
+                nearest = null;
+            }
+        }
+        VECTOR_DISTANCES = distances;
+        VECTOR_PAIR_DISTANCES = pairDistances;
+        VECTOR_NEAREST = nearest;
+    }
+
+    // True when the calls below go to VectorDistanceKernel
+    static final boolean VECTORIZED = VECTOR_NEAREST != null;
+
+    private DistanceKernel() {
+    }
+
+    // Haversine distance in meters between one point and a single coordinate
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double latDistance = Math.toRadians(lat2 - lat1);
+        double lonDistance = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                        * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return EARTH_RADIUS_METERS * c;
+    }
+
+    // Writes the distance in meters from (lat, lon) to each of the first n
+    // coordinates of the block into out
+    public static void distances(double lat, double lon, double[] lats, double[] lons, double[] out, int n) {
+        if (VECTORIZED) {
+            try {
+                VECTOR_DISTANCES.invokeExact(lat, lon, lats, lons, out, n);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        } else {
+            scalarDistances(lat, lon, lats, lons, out, n);
+        }
+    }
+
+    // Writes the distance in meters between (lats1[i], lons1[i]) and
+    // (lats2[i], lons2[i]) into out[i] for the first n pairs
+    public static void pairDistances(double[] lats1, double[] lons1, double[] lats2, double[] lons2, double[] out,
+            int n) {
+        if (VECTORIZED) {
+            try {
+                VECTOR_PAIR_DISTANCES.invokeExact(lats1, lons1, lats2, lons2, out, n);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        } else {
+            scalarPairDistances(lats1, lons1, lats2, lons2, out, n);
+        }
+    }
+
+    // Returns the index of the coordinate closest to (lat, lon) among the first n,
+    // or -1 if n is 0. Uses squared equirectangular distances, which rank points
+    // the same way as haversine at campus and city scale and avoid all trig in
+    // the inner loop.
+    public static int nearest(double lat, double lon, double[] lats, double[] lons, int n) {
+        if (VECTORIZED) {
+            try {
+                return (int) VECTOR_NEAREST.invokeExact(lat, lon, lats, lons, n);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+        return scalarNearest(lat, lon, lats, lons, n);
+    }
+
+    // The vector methods throw nothing checked, so anything caught from a
+    // handle is an unchecked exception or an error to pass on as it is
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        throw (Error) e;
+    }
+
+    static void scalarDistances(double lat, double lon, double[] lats, double[] lons, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = distance(lat, lon, lats[i], lons[i]);
+        }
+    }
+
+    static void scalarPairDistances(double[] lats1, double[] lons1, double[] lats2, double[] lons2, double[] out,
+            int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = distance(lats1[i], lons1[i], lats2[i], lons2[i]);
+        }
+    }
+
+    static int scalarNearest(double lat, double lon, double[] lats, double[] lons, int n) {
+        double cosLat = Math.cos(Math.toRadians(lat));
+        int best = -1;
+        double bestDist = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            double x = (lons[i] - lon) * cosLat;
+            double y = lats[i] - lat;
+            double d = x * x + y * y;
+            if (d < bestDist) {
+                bestDist = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+}
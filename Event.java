@@ -4,22 +4,32 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class Event {
+    public static final int DEFAULT_DURATION_MINUTES = 60;
+
     public String eventName;
     public String eventBuilding;
     public String eventRoom;
     public LocalDate eventDate;
     public LocalTime eventStartTime;
+    public int eventDurationMinutes;
     public String eventOrganiser;
     public String eventDetails;
     public List<Student> participants;
 
     public Event(String eventName, String eventBuilding, String eventRoom, LocalDate eventDate, LocalTime eventStartTime,
             String eventOrganiser, String eventDetails) {
+        this(eventName, eventBuilding, eventRoom, eventDate, eventStartTime, DEFAULT_DURATION_MINUTES, eventOrganiser,
+                eventDetails);
+    }
+
+    public Event(String eventName, String eventBuilding, String eventRoom, LocalDate eventDate, LocalTime eventStartTime,
+            int eventDurationMinutes, String eventOrganiser, String eventDetails) {
         this.eventName = eventName;
         this.eventBuilding = eventBuilding;
         this.eventRoom = eventRoom;
         this.eventDate = eventDate;
         this.eventStartTime = eventStartTime;
+        this.eventDurationMinutes = eventDurationMinutes;
         this.eventOrganiser = eventOrganiser;
         this.eventDetails = eventDetails;
         this.participants = new ArrayList<>();
@@ -49,6 +59,9 @@ public class Event {
     public void setEventStartTime(LocalTime eventStartTime) {
         this.eventStartTime = eventStartTime;
     }
+    public void setEventDurationMinutes(int eventDurationMinutes) {
+        this.eventDurationMinutes = eventDurationMinutes;
+    }
     public void setEventOrganiser(String eventOrganiser) {
         this.eventOrganiser = eventOrganiser;
     }
@@ -59,7 +72,7 @@ public class Event {
     @Override
     public String toString() {
         return "Event: " + eventName + " | Building: " + eventBuilding + " | Room: " + eventRoom +
-                " | Date: " + eventDate + " | Time: " + eventStartTime +
+                " | Date: " + eventDate + " | Time: " + eventStartTime + " (" + eventDurationMinutes + " min)" +
                 " | Organiser: " + eventOrganiser + "\nDetails: " + eventDetails +
                 "\nParticipants: " + participants.size();
     }
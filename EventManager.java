@@ -1,20 +1,87 @@
 import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
+import javax.xml.parsers.ParserConfigurationException;
+import org.xml.sax.SAXException;
 
 public class EventManager {
-    private static Map<String, Student> studentMap = new HashMap<>();
+    private static volatile Students students = new Students(null, null, null, Map.of());
+    private static EventStore events;
+    private static ParticipantStore participants;
+    private static EventSchedule schedule; // Room and student clash detection
+    private static EventTimeIndex timeIndex; // Events in start time order
+    private static EventSearchIndex searchIndex; // Keyword search over events
     private static Scanner scanner = new Scanner(System.in);
     private static final String STUDENTS_FILE = "students.csv";
-    private static final String EVENTS_FILE = "events.csv";
+    private static final String EVENTS_FILE = "events.csv"; // Imported into the event store on first run
+    private static final String EVENTS_DATA_FILE = "events.db";
+    private static final String EVENTS_INDEX_FILE = "events.idx";
+    private static final String TIME_INDEX_FILE = "events.time";
+    private static final String SEARCH_INDEX_FILE = "events.search";
+    private static final String PARTICIPANTS_FILE = "participants.log";
+    private static final String LOCATIONS_FILE = "locations.txt";
+    private static final String MAP_FILE = "map3.osm";
+    private static final String DAY_SCHOLAR = "Day Scholar";
+    private static final String ROSTER_FILE = "students.roster";
+    private static final String ROLL_INDEX_FILE = "students.rolls";
+    private static final int PAGE_SIZE = 5;
+    private static final long OPTIMISE_MILLIS = 3000; // Search time for the schedule optimiser
 
-    private static List<String> buildings = new ArrayList<>();
+    private static volatile List<String> buildings = List.of(); // Replaced whole on reload
+    private static LineIndex locationLines; // Checksums of locations.txt
+    private static FileWatcher watcher; // Hot reload of students and locations
+    private static volatile WalkingDistances walking; // Loaded on first use, dropped when locations change
+    private static StudentNameIndex nameIndex; // Built on first name lookup
+    private static Students nameIndexOf; // The students nameIndex was last brought up to date with
+    private static Map<String, RoaringBitmap> hostelBitmaps; // See hostelBitmaps()
+    private static Students hostelBitmapsOf; // The students hostelBitmaps was built from
+    private static int hostelOrdinals; // Participant ordinals hostelBitmaps covers
+
+    // The students as of one version of students.csv: the mapped roster
+    // written from an earlier version, plus the students added, edited or
+    // removed (null) since, which hot reload applies without rewriting the
+    // roster. A reload builds a new Students and swaps it in, so a reader
+    // that takes the current one sees a single version throughout.
+    private static class Students {
+        final RosterFile roster;
+        final RollIndex rollIndex; // Roll number to roster row
+        final LineIndex lines; // Checksums of students.csv, null until it first changes
+        final Map<String, Student> changed;
+
+        Students(RosterFile roster, RollIndex rollIndex, LineIndex lines, Map<String, Student> changed) {
+            this.roster = roster;
+            this.rollIndex = rollIndex;
+            this.lines = lines;
+            this.changed = changed;
+        }
+
+        Student find(String rollNumber) {
+            String key = rollNumber.trim();
+            if (changed.containsKey(key)) {
+                return changed.get(key);
+            }
+            return rollIndex == null ? null : rollIndex.get(key);
+        }
+    }
 
     public static void main(String[] args) {
-        ensureEventsFileExists();
+        try {
+            events = EventStore.open(EVENTS_DATA_FILE, EVENTS_INDEX_FILE, EVENTS_FILE);
+            participants = ParticipantStore.open(PARTICIPANTS_FILE);
+            schedule = new EventSchedule(events, participants);
+            timeIndex = EventTimeIndex.open(events, TIME_INDEX_FILE);
+            searchIndex = EventSearchIndex.open(events, SEARCH_INDEX_FILE);
+        } catch (IOException e) {
+            System.out.println("Error opening events: " + e.getMessage());
+            return;
+        }
         loadBuildings();
         loadStudents();
+        watchFiles();
 
         boolean running = true;
         while (running) {
@@ -28,6 +95,12 @@ public class EventManager {
                 case 5 -> manageParticipants();
                 case 6 -> running = false;
                 case 7 -> clearConsole();
+                case 8 -> findConflicts();
+                case 9 -> upcomingEvents();
+                case 10 -> eventsBetweenDates();
+                case 11 -> searchEvents();
+                case 12 -> optimiseSchedule();
+                case 13 -> walkingDistances();
                 default -> System.out.println("Invalid choice. Try again.");
             }
             if (choice != 7 && choice != 6) {
@@ -35,6 +108,17 @@ public class EventManager {
                 scanner.nextLine();
             }
         }
+        try {
+            if (watcher != null) {
+                watcher.close();
+            }
+            timeIndex.save();
+            searchIndex.save();
+            events.close();
+            participants.close();
+        } catch (IOException e) {
+            System.out.println("Error closing events: " + e.getMessage());
+        }
         System.out.println("Exiting Event Manager. Goodbye!");
     }
 
@@ -49,6 +133,8 @@ public class EventManager {
 
         LocalDate date = getDateInput("Event Date (YYYY-MM-DD) ");
         LocalTime time = getTimeInput("Event Start Time (HH:MM) ");
+        int duration = getDurationInput("Duration in minutes (Press Enter for " + Event.DEFAULT_DURATION_MINUTES
+                + "): ", Event.DEFAULT_DURATION_MINUTES);
 
         System.out.print("Organiser: ");
         String organiser = scanner.nextLine();
@@ -56,24 +142,33 @@ public class EventManager {
         System.out.print("Event Details: ");
         String details = scanner.nextLine();
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(EVENTS_FILE, true))) {
-            bw.write(String.join(",", name, building, room, date.toString(), time.toString(), organiser, details));
-            bw.newLine();
-            System.out.println("Event added successfully.");
+        String[] fields = { name, building, room, date.toString(), time.toString(), organiser, details,
+                String.valueOf(duration) };
+        try {
+            long[] slot = EventSchedule.timeOf(fields);
+            List<Long> clashes = schedule.roomClashes(building, room, slot[0], slot[1], 0);
+            if (!clashes.isEmpty() && !confirmClashes("The room is already booked at that time:", clashes)) {
+                System.out.println("Event not added.");
+                return;
+            }
+            long id = events.add(fields);
+            schedule.eventSaved(id, fields);
+            timeIndex.eventSaved(id, fields);
+            searchIndex.eventSaved(id, fields);
+            System.out.println("Event added successfully with ID " + id + ".");
         } catch (IOException e) {
             System.out.println("Error adding event: " + e.getMessage());
         }
     }
 
     private static void viewEvents() {
-        try (BufferedReader br = new BufferedReader(new FileReader(EVENTS_FILE))) {
-            String line;
-            int id = 1;
-            while ((line = br.readLine()) != null) {
-                System.out.println("\nEvent ID: " + id++);
-                System.out.println(formatEvent(line));
-            }
-            if (id == 1) {
+        try {
+            List<EventStore.Record> records = events.all();
+            for (EventStore.Record record : records) {
+                System.out.println("\nEvent ID: " + record.id);
+                System.out.println(formatEvent(record.fields));
+            }
+            if (records.isEmpty()) {
                 System.out.println("There are no events yet.");
             }
         } catch (IOException e) {
@@ -82,118 +177,124 @@ public class EventManager {
     }
 
     private static void updateEvent() {
-        List<String> updatedEvents = new ArrayList<>();
         viewEvents();
         int idToUpdate = getIntInput("Enter Event ID to update: ");
-        boolean found = false;
-
-        try (BufferedReader br = new BufferedReader(new FileReader(EVENTS_FILE))) {
-            String line;
-            int currentId = 1;
-            while ((line = br.readLine()) != null) {
-                if (currentId == idToUpdate) {
-                    found = true;
-                    String[] data = line.split(",", -1);
-
-                    System.out.print("New Event Name (" + data[0] + "): ");
-                    String name = inputOrDefault(data[0]);
-
-                    String building = chooseBuilding();
-
-                    System.out.print("New Room (" + data[2] + "): ");
-                    String room = inputOrDefault(data[2]);
 
-                    LocalDate date = getDateInput("New Date (YYYY-MM-DD): ");
-                    LocalTime time = getTimeInput("New Start Time (HH:MM): ");
-
-                    System.out.print("New Organiser (" + data[5] + "): ");
-                    String organiser = inputOrDefault(data[5]);
-
-                    System.out.print("New Details: ");
-                    String details = inputOrDefault(data[6]);
-
-                    updatedEvents.add(String.join(",", name, building, room, date.toString(), time.toString(),
-                            organiser, details));
-                } else {
-                    updatedEvents.add(line);
-                }
-                currentId++;
-            }
+        EventStore.Record record;
+        try {
+            record = events.get(idToUpdate);
         } catch (IOException e) {
             System.out.println("Error reading events: " + e.getMessage());
             return;
         }
 
-        if (!found) {
+        if (record == null) {
             System.out.println("Invalid Event ID.");
             return;
         }
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(EVENTS_FILE))) {
-            for (String event : updatedEvents) {
-                bw.write(event);
-                bw.newLine();
+        String[] data = padEvent(record.fields);
+
+        System.out.print("New Event Name (" + data[0] + "): ");
+        String name = inputOrDefault(data[0]);
+
+        String building = chooseBuilding();
+
+        System.out.print("New Room (" + data[2] + "): ");
+        String room = inputOrDefault(data[2]);
+
+        LocalDate date = getDateInput("New Date (YYYY-MM-DD): ");
+        LocalTime time = getTimeInput("New Start Time (HH:MM): ");
+        int currentDuration = EventSchedule.durationOf(data);
+        int duration = getDurationInput("New Duration in minutes (" + currentDuration + "): ", currentDuration);
+
+        System.out.print("New Organiser (" + data[5] + "): ");
+        String organiser = inputOrDefault(data[5]);
+
+        System.out.print("New Details: ");
+        String details = inputOrDefault(data[6]);
+
+        String[] updated = { name, building, room, date.toString(), time.toString(), organiser, details,
+                String.valueOf(duration) };
+
+        try {
+            long[] slot = EventSchedule.timeOf(updated);
+            List<Long> clashes = schedule.roomClashes(building, room, slot[0], slot[1], idToUpdate);
+            if (!clashes.isEmpty() && !confirmClashes("The room is already booked at that time:", clashes)) {
+                System.out.println("Event not updated.");
+                return;
             }
-            System.out.println("Event updated successfully.");
+            Map<String, List<Long>> busy = schedule.participantClashes(idToUpdate, slot[0], slot[1]);
+            if (!busy.isEmpty()) {
+                System.out.println("Registered participants with another event at that time:");
+                for (Map.Entry<String, List<Long>> entry : busy.entrySet()) {
+                    System.out.println("  " + entry.getKey() + ": event(s) " + entry.getValue());
+                }
+                if (!confirm("Save anyway? (y/n): ")) {
+                    System.out.println("Event not updated.");
+                    return;
+                }
+            }
+            if (events.update(idToUpdate, updated, record.version)) {
+                schedule.eventSaved(idToUpdate, updated);
+                timeIndex.eventSaved(idToUpdate, updated);
+                searchIndex.eventSaved(idToUpdate, updated);
+                System.out.println("Event updated successfully.");
+            } else
+                System.out.println("The event was deleted by another operator meanwhile.");
+        } catch (ConcurrentModificationException e) {
+            System.out.println("The event was changed by another operator meanwhile. Please try again.");
         } catch (IOException e) {
             System.out.println("Error updating event: " + e.getMessage());
         }
     }
 
     private static void deleteEvent() {
-        List<String> remainingEvents = new ArrayList<>();
         viewEvents();
         int idToDelete = getIntInput("Enter Event ID to delete: ");
-        boolean found = false;
-
-        try (BufferedReader br = new BufferedReader(new FileReader(EVENTS_FILE))) {
-            String line;
-            int currentId = 1;
-            while ((line = br.readLine()) != null) {
-                if (currentId == idToDelete) {
-                    found = true;
-                } else {
-                    remainingEvents.add(line);
-                }
-                currentId++;
-            }
-        } catch (IOException e) {
-            System.out.println("Error reading events: " + e.getMessage());
-            return;
-        }
 
-        if (!found) {
-            System.out.println("Invalid Event ID.");
-            return;
-        }
-
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(EVENTS_FILE))) {
-            for (String event : remainingEvents) {
-                bw.write(event);
-                bw.newLine();
+        try {
+            EventStore.Record record = events.get(idToDelete);
+            if (record == null) {
+                System.out.println("Invalid Event ID.");
+                return;
             }
-            System.out.println("Event deleted successfully.");
+            System.out.println(formatEvent(record.fields));
+            if (!confirm("Delete this event? (y/n): ")) {
+                System.out.println("Event not deleted.");
+                return;
+            }
+            // Fails if someone else changed the event since it was shown
+            if (events.delete(idToDelete, record.version)) {
+                participants.dropEvent(idToDelete);
+                schedule.eventDeleted(idToDelete);
+                timeIndex.eventDeleted(idToDelete);
+                searchIndex.eventDeleted(idToDelete);
+                System.out.println("Event deleted successfully.");
+            } else {
+                System.out.println("The event was deleted by another operator meanwhile.");
+            }
+        } catch (ConcurrentModificationException e) {
+            System.out.println("The event was changed by another operator meanwhile. Please try again.");
         } catch (IOException e) {
             System.out.println("Error deleting event: " + e.getMessage());
         }
     }
 
-    private static String formatEvent(String csv) {
-        String[] data = csv.split(",", -1);
-        return "Event: " + data[0] + " | Building: " + data[1] + " | Room: " + data[2] +
-                " | Date: " + data[3] + " | Time: " + data[4] +
-                " | Organiser: " + data[5] + "\nDetails: " + data[6];
+    // Pads a short record with empty fields up to the eight event columns
+    private static String[] padEvent(String[] fields) {
+        String[] data = Arrays.copyOf(fields, Math.max(fields.length, 8));
+        for (int i = fields.length; i < data.length; i++) {
+            data[i] = "";
+        }
+        return data;
     }
 
-    private static void ensureEventsFileExists() {
-        File file = new File(EVENTS_FILE);
-        try {
-            if (file.createNewFile()) {
-                System.out.println("Created new file: " + EVENTS_FILE);
-            }
-        } catch (IOException e) {
-            System.out.println("Failed to create file: " + EVENTS_FILE);
-        }
+    private static String formatEvent(String[] fields) {
+        String[] data = padEvent(fields);
+        return "Event: " + data[0] + " | Building: " + data[1] + " | Room: " + data[2] +
+                " | Date: " + data[3] + " | Time: " + data[4] + " (" + EventSchedule.durationOf(data) + " min)" +
+                " | Organiser: " + data[5] + "\nDetails: " + data[6];
     }
 
     private static LocalDate getDateInput(String prompt) {
@@ -225,6 +326,23 @@ public class EventManager {
         }
     }
 
+    private static int getDurationInput(String prompt, int defaultMinutes) {
+        System.out.print(prompt);
+        while (true) {
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty())
+                return defaultMinutes;
+            try {
+                int minutes = Integer.parseInt(input);
+                if (minutes > 0)
+                    return minutes;
+            } catch (NumberFormatException e) {
+                // Fall through to ask again
+            }
+            System.out.print("Invalid duration. Enter minutes: ");
+        }
+    }
+
     private static int getIntInput(String prompt) {
         System.out.print(prompt);
         while (!scanner.hasNextInt()) {
@@ -250,6 +368,12 @@ public class EventManager {
         System.out.println("5. Manage Participants");
         System.out.println("6. Exit");
         System.out.println("7. Clear Console");
+        System.out.println("8. Find Scheduling Conflicts");
+        System.out.println("9. Upcoming Events");
+        System.out.println("10. Events Between Dates");
+        System.out.println("11. Search Events");
+        System.out.println("12. Optimise Schedule");
+        System.out.println("13. Walking Distances");
     }
 
     private static void clearConsole() {
@@ -265,33 +389,185 @@ public class EventManager {
         }
     }
 
-    private static void loadStudents() {
-        try (BufferedReader br = new BufferedReader(new FileReader(STUDENTS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",");
-                Student student = new Student(data[0], data[1], data[2], data[3], data[4],
-                        Integer.parseInt(data[5]), Boolean.parseBoolean(data[6]), data[7]);
-                studentMap.put(data[2], student); // Roll number as key
+    // Maps the columnar roster cache and its roll number index, rebuilding
+    // them from the CSV first if it is newer. When both are current nothing
+    // is parsed: students are read from the mapping when they are looked up.
+    private static synchronized void loadStudents() {
+        File csv = new File(STUDENTS_FILE);
+        File cache = new File(ROSTER_FILE);
+        try {
+            if (!cache.exists() || cache.lastModified() < csv.lastModified()) {
+                RosterFile.write(cache.toPath(), CsvCodec.importStudents(csv.toPath()));
+            }
+            RosterFile roster = RosterFile.open(cache.toPath());
+            RollIndex rollIndex = RollIndex.open(new File(ROLL_INDEX_FILE).toPath(), roster, cache.toPath());
+            Students old = students;
+            students = new Students(roster, rollIndex, null, Map.of());
+            if (old.rollIndex != null) {
+                // Readers still holding the old mapping can go on using it
+                old.rollIndex.close();
+                old.roster.close();
             }
         } catch (IOException e) {
             System.out.println("Error loading students: " + e.getMessage());
         }
     }
 
-    private static void loadBuildings() {
-        try (BufferedReader br = new BufferedReader(new FileReader("locations.txt"))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split("\t");
-                buildings.add(parts[0]); // Add building name
+    // Starts watching students.csv and locations.txt. StudentManager
+    // republishes students.csv when it exits after making changes, so
+    // its edits show up here without restarting.
+    private static void watchFiles() {
+        try {
+            watcher = new FileWatcher();
+            watcher.watch(new File(STUDENTS_FILE).toPath(), EventManager::reloadStudents);
+            watcher.watch(new File(LOCATIONS_FILE).toPath(), EventManager::loadBuildings);
+        } catch (IOException e) {
+            System.out.println("Error watching files, changes need a restart: " + e.getMessage());
+        }
+    }
+
+    // Applies the records of students.csv that changed since it was last
+    // indexed. Once the changes outgrow a quarter of the roster, the roster
+    // is rewritten from the CSV instead.
+    //
+    // Nothing is indexed at start-up. The first change is found by comparing
+    // the new file with the mapped roster, which parses it once; its line
+    // index is kept from then on, so later changes are found by checksum and
+    // only changed records are parsed.
+    private static synchronized void reloadStudents() {
+        Path csv = new File(STUDENTS_FILE).toPath();
+        Students current = students;
+        try {
+            LineIndex lines;
+            Map<String, Student> changed = new HashMap<>(current.changed);
+            if (current.lines == null) {
+                lines = LineIndex.build(csv, line -> {
+                    Student student = CsvCodec.toStudent(line);
+                    if (student == null) {
+                        return null;
+                    }
+                    String rollNumber = student.rollNumber.trim();
+                    Student old = current.find(rollNumber);
+                    if (old == null || !CsvCodec.format(CsvCodec.studentFields(old))
+                            .equals(CsvCodec.format(CsvCodec.studentFields(student)))) {
+                        changed.put(rollNumber, student);
+                    }
+                    return rollNumber;
+                });
+                Set<String> present = new HashSet<>(lines.keys());
+                for (int row = 0; current.roster != null && row < current.roster.size(); row++) {
+                    String rollNumber = current.roster.rollNumber(row).trim();
+                    if (!present.contains(rollNumber)) {
+                        changed.put(rollNumber, null);
+                    }
+                }
+            } else {
+                LineIndex.Diff diff = current.lines.diff(csv);
+                for (String rollNumber : diff.removed) {
+                    changed.put(rollNumber, null);
+                }
+                for (Map.Entry<String, String> record : diff.changed.entrySet()) {
+                    changed.put(record.getKey(), CsvCodec.toStudent(record.getValue()));
+                }
+                lines = diff.index;
+            }
+            int rosterSize = current.roster == null ? 0 : current.roster.size();
+            if (changed.size() > rosterSize / 4 + 64) {
+                loadStudents();
+                students = new Students(students.roster, students.rollIndex, lines, Map.of());
+            } else {
+                students = new Students(current.roster, current.rollIndex, lines, changed);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error reloading students: " + e.getMessage());
+        }
+    }
+
+    // Returns the student with the roll number, or null
+    private static Student findStudent(String rollNumber) {
+        return students.find(rollNumber);
+    }
+
+    // Splits comma-separated roll numbers. An entry that is not a roll
+    // number is looked up as a name or email, and replaced by the student
+    // chosen from the closest matches; entries left unresolved are kept as
+    // typed, to be reported as invalid.
+    private static List<String> chooseStudents(String input) {
+        List<String> rollNumbers = new ArrayList<>();
+        for (String entry : input.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty() || findStudent(entry) != null) {
+                rollNumbers.add(entry);
+                continue;
+            }
+            List<StudentNameIndex.Hit> hits = nameIndex().search(entry, PAGE_SIZE);
+            if (hits.isEmpty()) {
+                rollNumbers.add(entry);
+                continue;
+            }
+            System.out.println("\"" + entry + "\" is not a roll number. Closest matches:");
+            for (int i = 0; i < hits.size(); i++) {
+                System.out.println((i + 1) + ". " + hits.get(i).student);
+            }
+            int choice = getIntInput("Choose a student (0 to skip): ");
+            rollNumbers.add(choice >= 1 && choice <= hits.size() ? hits.get(choice - 1).student.rollNumber.trim()
+                    : entry);
+        }
+        return rollNumbers;
+    }
+
+    // The name index, brought up to date with the current students. A hot
+    // reload that only added to the changes is applied student by student;
+    // a new roster means indexing it again.
+    private static StudentNameIndex nameIndex() {
+        Students current = students;
+        if (nameIndex == null || nameIndexOf.roster != current.roster) {
+            List<Student> all = new ArrayList<>();
+            for (int row = 0; current.roster != null && row < current.roster.size(); row++) {
+                if (!current.changed.containsKey(current.roster.rollNumber(row).trim())) {
+                    all.add(current.roster.get(row));
+                }
+            }
+            for (Student student : current.changed.values()) {
+                if (student != null) {
+                    all.add(student);
+                }
+            }
+            nameIndex = new StudentNameIndex(all);
+        } else if (nameIndexOf != current) {
+            for (Map.Entry<String, Student> change : current.changed.entrySet()) {
+                if (nameIndexOf.changed.get(change.getKey()) != change.getValue()) {
+                    if (change.getValue() == null) {
+                        nameIndex.remove(change.getKey());
+                    } else {
+                        nameIndex.add(change.getValue());
+                    }
+                }
+            }
+        }
+        nameIndexOf = current;
+        return nameIndex;
+    }
+
+    // Reads the building names from locations.txt. On a reload only the
+    // changed lines are parsed, and the list is replaced only if they changed.
+    private static synchronized void loadBuildings() {
+        Path file = new File(LOCATIONS_FILE).toPath();
+        try {
+            LineIndex.Diff diff = locationLines == null ? null : locationLines.diff(file);
+            LineIndex lines = diff == null ? LineIndex.build(file, line -> line.split("\t")[0]) : diff.index;
+            if (diff == null || !diff.isEmpty()) {
+                buildings = List.copyOf(lines.keys());
+                walking = null;
             }
+            locationLines = lines;
         } catch (IOException e) {
             System.out.println("Error loading buildings: " + e.getMessage());
         }
     }
 
     private static String chooseBuilding() {
+        List<String> buildings = EventManager.buildings;
         if (buildings.isEmpty()) {
             System.out.println("No buildings available.");
             return "Unknown";
@@ -312,16 +588,56 @@ public class EventManager {
     }
 
     private static void manageParticipants() {
-        System.out.println("Enter comma-separated roll numbers of participants:");
-        String input = scanner.nextLine();
-        String[] rollNumbers = input.split(",");
+        System.out.println("\n--- Participants ---");
+        System.out.println("1. Register Participants");
+        System.out.println("2. Remove Participants");
+        System.out.println("3. View Participants of an Event");
+        System.out.println("4. Students Attending Two Events");
+        System.out.println("5. Students Attending Events in a Date Range");
+        System.out.println("6. Participants per Hostel");
+        int choice = getIntInput("Choose an option: ");
+        try {
+            switch (choice) {
+                case 1 -> registerParticipants();
+                case 2 -> removeParticipants();
+                case 3 -> {
+                    long eventId = chooseEvent("Event ID: ");
+                    if (eventId < 0)
+                        return;
+                    printParticipants(participants.participants(eventId));
+                }
+                case 4 -> {
+                    long first = chooseEvent("First Event ID: ");
+                    if (first < 0)
+                        return;
+                    long second = chooseEvent("Second Event ID: ");
+                    if (second < 0)
+                        return;
+                    printParticipants(RoaringBitmap.and(participants.participants(first),
+                            participants.participants(second)));
+                }
+                case 5 -> participantsInDateRange();
+                case 6 -> participantsPerHostel();
+                default -> System.out.println("Invalid choice.");
+            }
+        } catch (IOException e) {
+            System.out.println("Error managing participants: " + e.getMessage());
+        }
+    }
+
+    private static void registerParticipants() throws IOException {
+        long eventId = chooseEvent("Event ID: ");
+        if (eventId < 0)
+            return;
+        System.out.println("Enter comma-separated roll numbers (or names/emails) of participants:");
+        List<String> rollNumbers = chooseStudents(scanner.nextLine());
 
         List<String> validRollNumbers = new ArrayList<>();
         List<String> invalidRollNumbers = new ArrayList<>();
 
         for (String rollNumber : rollNumbers) {
             rollNumber = rollNumber.trim();
-            if (studentMap.containsKey(rollNumber)) {
+            if (findStudent(rollNumber) != null) {
                 validRollNumbers.add(rollNumber);
             } else {
                 invalidRollNumbers.add(rollNumber);
@@ -330,7 +646,7 @@ public class EventManager {
 
         System.out.println("\nValid Participants:");
         for (String rollNumber : validRollNumbers) {
-            Student student = studentMap.get(rollNumber);
+            Student student = findStudent(rollNumber);
             System.out.println("Roll Number: " + rollNumber + ", Name: " + student.firstName + " " + student.lastName);
         }
 
@@ -340,6 +656,408 @@ public class EventManager {
                 System.out.println(rollNumber);
             }
         }
+
+        // The event is fetched again, its clashes checked and the participants
+        // written all under the participant log's lock, which deleting an
+        // event also takes, so another operator cannot delete or move it in
+        // between
+        EventSchedule.Registration result = schedule.register(eventId, validRollNumbers);
+        if (!result.eventFound) {
+            System.out.println("\nNot registered, the event was deleted by another operator meanwhile.");
+            return;
+        }
+        for (Map.Entry<String, List<Long>> clash : result.clashes.entrySet()) {
+            System.out.println("Not registered, " + clash.getKey() + " is at event(s) " + clash.getValue() + " then.");
+        }
+        System.out.println("\nRegistered " + result.changed + " new participant(s).");
+    }
+
+    private static void removeParticipants() throws IOException {
+        long eventId = chooseEvent("Event ID: ");
+        if (eventId < 0)
+            return;
+        System.out.println("Enter comma-separated roll numbers (or names/emails) to remove:");
+        List<String> rollNumbers = chooseStudents(scanner.nextLine());
+        int removed = participants.unregister(eventId, rollNumbers);
+        schedule.studentsUnregistered(eventId, rollNumbers, removed);
+        System.out.println("Removed " + removed + " participant(s).");
+    }
+
+    // Students registered for any event whose date lies in the range
+    private static void participantsInDateRange() throws IOException {
+        LocalDate from = getDateInput("From Date (YYYY-MM-DD)");
+        LocalDate to = getDateInput("To Date (YYYY-MM-DD)");
+        List<Long> eventIds = new ArrayList<>();
+        for (EventStore.Record record : events.all()) {
+            try {
+                LocalDate date = LocalDate.parse(padEvent(record.fields)[3]);
+                if (!date.isBefore(from) && !date.isAfter(to))
+                    eventIds.add(record.id);
+            } catch (java.time.format.DateTimeParseException e) {
+                // Events without a valid date are not in any range
+            }
+        }
+        System.out.println(eventIds.size() + " event(s) in range.");
+        printParticipants(participants.participantsOfAny(eventIds));
+    }
+
+    // Counts an event's participants per hostel by intersecting its bitmap
+    // with one bitmap per hostel
+    private static void participantsPerHostel() throws IOException {
+        long eventId = chooseEvent("Event ID: ");
+        if (eventId < 0)
+            return;
+        RoaringBitmap attending = participants.participants(eventId);
+
+        int counted = 0;
+        for (Map.Entry<String, RoaringBitmap> entry : hostelBitmaps().entrySet()) {
+            int count = RoaringBitmap.andCardinality(attending, entry.getValue());
+            if (count > 0) {
+                System.out.println(entry.getKey() + ": " + count);
+                counted += count;
+            }
+        }
+        if (counted < attending.cardinality()) {
+            System.out.println("No longer in the student list: " + (attending.cardinality() - counted));
+        }
+        System.out.println("Total: " + attending.cardinality());
+    }
+
+    // The current students of each hostel as a participant bitmap, day
+    // scholars under DAY_SCHOLAR. Kept between calls: rebuilt from the
+    // registered students when the students are reloaded, and otherwise only
+    // extended with those registered for the first time since, so a call
+    // costs nothing like a pass over the roster.
+    private static Map<String, RoaringBitmap> hostelBitmaps() throws IOException {
+        Students current = students;
+        List<String> added = hostelBitmapsOf == current ? participants.rollNumbersFrom(hostelOrdinals) : null;
+        if (added == null) {
+            hostelBitmaps = new TreeMap<>();
+            hostelBitmapsOf = current;
+            hostelOrdinals = 0;
+            added = participants.rollNumbersFrom(0);
+        }
+        for (String rollNumber : added) {
+            Student student = current.find(rollNumber);
+            if (student != null) {
+                String hostel = student.isHosteller ? student.hostelName : DAY_SCHOLAR;
+                hostelBitmaps.computeIfAbsent(hostel, k -> new RoaringBitmap()).add(hostelOrdinals);
+            }
+            hostelOrdinals++;
+        }
+        return hostelBitmaps;
+    }
+
+    // Reports how far participants walk from their hostels to an event, or
+    // to every event. Events in the same building share one road search, and
+    // buildings are searched in parallel.
+    private static void walkingDistances() {
+        int eventId = getIntInput("Event ID (0 for every event): ");
+        try {
+            List<EventStore.Record> records = new ArrayList<>();
+            if (eventId == 0) {
+                records.addAll(events.all());
+            } else {
+                EventStore.Record record = events.get(eventId);
+                if (record == null) {
+                    System.out.println("Invalid Event ID.");
+                    return;
+                }
+                records.add(record);
+            }
+            // Read once: the file watcher may drop it at any time
+            WalkingDistances loaded = walking;
+            if (loaded == null) {
+                System.out.println("Loading the road network...");
+                loaded = WalkingDistances.load(MAP_FILE, LOCATIONS_FILE);
+                walking = loaded;
+            }
+            WalkingDistances map = loaded;
+
+            // Participants per hostel of each event, from the hostel bitmaps
+            Map<String, RoaringBitmap> hostels = hostelBitmaps();
+            Map<Long, Map<String, Integer>> counts = new HashMap<>();
+            Map<String, List<EventStore.Record>> byBuilding = new HashMap<>();
+            for (EventStore.Record record : records) {
+                RoaringBitmap attending = participants.participants(record.id);
+                if (attending.isEmpty()) {
+                    continue;
+                }
+                Map<String, Integer> perHostel = new HashMap<>();
+                for (Map.Entry<String, RoaringBitmap> hostel : hostels.entrySet()) {
+                    int count = RoaringBitmap.andCardinality(attending, hostel.getValue());
+                    if (count > 0) {
+                        perHostel.put(hostel.getKey().equals(DAY_SCHOLAR) ? null : hostel.getKey(), count);
+                    }
+                }
+                counts.put(record.id, perHostel);
+                byBuilding.computeIfAbsent(EventSchedule.normalise(padEvent(record.fields)[1]),
+                        k -> new ArrayList<>()).add(record);
+            }
+
+            Map<Long, WalkingDistances.Walk> walks = new ConcurrentHashMap<>();
+            byBuilding.values().parallelStream().forEach(venue -> {
+                for (EventStore.Record record : venue) {
+                    walks.put(record.id, map.walk(padEvent(record.fields)[1], counts.get(record.id)));
+                }
+            });
+
+            WalkingDistances.Walk overall = new WalkingDistances.Walk();
+            for (EventStore.Record record : records) {
+                WalkingDistances.Walk walk = walks.get(record.id);
+                if (walk == null) {
+                    continue;
+                }
+                overall.add(walk);
+                String[] data = padEvent(record.fields);
+                StringBuilder line = new StringBuilder("Event " + record.id + " (" + data[0] + ") at " + data[1]
+                        + ": ");
+                if (walk.students > 0) {
+                    line.append(String.format("%d hosteller(s), average %.0f m, longest %.0f m from %s",
+                            walk.students, walk.average(), walk.max, walk.farthest));
+                } else {
+                    line.append("no known walks");
+                }
+                if (walk.dayScholars > 0) {
+                    line.append("; ").append(walk.dayScholars).append(" day scholar(s)");
+                }
+                if (walk.unknown > 0) {
+                    line.append("; ").append(walk.unknown).append(" from hostels or venues not on the map");
+                }
+                System.out.println(line);
+            }
+            if (walks.isEmpty()) {
+                System.out.println("No participants.");
+            } else if (records.size() > 1) {
+                System.out.printf("All events: %d walk(s), average %.0f m, longest %.0f m%n", overall.students,
+                        overall.average(), overall.max);
+            }
+        } catch (IOException | ParserConfigurationException | SAXException | NumberFormatException e) {
+            // A malformed number in the map is reported like any other parse error
+            System.out.println("Error computing walking distances: " + e.getMessage());
+        }
+    }
+
+    private static void printParticipants(RoaringBitmap bitmap) throws IOException {
+        if (bitmap.isEmpty()) {
+            System.out.println("No participants.");
+            return;
+        }
+        for (String rollNumber : participants.rollNumbers(bitmap)) {
+            Student student = findStudent(rollNumber);
+            String name = student == null ? "(no longer in the student list)"
+                    : student.firstName + " " + student.lastName;
+            System.out.println("Roll Number: " + rollNumber + ", Name: " + name);
+        }
+        System.out.println(bitmap.cardinality() + " participant(s).");
+    }
+
+    private static void upcomingEvents() {
+        String building = chooseBuildingFilter();
+        try {
+            browse(timeIndex.upcoming(EventSchedule.minuteOf(LocalDateTime.now()), building));
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error reading events: " + e.getMessage());
+        }
+    }
+
+    private static void eventsBetweenDates() {
+        LocalDate from = getDateInput("From Date (YYYY-MM-DD)");
+        LocalDate to = getDateInput("To Date (YYYY-MM-DD)");
+        String building = chooseBuildingFilter();
+        try {
+            browse(timeIndex.range(EventSchedule.minuteOf(from.atStartOfDay()),
+                    EventSchedule.minuteOf(to.plusDays(1).atStartOfDay()), building));
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error reading events: " + e.getMessage());
+        }
+    }
+
+    // Returns the building to filter by, or null for all buildings
+    private static String chooseBuildingFilter() {
+        System.out.print("Only events in one building? (y/n): ");
+        return scanner.nextLine().trim().equalsIgnoreCase("y") ? chooseBuilding() : null;
+    }
+
+    // Shows the cursor's events a page at a time; only the events shown are read
+    private static void browse(EventTimeIndex.Cursor cursor) {
+        int shown = 0;
+        while (true) {
+            List<EventStore.Record> page = cursor.nextPage(PAGE_SIZE);
+            for (EventStore.Record record : page) {
+                System.out.println("\nEvent ID: " + record.id);
+                System.out.println(formatEvent(record.fields));
+            }
+            shown += page.size();
+            if (page.size() < PAGE_SIZE || !cursor.hasNext()) {
+                break;
+            }
+            System.out.print("\nPress Enter for more, or q to stop: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+        }
+        if (shown == 0) {
+            System.out.println("No events found.");
+        }
+    }
+
+    private static void searchEvents() {
+        System.out.print("Search for: ");
+        String query = scanner.nextLine();
+        try {
+            List<EventSearchIndex.Hit> hits = searchIndex.search(query, 10);
+            for (EventSearchIndex.Hit hit : hits) {
+                EventStore.Record record = events.get(hit.eventId);
+                if (record != null) {
+                    System.out.printf("%nEvent ID: %d (score %.2f)%n", record.id, hit.score);
+                    System.out.println(formatEvent(record.fields));
+                }
+            }
+            if (hits.isEmpty()) {
+                System.out.println("No matching events.");
+            }
+        } catch (IOException e) {
+            System.out.println("Error searching events: " + e.getMessage());
+        }
+    }
+
+    private static void findConflicts() {
+        try {
+            List<EventSchedule.Conflict> conflicts = schedule.findAllConflicts();
+            for (EventSchedule.Conflict conflict : conflicts) {
+                System.out.println(conflict);
+            }
+            System.out.println(conflicts.isEmpty() ? "No scheduling conflicts." : conflicts.size() + " conflict(s).");
+        } catch (IOException e) {
+            System.out.println("Error checking conflicts: " + e.getMessage());
+        }
+    }
+
+    // Reschedules the events in a date range: proposes rooms and times with
+    // fewer participant clashes, and saves them if the user agrees
+    private static void optimiseSchedule() {
+        LocalDate from = getDateInput("First Day (YYYY-MM-DD)");
+        LocalDate to = getDateInput("Last Day (YYYY-MM-DD)");
+        LocalTime dayStart = getTimeInput("Day Starts At (HH:MM): ");
+        LocalTime dayEnd = getTimeInput("Day Ends At (HH:MM): ");
+        if (to.isBefore(from) || !dayEnd.isAfter(dayStart)) {
+            System.out.println("Invalid range.");
+            return;
+        }
+
+        try {
+            ScheduleOptimiser optimiser = new ScheduleOptimiser(from, to, dayStart, dayEnd);
+            // Candidate rooms: those already used in the buildings of locations.txt
+            Set<String> known = new HashSet<>();
+            for (String building : buildings) {
+                known.add(EventSchedule.normalise(building));
+            }
+            for (EventStore.Record record : events.all()) {
+                String[] data = padEvent(record.fields);
+                if (known.contains(EventSchedule.normalise(data[1])) && !data[2].trim().isEmpty()) {
+                    optimiser.addRoom(data[1], data[2]);
+                }
+            }
+
+            Map<Long, EventStore.Record> batch = new HashMap<>();
+            EventTimeIndex.Cursor cursor = timeIndex.range(EventSchedule.minuteOf(from.atStartOfDay()),
+                    EventSchedule.minuteOf(to.plusDays(1).atStartOfDay()), null);
+            while (cursor.hasNext()) {
+                EventStore.Record record = cursor.next();
+                String[] data = padEvent(record.fields);
+                if (optimiser.addEvent(record.id, data, participants.participants(record.id))) {
+                    batch.put(record.id, record);
+                } else {
+                    System.out.println("Event " + record.id + " is longer than the day and is left as it is.");
+                }
+            }
+            if (batch.isEmpty()) {
+                System.out.println("No events found.");
+                return;
+            }
+
+            System.out.println("Optimising " + batch.size() + " event(s)...");
+            ScheduleOptimiser.Result result = optimiser.optimise(OPTIMISE_MILLIS);
+            for (ScheduleOptimiser.Placement placement : result.placements) {
+                if (placement.moved) {
+                    String[] data = padEvent(batch.get(placement.id).fields);
+                    System.out.println("Event " + placement.id + " (" + data[0] + "): " + data[1] + ", " + data[2]
+                            + " " + data[3] + " " + data[4] + " -> " + placement.building + ", " + placement.room
+                            + " " + placement.start.toLocalDate() + " " + placement.start.toLocalTime());
+                }
+            }
+            if (result.leftOffGrid > 0) {
+                System.out.println(result.leftOffGrid + " event(s) not on the " + ScheduleOptimiser.GRID_MINUTES
+                        + "-minute grid or outside the day's hours are in no clash and are left where they are.");
+            }
+            System.out.println("Participant clashes: " + result.clashesBefore + " before, " + result.clashesAfter
+                    + " after. " + result.moved + " event(s) to move.");
+            if (result.moved == 0 || !confirm("Apply this schedule? (y/n): ")) {
+                return;
+            }
+
+            int saved = 0;
+            for (ScheduleOptimiser.Placement placement : result.placements) {
+                if (!placement.moved) {
+                    continue;
+                }
+                EventStore.Record record = batch.get(placement.id);
+                String[] updated = padEvent(record.fields);
+                updated[1] = placement.building;
+                updated[2] = placement.room;
+                updated[3] = placement.start.toLocalDate().toString();
+                updated[4] = placement.start.toLocalTime().toString();
+                try {
+                    if (events.update(placement.id, updated, record.version)) {
+                        schedule.eventSaved(placement.id, updated);
+                        timeIndex.eventSaved(placement.id, updated);
+                        searchIndex.eventSaved(placement.id, updated);
+                        saved++;
+                    } else {
+                        System.out.println("Event " + placement.id + " was deleted meanwhile.");
+                    }
+                } catch (ConcurrentModificationException e) {
+                    System.out.println("Event " + placement.id + " was changed meanwhile and is left as it is.");
+                }
+            }
+            System.out.println(saved + " event(s) rescheduled.");
+        } catch (IllegalStateException e) {
+            System.out.println("Could not build a schedule: " + e.getMessage());
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error optimising schedule: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Lists the clashing events and asks whether to go ahead regardless
+    private static boolean confirmClashes(String heading, List<Long> ids) throws IOException {
+        System.out.println(heading);
+        for (long id : ids) {
+            EventStore.Record record = events.get(id);
+            if (record != null) {
+                String[] data = padEvent(record.fields);
+                System.out.println("  Event " + id + ": " + data[0] + " on " + data[3] + " at " + data[4] + " ("
+                        + EventSchedule.durationOf(data) + " min)");
+            }
+        }
+        return confirm("Save anyway? (y/n): ");
+    }
+
+    private static boolean confirm(String prompt) {
+        System.out.print(prompt);
+        return scanner.nextLine().trim().equalsIgnoreCase("y");
+    }
+
+    // Asks for an event ID and returns it, or -1 if there is no such event
+    private static long chooseEvent(String prompt) throws IOException {
+        int id = getIntInput(prompt);
+        if (events.get(id) == null) {
+            System.out.println("Invalid Event ID.");
+            return -1;
+        }
+        return id;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,466 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.stream.Collectors;
+
+// Scheduling index over the event and participant stores: one IntervalTree
+// of event times per room and one per registered student, so checking a new
+// or moved event for double bookings costs O(log n) per room or student
+// instead of a pass over every event.
+//
+// The index lives in memory and is built from the stores. Both stores count
+// their changes, and each change adds exactly one, so after making a change
+// the index can tell whether it was the only one: if so the index is updated
+// in place, otherwise (another process changed something too) it is rebuilt.
+//
+// findAllConflicts() checks a whole calendar at once: each building's rooms,
+// and each student's events, are swept independently on the common
+// fork-join pool.
+public class EventSchedule {
+
+    // Time slot of one event, in minutes since the epoch
+    private static class Slot {
+        final String room;
+        final long start;
+        final long end;
+        final Set<String> students = new LinkedHashSet<>();
+
+        Slot(String room, long start, long end) {
+            this.room = room;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // Two events that overlap in the same room or for the same student
+    public static class Conflict {
+        public final long first;
+        public final long second;
+        public final String reason;
+
+        Conflict(long first, long second, String reason) {
+            this.first = first;
+            this.second = second;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return "Events " + first + " and " + second + " overlap: " + reason;
+        }
+    }
+
+    // What registerAll() did with one change: nothing if the event no longer
+    // exists, otherwise how many registrations changed, and for a
+    // registration the students left out because they are at another event
+    // then, mapped to those events
+    public static class Registration {
+        public final boolean eventFound;
+        public final int changed;
+        public final Map<String, List<Long>> clashes;
+
+        Registration(boolean eventFound, int changed, Map<String, List<Long>> clashes) {
+            this.eventFound = eventFound;
+            this.changed = changed;
+            this.clashes = clashes;
+        }
+    }
+
+    private final EventStore events;
+    private final ParticipantStore participants;
+
+    private final Map<String, IntervalTree> rooms = new HashMap<>();
+    private final Map<String, IntervalTree> students = new HashMap<>();
+    private final Map<Long, Slot> slots = new HashMap<>();
+    private long eventChanges = -1;
+    private long participantChanges = -1;
+
+    public EventSchedule(EventStore events, ParticipantStore participants) {
+        this.events = events;
+        this.participants = participants;
+    }
+
+    // Rebuilds the index if either store changed since it was built
+    public void refresh() throws IOException {
+        if (events.changes() != eventChanges || participants.changes() != participantChanges) {
+            rebuild();
+        }
+    }
+
+    // Events in the same room overlapping the time, other than the excluded
+    // one (pass the event's own id when moving it, or 0)
+    public List<Long> roomClashes(String building, String room, long start, long end, long excludeId)
+            throws IOException {
+        refresh();
+        List<Long> ids = new ArrayList<>();
+        IntervalTree tree = rooms.get(roomKey(building, room));
+        if (tree != null) {
+            tree.overlapping(start, end, ids);
+        }
+        ids.remove(Long.valueOf(excludeId));
+        return ids;
+    }
+
+    // Events the student is registered for that overlap the time
+    public List<Long> studentClashes(String rollNumber, long start, long end, long excludeId) throws IOException {
+        refresh();
+        return overlapping(rollNumber, start, end, excludeId);
+    }
+
+    // Registered students of the event who have another event during the
+    // given time, mapped to those events
+    public Map<String, List<Long>> participantClashes(long eventId, long start, long end) throws IOException {
+        refresh();
+        Map<String, List<Long>> clashes = new TreeMap<>();
+        Slot slot = slots.get(eventId);
+        if (slot != null) {
+            for (String roll : slot.students) {
+                List<Long> ids = studentClashes(roll, start, end, eventId);
+                if (!ids.isEmpty()) {
+                    clashes.put(roll, ids);
+                }
+            }
+        }
+        return clashes;
+    }
+
+    // Call after the event was added or updated in the store
+    public void eventSaved(long id, String[] fields) throws IOException {
+        if (!onlyChange(1, 0)) {
+            rebuild();
+            return;
+        }
+        Slot old = slots.get(id);
+        Collection<String> registered = old == null ? Set.of() : old.students;
+        removeSlot(id);
+        addSlot(id, fields, registered);
+        eventChanges++;
+    }
+
+    // Call after the event and its registrations were deleted from the stores
+    public void eventDeleted(long id) throws IOException {
+        Slot old = slots.get(id);
+        boolean hadStudents = old != null && !old.students.isEmpty();
+        if (!onlyChange(1, hadStudents ? 1 : 0)) {
+            rebuild();
+            return;
+        }
+        removeSlot(id);
+        eventChanges++;
+        participantChanges += hadStudents ? 1 : 0;
+    }
+
+    // Call after registering students; 'changed' is the count register()
+    // returned
+    public void studentsRegistered(long id, Collection<String> rollNumbers, int changed) throws IOException {
+        if (!onlyChange(0, changed > 0 ? 1 : 0)) {
+            rebuild();
+            return;
+        }
+        addStudents(id, rollNumbers);
+        participantChanges += changed > 0 ? 1 : 0;
+    }
+
+    // Call after unregistering students; 'changed' is the count unregister()
+    // returned
+    public void studentsUnregistered(long id, Collection<String> rollNumbers, int changed) throws IOException {
+        if (!onlyChange(0, changed > 0 ? 1 : 0)) {
+            rebuild();
+            return;
+        }
+        removeStudents(id, rollNumbers);
+        participantChanges += changed > 0 ? 1 : 0;
+    }
+
+    // Registers the students for the event, leaving out those at another
+    // event then; see registerAll()
+    public Registration register(long eventId, Collection<String> rollNumbers) throws IOException {
+        return registerAll(List.of(new ParticipantStore.Change(eventId, rollNumbers, true))).get(0);
+    }
+
+    // Applies the registrations and unregistrations, leaving out students who
+    // would be at two events at once, and returns what happened to each.
+    // Everything from reading the events to writing the log happens under
+    // the participant log's lock. Deleting an event drops its registrations
+    // under that lock after deleting it, so a change either finds the event
+    // gone or is dropped along with it; no registration outlives its event.
+    // Later changes in the batch see the registrations of earlier ones.
+    public List<Registration> registerAll(List<ParticipantStore.Change> batch) throws IOException {
+        return participants.locked(() -> {
+            refresh();
+            List<ParticipantStore.Change> kept = new ArrayList<>(batch.size());
+            List<Map<String, List<Long>>> keptClashes = new ArrayList<>(batch.size());
+            boolean[] found = new boolean[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                ParticipantStore.Change change = batch.get(i);
+                EventStore.Record event = events.get(change.eventId);
+                if (event == null) {
+                    continue;
+                }
+                found[i] = true;
+                Map<String, List<Long>> clashes = new TreeMap<>();
+                Collection<String> rolls = change.rollNumbers;
+                // The index is updated as the log will be, so that later
+                // changes are checked against this one
+                if (change.register) {
+                    rolls = freeStudents(event, rolls, clashes);
+                    addStudents(change.eventId, rolls);
+                } else {
+                    removeStudents(change.eventId, rolls);
+                }
+                kept.add(new ParticipantStore.Change(change.eventId, rolls, change.register));
+                keptClashes.add(clashes);
+            }
+
+            int[] counts;
+            try {
+                counts = kept.isEmpty() ? new int[0] : participants.changeAll(kept);
+            } catch (IOException | RuntimeException e) {
+                participantChanges = -1; // The index may hold changes that were not written
+                throw e;
+            }
+            // Nobody else can have written the log while we hold its lock
+            participantChanges = participants.changes();
+
+            List<Registration> results = new ArrayList<>(batch.size());
+            int next = 0;
+            for (boolean eventFound : found) {
+                if (eventFound) {
+                    results.add(new Registration(true, counts[next], keptClashes.get(next)));
+                    next++;
+                } else {
+                    results.add(new Registration(false, 0, Map.of()));
+                }
+            }
+            return results;
+        });
+    }
+
+    // Every pair of overlapping events in the same room or with a common
+    // participant. Buildings and students are checked in parallel.
+    public List<Conflict> findAllConflicts() throws IOException {
+        long changes = events.changes();
+        List<EventStore.Record> records = events.all();
+
+        Map<String, List<EventStore.Record>> byBuilding = new HashMap<>();
+        Map<Long, long[]> times = new HashMap<>();
+        for (EventStore.Record record : records) {
+            long[] time = timeOf(record.fields);
+            if (time != null) {
+                times.put(record.id, time);
+                byBuilding.computeIfAbsent(normalise(record.fields[1]), k -> new ArrayList<>()).add(record);
+            }
+        }
+
+        List<Conflict> conflicts = byBuilding.values().parallelStream()
+                .flatMap(building -> {
+                    Map<String, List<long[]>> byRoom = new HashMap<>();
+                    Map<String, String> labels = new HashMap<>();
+                    for (EventStore.Record record : building) {
+                        long[] time = times.get(record.id);
+                        String key = roomKey(record.fields[1], record.fields[2]);
+                        byRoom.computeIfAbsent(key, k -> new ArrayList<>()).add(new long[] { time[0], time[1], record.id });
+                        labels.putIfAbsent(key, record.fields[1].trim() + ", " + record.fields[2].trim());
+                    }
+                    List<Conflict> found = new ArrayList<>();
+                    for (Map.Entry<String, List<long[]>> room : byRoom.entrySet()) {
+                        sweep(room.getValue(), "same room (" + labels.get(room.getKey()) + ")", found);
+                    }
+                    return found.stream();
+                })
+                .collect(Collectors.toList());
+
+        // Participants of every event, inverted to the events of each student
+        Map<String, List<long[]>> byStudent = new HashMap<>();
+        for (long id : times.keySet()) {
+            long[] time = times.get(id);
+            for (String roll : participants.rollNumbers(participants.participants(id))) {
+                byStudent.computeIfAbsent(roll, k -> new ArrayList<>()).add(new long[] { time[0], time[1], id });
+            }
+        }
+        conflicts.addAll(byStudent.entrySet().parallelStream()
+                .flatMap(student -> {
+                    List<Conflict> found = new ArrayList<>();
+                    sweep(student.getValue(), "student " + student.getKey() + " is registered for both", found);
+                    return found.stream();
+                })
+                .collect(Collectors.toList()));
+
+        if (changes != events.changes()) {
+            return findAllConflicts(); // Changed while we were reading
+        }
+        conflicts.sort(Comparator.comparingLong((Conflict c) -> c.first).thenComparingLong(c -> c.second));
+        return conflicts;
+    }
+
+    // Reports each overlapping pair among intervals {start, end, id}: sorted
+    // by start, each interval is compared with the still-open earlier ones
+    private static void sweep(List<long[]> intervals, String reason, List<Conflict> found) {
+        intervals.sort(Comparator.comparingLong(t -> t[0]));
+        PriorityQueue<long[]> open = new PriorityQueue<>(Comparator.comparingLong(t -> t[1]));
+        for (long[] interval : intervals) {
+            while (!open.isEmpty() && open.peek()[1] <= interval[0]) {
+                open.poll();
+            }
+            for (long[] earlier : open) {
+                found.add(new Conflict(Math.min(earlier[2], interval[2]), Math.max(earlier[2], interval[2]),
+                        reason));
+            }
+            open.add(interval);
+        }
+    }
+
+    // Returns {start, end} in minutes since the epoch, or null if the event
+    // has no valid date and time
+    public static long[] timeOf(String[] fields) {
+        try {
+            LocalDateTime start = LocalDateTime.of(LocalDate.parse(field(fields, 3)),
+                    LocalTime.parse(field(fields, 4)));
+            long minute = minuteOf(start);
+            return new long[] { minute, minute + durationOf(fields) };
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Event times are local wall-clock times; they are numbered as if they
+    // were UTC so that every day has the same number of minutes
+    public static long minuteOf(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
+    // The event's length in minutes, from the optional eighth field
+    public static int durationOf(String[] fields) {
+        try {
+            String minutes = field(fields, 7);
+            return minutes.isEmpty() ? Event.DEFAULT_DURATION_MINUTES : Math.max(1, Integer.parseInt(minutes));
+        } catch (NumberFormatException e) {
+            return Event.DEFAULT_DURATION_MINUTES;
+        }
+    }
+
+    private boolean onlyChange(int eventDelta, int participantDelta) throws IOException {
+        return events.changes() == eventChanges + eventDelta
+                && participants.changes() == participantChanges + participantDelta;
+    }
+
+    private void rebuild() throws IOException {
+        rooms.clear();
+        students.clear();
+        slots.clear();
+        // Read the counters first: a change made while reading the records
+        // then only causes one more rebuild
+        eventChanges = events.changes();
+        participantChanges = participants.changes();
+        for (EventStore.Record record : events.all()) {
+            addSlot(record.id, record.fields, participants.rollNumbers(participants.participants(record.id)));
+        }
+    }
+
+    // The students who are at no other event during this one; the others go
+    // into clashes with the events they are at
+    private List<String> freeStudents(EventStore.Record event, Collection<String> rollNumbers,
+            Map<String, List<Long>> clashes) {
+        long[] time = timeOf(event.fields);
+        List<String> free = new ArrayList<>(rollNumbers.size());
+        for (String roll : rollNumbers) {
+            List<Long> ids = time == null ? List.of() : overlapping(roll, time[0], time[1], event.id);
+            if (ids.isEmpty()) {
+                free.add(roll);
+            } else {
+                clashes.put(roll.trim(), ids);
+            }
+        }
+        return free;
+    }
+
+    private List<Long> overlapping(String rollNumber, long start, long end, long excludeId) {
+        List<Long> ids = new ArrayList<>();
+        IntervalTree tree = students.get(rollNumber.trim());
+        if (tree != null) {
+            tree.overlapping(start, end, ids);
+        }
+        ids.remove(Long.valueOf(excludeId));
+        return ids;
+    }
+
+    private void addStudents(long id, Collection<String> rollNumbers) {
+        Slot slot = slots.get(id);
+        if (slot != null) {
+            for (String roll : rollNumbers) {
+                String key = roll.trim();
+                if (slot.students.add(key)) {
+                    students.computeIfAbsent(key, k -> new IntervalTree()).insert(slot.start, slot.end, id);
+                }
+            }
+        }
+    }
+
+    private void removeStudents(long id, Collection<String> rollNumbers) {
+        Slot slot = slots.get(id);
+        if (slot != null) {
+            for (String roll : rollNumbers) {
+                String key = roll.trim();
+                if (slot.students.remove(key)) {
+                    removeStudentSlot(key, slot.start, id);
+                }
+            }
+        }
+    }
+
+    private void addSlot(long id, String[] fields, Collection<String> registered) {
+        long[] time = timeOf(fields);
+        if (time == null) {
+            return;
+        }
+        Slot slot = new Slot(roomKey(field(fields, 1), field(fields, 2)), time[0], time[1]);
+        slots.put(id, slot);
+        rooms.computeIfAbsent(slot.room, k -> new IntervalTree()).insert(slot.start, slot.end, id);
+        for (String roll : registered) {
+            slot.students.add(roll);
+            students.computeIfAbsent(roll, k -> new IntervalTree()).insert(slot.start, slot.end, id);
+        }
+    }
+
+    private void removeSlot(long id) {
+        Slot slot = slots.remove(id);
+        if (slot == null) {
+            return;
+        }
+        IntervalTree room = rooms.get(slot.room);
+        room.remove(slot.start, id);
+        if (room.isEmpty()) {
+            rooms.remove(slot.room);
+        }
+        for (String roll : slot.students) {
+            removeStudentSlot(roll, slot.start, id);
+        }
+    }
+
+    private void removeStudentSlot(String roll, long start, long id) {
+        IntervalTree tree = students.get(roll);
+        if (tree != null) {
+            tree.remove(start, id);
+            if (tree.isEmpty()) {
+                students.remove(roll);
+            }
+        }
+    }
+
+    // Room names are typed by hand, so "Edison block" and "Edison Block "
+    // must be the same room
+    private static String roomKey(String building, String room) {
+        return normalise(building) + '\u0000' + normalise(room);
+    }
+
+    static String normalise(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String field(String[] fields, int i) {
+        return i < fields.length ? fields[i].trim() : "";
+    }
+}
@@ -0,0 +1,625 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Full-text search over event names, organisers and details.
+//
+// An inverted index maps each term to a posting list of (document, term
+// frequency) pairs. Postings are stored as varint-coded document gaps and
+// frequencies in one byte array per term, in blocks of 128 with the last
+// document of each block kept aside, so a list can skip whole blocks when
+// looking for a document.
+//
+// Results are ranked with BM25, where a match in the name counts three times
+// and in the organiser twice. Top-k retrieval uses MaxScore: every term has an
+// upper bound on what it can add to a score, and once k results are known,
+// documents that only contain low-bound terms cannot enter the top k and are
+// skipped without being scored. Each block also records its highest term
+// frequency and shortest document, which bound the score of anything in it,
+// so blocks that cannot beat the current top k are skipped undecoded. Query
+// time then depends mostly on how many documents score well, not on how many
+// documents contain the terms.
+//
+// Documents are numbered in the order they are indexed. Updating an event
+// indexes it again under a new number and marks the old one deleted; when
+// deleted documents make up half the index, the postings are rewritten
+// without them. Ranking counts live documents only: each document keeps the
+// posting lists it is in, so deleting it takes it out of their counts. The index is saved beside the event store and kept in step
+// with this process's changes in the same way as EventTimeIndex. Changes made
+// by other processes are applied incrementally: each document keeps the
+// version of its event, and only events whose version differs from the
+// store's are read and indexed again.
+public class EventSearchIndex {
+    private static final int MAGIC = 0x45565358; // "EVSX"
+    private static final int FORMAT = 2;
+    private static final long UNKNOWN_VERSION = 0; // Versions start at 1
+
+    private static final int BLOCK = 128;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int NAME_WEIGHT = 3;
+    private static final int ORGANISER_WEIGHT = 2;
+    private static final int DETAILS_WEIGHT = 1;
+    private static final Set<String> STOP_WORDS = Set.of("a", "an", "and", "at", "by", "for", "in", "is", "of",
+            "on", "or", "the", "to", "with");
+
+    // One search result
+    public static class Hit {
+        public final long eventId;
+        public final double score;
+
+        Hit(long eventId, double score) {
+            this.eventId = eventId;
+            this.score = score;
+        }
+    }
+
+    // Posting list of one term
+    private static class Postings {
+        byte[] data = new byte[16];
+        int size; // Bytes used
+        int count; // Documents
+        int live; // Documents not deleted
+        int lastDoc = -1;
+        int maxFrequency;
+        int[] blockLastDoc = new int[1];
+        int[] blockOffset = new int[1];
+        int[] blockMaxFrequency = new int[1];
+        int[] blockMinLength = new int[1];
+
+        void add(int doc, int frequency, int length) {
+            int block = count / BLOCK;
+            if (count % BLOCK == 0) {
+                if (block == blockOffset.length) {
+                    blockOffset = Arrays.copyOf(blockOffset, block * 2);
+                    blockLastDoc = Arrays.copyOf(blockLastDoc, block * 2);
+                    blockMaxFrequency = Arrays.copyOf(blockMaxFrequency, block * 2);
+                    blockMinLength = Arrays.copyOf(blockMinLength, block * 2);
+                }
+                blockOffset[block] = size;
+                blockMaxFrequency[block] = 0;
+                blockMinLength[block] = Integer.MAX_VALUE;
+            }
+            writeVarint(doc - lastDoc);
+            writeVarint(frequency);
+            lastDoc = doc;
+            blockLastDoc[block] = doc;
+            blockMaxFrequency[block] = Math.max(blockMaxFrequency[block], frequency);
+            blockMinLength[block] = Math.min(blockMinLength[block], length);
+            count++;
+            maxFrequency = Math.max(maxFrequency, frequency);
+        }
+
+        int blocks() {
+            return (count + BLOCK - 1) / BLOCK;
+        }
+
+        private void writeVarint(int value) {
+            if (size + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+    }
+
+    // Reads one posting list in document order
+    private static class PostingIterator {
+        final Postings postings;
+        final double idf;
+        final double upperBound;
+        int doc = -1;
+        int frequency;
+        private int index; // Entries read so far
+        private int position;
+
+        PostingIterator(Postings postings, double idf, double upperBound) {
+            this.postings = postings;
+            this.idf = idf;
+            this.upperBound = upperBound;
+            next();
+        }
+
+        // Moves to the next entry; doc becomes Integer.MAX_VALUE at the end
+        void next() {
+            if (index == postings.count) {
+                doc = Integer.MAX_VALUE;
+                return;
+            }
+            doc += readVarint();
+            frequency = readVarint();
+            index++;
+        }
+
+        // Last document of the block holding the current entry
+        int blockEnd() {
+            return postings.blockLastDoc[(index - 1) / BLOCK];
+        }
+
+        // Upper bound on the score of any document in the current block
+        double blockBound(double averageLength) {
+            int block = (index - 1) / BLOCK;
+            double f = postings.blockMaxFrequency[block];
+            return idf * f * (K1 + 1) / (f + K1 * (1 - B + B * postings.blockMinLength[block] / averageLength));
+        }
+
+        // Moves to the first entry at or after the target document
+        void advance(int target) {
+            if (doc >= target) {
+                return;
+            }
+            if (index == postings.count) {
+                doc = Integer.MAX_VALUE;
+                return;
+            }
+            int block = index / BLOCK;
+            if (postings.blockLastDoc[block] < target) {
+                // Skip the blocks that end before the target
+                int last = postings.blocks() - 1;
+                while (block < last && postings.blockLastDoc[block] < target) {
+                    block++;
+                }
+                if (postings.blockLastDoc[block] < target) {
+                    index = postings.count;
+                    doc = Integer.MAX_VALUE;
+                    return;
+                }
+                index = block * BLOCK;
+                position = postings.blockOffset[block];
+                doc = block == 0 ? -1 : postings.blockLastDoc[block - 1];
+                next();
+            }
+            while (doc < target) {
+                next();
+            }
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = postings.data[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    private final EventStore events;
+    private final Path file;
+    private final Map<String, Postings> terms = new HashMap<>();
+    private final Map<Long, Integer> docOfEvent = new HashMap<>();
+    private long[] docEvent = new long[16]; // Document number to event id
+    private long[] docVersion = new long[16]; // Version of the event indexed
+    private Postings[][] docTerms = new Postings[16][]; // Lists holding a live document
+    private int[] docLength = new int[16];
+    private final BitSet deleted = new BitSet();
+    private int docCount; // Documents numbered so far, deleted ones included
+    private long liveLength; // Total length of the live documents
+    private long storeChanges = -1;
+
+    private EventSearchIndex(EventStore events, Path file) {
+        this.events = events;
+        this.file = file;
+    }
+
+    // Loads the saved index if it matches the store, otherwise rebuilds it
+    public static EventSearchIndex open(EventStore events, String file) throws IOException {
+        EventSearchIndex index = new EventSearchIndex(events, Paths.get(file));
+        if (!index.load()) {
+            index.rebuild();
+        }
+        return index;
+    }
+
+    // Splits text into lower-case words, dropping a few very common ones
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String token = text.substring(start, i).toLowerCase(Locale.ROOT);
+                if (!STOP_WORDS.contains(token)) {
+                    tokens.add(token);
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // The k best matching events for the query, best first. An event matches
+    // if it contains any of the query's words.
+    public List<Hit> search(String query, int k) throws IOException {
+        refresh();
+        List<PostingIterator> lists = new ArrayList<>();
+        int liveDocs = docOfEvent.size();
+        double averageLength = liveDocs == 0 ? 1 : Math.max(1, (double) liveLength / liveDocs);
+        for (String term : new LinkedHashSet<>(tokenize(query))) {
+            Postings postings = terms.get(term);
+            if (postings != null && postings.live > 0) {
+                double idf = Math.log(1 + (liveDocs - postings.live + 0.5) / (postings.live + 0.5));
+                double bound = idf * postings.maxFrequency * (K1 + 1) / (postings.maxFrequency + K1 * (1 - B));
+                lists.add(new PostingIterator(postings, idf, bound));
+            }
+        }
+        if (lists.isEmpty() || k <= 0) {
+            return new ArrayList<>();
+        }
+
+        // Lists by ascending bound; prefix[i] bounds the score from lists 0..i-1
+        lists.sort(Comparator.comparingDouble(list -> list.upperBound));
+        double[] prefix = new double[lists.size() + 1];
+        for (int i = 0; i < lists.size(); i++) {
+            prefix[i + 1] = prefix[i] + lists.get(i).upperBound;
+        }
+
+        PriorityQueue<Hit> top = new PriorityQueue<>(Comparator.comparingDouble(hit -> hit.score));
+        double threshold = 0;
+        int firstEssential = 0; // Lists before this one cannot reach the top k alone
+        while (firstEssential < lists.size()) {
+            int doc = Integer.MAX_VALUE;
+            for (int i = firstEssential; i < lists.size(); i++) {
+                doc = Math.min(doc, lists.get(i).doc);
+            }
+            if (doc == Integer.MAX_VALUE) {
+                break;
+            }
+
+            if (top.size() == k) {
+                // Nothing up to the end of the earliest current block can
+                // beat the top k if even the block bounds cannot
+                double bound = prefix[firstEssential];
+                int boundary = Integer.MAX_VALUE;
+                for (int i = firstEssential; i < lists.size(); i++) {
+                    PostingIterator list = lists.get(i);
+                    if (list.doc != Integer.MAX_VALUE) {
+                        bound += list.blockBound(averageLength);
+                        boundary = Math.min(boundary, list.blockEnd());
+                    }
+                }
+                if (bound <= threshold) {
+                    for (int i = firstEssential; i < lists.size(); i++) {
+                        lists.get(i).advance(boundary + 1);
+                    }
+                    continue;
+                }
+            }
+
+            double score = 0;
+            for (int i = firstEssential; i < lists.size(); i++) {
+                PostingIterator list = lists.get(i);
+                if (list.doc == doc) {
+                    score += termScore(list, doc, averageLength);
+                    list.next();
+                }
+            }
+            for (int i = firstEssential - 1; i >= 0 && score + prefix[i + 1] > threshold; i--) {
+                PostingIterator list = lists.get(i);
+                list.advance(doc);
+                if (list.doc == doc) {
+                    score += termScore(list, doc, averageLength);
+                }
+            }
+
+            if (!deleted.get(doc) && (top.size() < k || score > threshold)) {
+                top.add(new Hit(docEvent[doc], score));
+                if (top.size() > k) {
+                    top.poll();
+                }
+                if (top.size() == k) {
+                    threshold = top.peek().score;
+                    while (firstEssential < lists.size() && prefix[firstEssential + 1] <= threshold) {
+                        firstEssential++;
+                    }
+                }
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort(Comparator.comparingDouble((Hit hit) -> -hit.score).thenComparingLong(hit -> hit.eventId));
+        return hits;
+    }
+
+    // Applies the changes made to the store since the index was last in
+    // step with it, reading only the events whose version changed
+    public void refresh() throws IOException {
+        long changes = events.changes(); // Before reading, see EventSchedule
+        if (changes == storeChanges) {
+            return;
+        }
+        Map<Long, Long> versions = events.versions();
+        for (Long id : new ArrayList<>(docOfEvent.keySet())) {
+            if (!versions.containsKey(id)) {
+                remove(id);
+            }
+        }
+        for (Map.Entry<Long, Long> e : versions.entrySet()) {
+            Integer doc = docOfEvent.get(e.getKey());
+            if (doc == null || docVersion[doc] != e.getValue()) {
+                EventStore.Record record = events.get(e.getKey());
+                remove(e.getKey());
+                if (record != null) {
+                    add(record.id, record.fields, record.version);
+                }
+            }
+        }
+        storeChanges = changes;
+        compactIfNeeded();
+    }
+
+    // Call after the event was added or updated in the store
+    public void eventSaved(long id, String[] fields) throws IOException {
+        if (events.changes() != storeChanges + 1) {
+            refresh();
+            return;
+        }
+        // The new version is not known here; the next refresh that finds
+        // other changes reads this event once more to learn it
+        remove(id);
+        add(id, fields, UNKNOWN_VERSION);
+        storeChanges++;
+        compactIfNeeded();
+    }
+
+    // Call after the event was deleted from the store
+    public void eventDeleted(long id) throws IOException {
+        if (events.changes() != storeChanges + 1) {
+            refresh();
+            return;
+        }
+        remove(id);
+        storeChanges++;
+        compactIfNeeded();
+    }
+
+    // Writes the index beside the store, through a temporary file and an
+    // atomic rename
+    public void save() throws IOException {
+        Path tmp = FileLocks.tempFileFor(file);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeLong(storeChanges);
+                out.writeInt(docCount);
+                for (int doc = 0; doc < docCount; doc++) {
+                    out.writeLong(docEvent[doc]);
+                    out.writeLong(docVersion[doc]);
+                    out.writeInt(docLength[doc]);
+                    out.writeBoolean(deleted.get(doc));
+                }
+                out.writeInt(terms.size());
+                for (Map.Entry<String, Postings> e : terms.entrySet()) {
+                    Postings postings = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeInt(postings.count);
+                    out.writeInt(postings.lastDoc);
+                    out.writeInt(postings.maxFrequency);
+                    for (int block = 0; block < postings.blocks(); block++) {
+                        out.writeInt(postings.blockLastDoc[block]);
+                        out.writeInt(postings.blockOffset[block]);
+                        out.writeInt(postings.blockMaxFrequency[block]);
+                        out.writeInt(postings.blockMinLength[block]);
+                    }
+                    out.writeInt(postings.size);
+                    out.write(postings.data, 0, postings.size);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private double termScore(PostingIterator list, int doc, double averageLength) {
+        double f = list.frequency;
+        return list.idf * f * (K1 + 1) / (f + K1 * (1 - B + B * docLength[doc] / averageLength));
+    }
+
+    private void add(long eventId, String[] fields, long version) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        int length = count(frequencies, field(fields, 0), NAME_WEIGHT)
+                + count(frequencies, field(fields, 5), ORGANISER_WEIGHT)
+                + count(frequencies, field(fields, 6), DETAILS_WEIGHT);
+
+        int doc = docCount++;
+        if (doc == docEvent.length) {
+            docEvent = Arrays.copyOf(docEvent, doc * 2);
+            docVersion = Arrays.copyOf(docVersion, doc * 2);
+            docTerms = Arrays.copyOf(docTerms, doc * 2);
+            docLength = Arrays.copyOf(docLength, doc * 2);
+        }
+        docEvent[doc] = eventId;
+        docVersion[doc] = version;
+        docLength[doc] = length;
+        liveLength += length;
+        docOfEvent.put(eventId, doc);
+        Postings[] lists = new Postings[frequencies.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> e : frequencies.entrySet()) {
+            Postings postings = terms.computeIfAbsent(e.getKey(), t -> new Postings());
+            postings.add(doc, e.getValue(), length);
+            postings.live++;
+            lists[i++] = postings;
+        }
+        docTerms[doc] = lists;
+    }
+
+    private static int count(Map<String, Integer> frequencies, String text, int weight) {
+        List<String> tokens = tokenize(text);
+        for (String token : tokens) {
+            frequencies.merge(token, weight, Integer::sum);
+        }
+        return tokens.size() * weight;
+    }
+
+    private void remove(long eventId) {
+        Integer doc = docOfEvent.remove(eventId);
+        if (doc != null) {
+            deleted.set(doc);
+            liveLength -= docLength[doc];
+            for (Postings postings : docTerms[doc]) {
+                postings.live--;
+            }
+            docTerms[doc] = null;
+        }
+    }
+
+    // Rewrites the postings without deleted documents once they make up half
+    // of the index
+    private void compactIfNeeded() {
+        int dead = deleted.cardinality();
+        if (dead < 64 || dead * 2 < docCount) {
+            return;
+        }
+        int[] newNumber = new int[docCount];
+        int live = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            newNumber[doc] = deleted.get(doc) ? -1 : live++;
+        }
+
+        Iterator<Map.Entry<String, Postings>> it = terms.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Postings> e = it.next();
+            Postings rewritten = new Postings();
+            PostingIterator list = new PostingIterator(e.getValue(), 0, 0);
+            for (; list.doc != Integer.MAX_VALUE; list.next()) {
+                if (newNumber[list.doc] >= 0) {
+                    rewritten.add(newNumber[list.doc], list.frequency, docLength[list.doc]);
+                }
+            }
+            if (rewritten.count == 0) {
+                it.remove();
+            } else {
+                e.setValue(rewritten);
+            }
+        }
+
+        for (int doc = 0; doc < docCount; doc++) {
+            if (newNumber[doc] >= 0) {
+                docEvent[newNumber[doc]] = docEvent[doc];
+                docVersion[newNumber[doc]] = docVersion[doc];
+                docLength[newNumber[doc]] = docLength[doc];
+                docOfEvent.put(docEvent[doc], newNumber[doc]);
+            }
+        }
+        docCount = live;
+        deleted.clear();
+        linkDocTerms();
+    }
+
+    // Points every live document at the posting lists it is in and counts
+    // the live documents of each list, from the postings themselves
+    private void linkDocTerms() {
+        List<List<Postings>> lists = new ArrayList<>(docCount);
+        for (int doc = 0; doc < docCount; doc++) {
+            lists.add(deleted.get(doc) ? null : new ArrayList<>());
+        }
+        for (Postings postings : terms.values()) {
+            postings.live = 0;
+            for (PostingIterator it = new PostingIterator(postings, 0, 0); it.doc != Integer.MAX_VALUE; it.next()) {
+                if (!deleted.get(it.doc)) {
+                    lists.get(it.doc).add(postings);
+                    postings.live++;
+                }
+            }
+        }
+        docTerms = new Postings[docEvent.length][];
+        for (int doc = 0; doc < docCount; doc++) {
+            if (lists.get(doc) != null) {
+                docTerms[doc] = lists.get(doc).toArray(new Postings[0]);
+            }
+        }
+    }
+
+    // Returns false if there is no saved index or it is out of date
+    private boolean load() throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        long current = events.changes();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT || in.readLong() != current) {
+                return false;
+            }
+            docCount = in.readInt();
+            docEvent = new long[Math.max(16, docCount)];
+            docVersion = new long[docEvent.length];
+            docLength = new int[docEvent.length];
+            for (int doc = 0; doc < docCount; doc++) {
+                docEvent[doc] = in.readLong();
+                docVersion[doc] = in.readLong();
+                docLength[doc] = in.readInt();
+                if (in.readBoolean()) {
+                    deleted.set(doc);
+                } else {
+                    docOfEvent.put(docEvent[doc], doc);
+                    liveLength += docLength[doc];
+                }
+            }
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = in.readUTF();
+                Postings postings = new Postings();
+                postings.count = in.readInt();
+                postings.lastDoc = in.readInt();
+                postings.maxFrequency = in.readInt();
+                int blocks = postings.blocks();
+                postings.blockLastDoc = new int[Math.max(1, blocks)];
+                postings.blockOffset = new int[Math.max(1, blocks)];
+                postings.blockMaxFrequency = new int[Math.max(1, blocks)];
+                postings.blockMinLength = new int[Math.max(1, blocks)];
+                for (int block = 0; block < blocks; block++) {
+                    postings.blockLastDoc[block] = in.readInt();
+                    postings.blockOffset[block] = in.readInt();
+                    postings.blockMaxFrequency[block] = in.readInt();
+                    postings.blockMinLength[block] = in.readInt();
+                }
+                postings.size = in.readInt();
+                postings.data = new byte[Math.max(16, postings.size)];
+                in.readFully(postings.data, 0, postings.size);
+                terms.put(term, postings);
+            }
+            linkDocTerms();
+        } catch (EOFException e) {
+            clear();
+            return false;
+        }
+        storeChanges = current;
+        return true;
+    }
+
+    private void rebuild() throws IOException {
+        clear();
+        storeChanges = events.changes(); // Before reading, see EventSchedule
+        for (EventStore.Record record : events.all()) {
+            add(record.id, record.fields, record.version);
+        }
+        save();
+    }
+
+    private void clear() {
+        terms.clear();
+        docOfEvent.clear();
+        deleted.clear();
+        docCount = 0;
+        liveLength = 0;
+    }
+
+    private static String field(String[] fields, int i) {
+        return i < fields.length ? fields[i] : "";
+    }
+}
@@ -0,0 +1,492 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// Event storage engine: a record file of fixed-size slots plus an index file
+// mapping each event id to the slot holding its record.
+//
+// Event ids are assigned once and never reused, so an id stays valid however
+// many other events are added or deleted. The index entry of an id lives at a
+// position computed from the id, so looking up, updating or deleting an event
+// reads and writes a few bytes at known offsets instead of the whole file.
+//
+// Slots come in power-of-two size classes from 64 bytes to 64 KB. A record is
+// stored in the smallest class that fits it, and freed slots are pushed onto a
+// per-class free list that later records of the same class are taken from, so
+// the record file does not grow while events are only being edited.
+//
+// An update writes the new record into a fresh slot and then switches the
+// index entry to it, so a crash in between leaves the old record in place.
+// Each index entry carries a version that grows on every update, for the same
+// optimistic check-and-write that StudentStore offers. All state is on disk and
+// every operation runs under the cross-process lock from FileLocks, so several
+// EventManager processes may share the files.
+//
+// Writes hold that lock only to read and write a few entries; the forces run
+// between the locked steps, so writers in other processes are not queued
+// behind each other's fsyncs. The steps keep the crash-safe order: a new
+// record is forced before the index points at it, and the index is forced
+// before the slot it no longer points at is put on a free list. A crash
+// between steps can only leak a slot or leave an unused id.
+//
+// Index file: [int magic][int format][long next id][long data end][long changes]
+//             [long free list head per size class], then one entry per id:
+//             [long slot offset, 0 if deleted][long version][int length][int class]
+// Record file: [int magic][int format], then slots of
+//             [int payload length][int crc32][long id][payload]
+// A free slot has length -1 and holds the offset of the next free slot of its
+// class in place of the id.
+public class EventStore implements Closeable {
+    // Pass as expected version to write regardless of the current version
+    public static final long ANY_VERSION = -1;
+
+    private static final int DATA_MAGIC = 0x45564454; // "EVDT"
+    private static final int INDEX_MAGIC = 0x45564958; // "EVIX"
+    private static final int FORMAT = 2;
+
+    private static final int MIN_SLOT = 64;
+    private static final int SIZE_CLASSES = 11; // 64 B .. 64 KB
+    private static final int SLOT_HEADER = 4 + 4 + 8;
+    private static final int FREE = -1;
+
+    private static final int INDEX_HEADER = 4 + 4 + 8 + 8 + 8 + 8 * SIZE_CLASSES;
+    private static final int ENTRY_SIZE = 8 + 8 + 4 + 4;
+    private static final int DATA_HEADER = 8;
+
+    // One event together with the version it was read at
+    public static class Record {
+        public final long id;
+        public final long version;
+        public final String[] fields;
+
+        Record(long id, long version, String[] fields) {
+            this.id = id;
+            this.version = version;
+            this.fields = fields;
+        }
+    }
+
+    // The index file header, read at the start of each operation
+    private static class Header {
+        long nextId = 1;
+        long dataEnd = DATA_HEADER;
+        long changes; // Number of adds, updates and deletes so far
+        long[] freeHeads = new long[SIZE_CLASSES];
+    }
+
+    // Index entry of one id
+    private static class Entry {
+        long offset;
+        long version;
+        int length;
+        int sizeClass;
+    }
+
+    private final Path dataFile;
+    private final Path indexFile;
+    private FileChannel data;
+    private FileChannel index;
+
+    private EventStore(Path dataFile, Path indexFile) throws IOException {
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+        this.data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.index = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    // Opens the store. On first use the existing CSV file, if any, is imported
+    // once; from then on the record file is the authoritative copy.
+    public static EventStore open(String dataFile, String indexFile, String csvFile) throws IOException {
+        Path data = Paths.get(dataFile);
+        Path idx = Paths.get(indexFile);
+        FileLocks.withExclusiveLock(data, () -> {
+            if (!Files.exists(data)) {
+                create(data, idx, Paths.get(csvFile));
+            }
+            return null;
+        });
+        EventStore store = new EventStore(data, idx);
+        store.checkMagic(store.data, DATA_MAGIC, dataFile);
+        store.checkMagic(store.index, INDEX_MAGIC, indexFile);
+        return store;
+    }
+
+    // Builds both files next to their final names and renames them into
+    // place, the record file last since its presence marks the store as created
+    private static void create(Path data, Path idx, Path csv) throws IOException {
+        Path dataTmp = FileLocks.tempFileFor(data);
+        Path indexTmp = FileLocks.tempFileFor(idx);
+        try {
+            try (EventStore store = new EventStore(dataTmp, indexTmp)) {
+                Header header = new Header();
+                ByteBuffer magic = ByteBuffer.allocate(DATA_HEADER).putInt(DATA_MAGIC).putInt(FORMAT).flip();
+                writeFully(store.data, magic, 0);
+                if (Files.exists(csv)) {
+                    try (CsvCodec.Parser parser = new CsvCodec.Parser(Files.newBufferedReader(csv))) {
+                        while (parser.next()) {
+                            if (!parser.isBlank()) {
+                                store.insert(header, parser.toArray());
+                            }
+                        }
+                    }
+                }
+                store.writeHeader(header);
+                store.data.force(true);
+                store.index.force(true);
+            }
+            Files.move(indexTmp, idx, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(dataTmp, data, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(dataTmp);
+            Files.deleteIfExists(indexTmp);
+        }
+    }
+
+    // Returns the event with the id, or null if there is none
+    public Record get(long id) throws IOException {
+        return FileLocks.withSharedLock(dataFile, () -> {
+            Header header = readHeader();
+            Entry entry = readEntry(header, id);
+            return entry == null ? null : new Record(id, entry.version, readRecord(id, entry));
+        });
+    }
+
+    // Returns every event in id order
+    public List<Record> all() throws IOException {
+        return FileLocks.withSharedLock(dataFile, () -> {
+            Header header = readHeader();
+            int count = (int) (header.nextId - 1);
+            ByteBuffer entries = ByteBuffer.allocate(count * ENTRY_SIZE);
+            readFully(index, entries, INDEX_HEADER);
+            entries.flip();
+
+            List<Record> records = new ArrayList<>();
+            Entry entry = new Entry();
+            for (long id = 1; id <= count; id++) {
+                entry.offset = entries.getLong();
+                entry.version = entries.getLong();
+                entry.length = entries.getInt();
+                entry.sizeClass = entries.getInt();
+                if (entry.offset != 0) {
+                    records.add(new Record(id, entry.version, readRecord(id, entry)));
+                }
+            }
+            return records;
+        });
+    }
+
+    // Returns the version of every event by id, reading only the index file,
+    // so a cache can find which events changed without reading them all
+    public Map<Long, Long> versions() throws IOException {
+        return FileLocks.withSharedLock(dataFile, () -> {
+            Header header = readHeader();
+            int count = (int) (header.nextId - 1);
+            ByteBuffer entries = ByteBuffer.allocate(count * ENTRY_SIZE);
+            readFully(index, entries, INDEX_HEADER);
+            entries.flip();
+
+            Map<Long, Long> versions = new HashMap<>();
+            for (long id = 1; id <= count; id++) {
+                long offset = entries.getLong();
+                long version = entries.getLong();
+                entries.getLong(); // Length and size class
+                if (offset != 0) {
+                    versions.put(id, version);
+                }
+            }
+            return versions;
+        });
+    }
+
+    // Number of adds, updates and deletes made so far by any process; grows
+    // by exactly one per change, so a cache can tell whether a change it
+    // just made was the only one
+    public long changes() throws IOException {
+        return FileLocks.withSharedLock(dataFile, () -> readHeader().changes);
+    }
+
+    // Adds an event and returns its id
+    public long add(String... fields) throws IOException {
+        byte[] payload = CsvCodec.format(fields).getBytes(StandardCharsets.UTF_8);
+        Entry entry = newEntry(payload);
+        long id = FileLocks.withExclusiveLock(dataFile, () -> {
+            // Reserve the id and the slot; the id reads as deleted until the
+            // index entry is written below
+            Header header = readHeader();
+            long reserved = header.nextId++;
+            entry.offset = allocate(header, entry.sizeClass);
+            writeSlot(entry.offset, reserved, payload);
+            writeEntry(reserved, new Entry());
+            writeHeader(header);
+            return reserved;
+        });
+        data.force(false);
+        FileLocks.withExclusiveLock(dataFile, () -> {
+            Header header = readHeader();
+            writeEntry(id, entry);
+            header.changes++;
+            writeHeader(header);
+            return null;
+        });
+        index.force(false);
+        return id;
+    }
+
+    // Replaces the event's fields if its current version is still the
+    // expected one, otherwise throws ConcurrentModificationException. Returns
+    // false if there is no such event.
+    public boolean update(long id, String[] fields, long expectedVersion) throws IOException {
+        byte[] payload = CsvCodec.format(fields).getBytes(StandardCharsets.UTF_8);
+        Entry entry = newEntry(payload);
+        boolean exists = FileLocks.withExclusiveLock(dataFile, () -> {
+            Header header = readHeader();
+            Entry old = readEntry(header, id);
+            if (old == null) {
+                return false;
+            }
+            checkVersion(id, old, expectedVersion);
+            entry.offset = allocate(header, entry.sizeClass);
+            writeSlot(entry.offset, id, payload);
+            writeHeader(header);
+            return true;
+        });
+        if (!exists) {
+            return false;
+        }
+        // Write the new record before pointing the index at it
+        data.force(false);
+        return switchEntry(id, entry, expectedVersion);
+    }
+
+    // Deletes the event if its current version is still the expected one,
+    // otherwise throws ConcurrentModificationException. Returns false if
+    // there is no such event.
+    public boolean delete(long id, long expectedVersion) throws IOException {
+        return switchEntry(id, new Entry(), expectedVersion);
+    }
+
+    // Points the id's index entry at the new slot, or at none to delete the
+    // event, checking the version again since the lock was let go; then
+    // frees the old slot once the index change is durable. A new slot that
+    // ends up unused is freed straight away.
+    private boolean switchEntry(long id, Entry entry, long expectedVersion) throws IOException {
+        Entry old = FileLocks.withExclusiveLock(dataFile, () -> {
+            Header header = readHeader();
+            Entry current = readEntry(header, id);
+            if (current == null || (expectedVersion != ANY_VERSION && expectedVersion != current.version)) {
+                if (entry.offset != 0) {
+                    release(header, entry);
+                }
+                if (current == null) {
+                    return null;
+                }
+                checkVersion(id, current, expectedVersion);
+            }
+            entry.version = current.version + 1;
+            writeEntry(id, entry);
+            header.changes++;
+            writeHeader(header);
+            return current;
+        });
+        if (old == null) {
+            return false;
+        }
+        index.force(false);
+        FileLocks.withExclusiveLock(dataFile, () -> {
+            Header header = readHeader();
+            release(header, old);
+            return null;
+        });
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            data.close();
+        } finally {
+            index.close();
+        }
+    }
+
+    private static void checkVersion(long id, Entry current, long expectedVersion) {
+        if (expectedVersion != ANY_VERSION && expectedVersion != current.version) {
+            throw new ConcurrentModificationException("Event " + id + " was changed by another operator");
+        }
+    }
+
+    // Stores a new event under the next id; caller writes the header and forces
+    private long insert(Header header, String[] fields) throws IOException {
+        byte[] payload = CsvCodec.format(fields).getBytes(StandardCharsets.UTF_8);
+        Entry entry = newEntry(payload);
+        entry.offset = allocate(header, entry.sizeClass);
+
+        long id = header.nextId++;
+        writeSlot(entry.offset, id, payload);
+        writeEntry(id, entry);
+        return id;
+    }
+
+    // An entry for a first version of the payload, not yet given a slot
+    private static Entry newEntry(byte[] payload) throws IOException {
+        Entry entry = new Entry();
+        entry.version = 1;
+        entry.length = payload.length;
+        entry.sizeClass = sizeClassFor(payload.length);
+        return entry;
+    }
+
+    // Takes a slot of the size class from its free list, or from the end of
+    // the record file if the list is empty
+    private long allocate(Header header, int sizeClass) throws IOException {
+        long head = header.freeHeads[sizeClass];
+        if (head != 0) {
+            ByteBuffer slot = ByteBuffer.allocate(SLOT_HEADER);
+            readFully(data, slot, head);
+            slot.flip();
+            if (slot.getInt() == FREE) {
+                slot.getInt();
+                header.freeHeads[sizeClass] = slot.getLong();
+                return head;
+            }
+            // A crash after reusing the slot but before the header was
+            // written; the rest of the list is lost, which only leaks space
+            header.freeHeads[sizeClass] = 0;
+        }
+        long offset = header.dataEnd;
+        header.dataEnd += slotSize(sizeClass);
+        return offset;
+    }
+
+    // Pushes the slot of an entry onto its free list and writes the header.
+    // Not forced: if a crash loses either write, the slot is only leaked.
+    private void release(Header header, Entry old) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_HEADER);
+        slot.putInt(FREE).putInt(0).putLong(header.freeHeads[old.sizeClass]).flip();
+        writeFully(data, slot, old.offset);
+        header.freeHeads[old.sizeClass] = old.offset;
+        writeHeader(header);
+    }
+
+    private void writeSlot(long offset, long id, byte[] payload) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_HEADER + payload.length);
+        slot.putInt(payload.length).putInt(0).putLong(id).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(slot.array(), 8, slot.capacity() - 8);
+        slot.putInt(4, (int) crc.getValue());
+        slot.flip();
+        writeFully(data, slot, offset);
+    }
+
+    private String[] readRecord(long id, Entry entry) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_HEADER + entry.length);
+        readFully(data, slot, entry.offset);
+        slot.flip();
+        int length = slot.getInt();
+        int checksum = slot.getInt();
+        long slotId = slot.getLong();
+        CRC32 crc = new CRC32();
+        crc.update(slot.array(), 8, slot.capacity() - 8);
+        if (length != entry.length || slotId != id || (int) crc.getValue() != checksum) {
+            throw new IOException("Event " + id + " is corrupt in " + dataFile);
+        }
+        return CsvCodec.parseLine(new String(slot.array(), SLOT_HEADER, length, StandardCharsets.UTF_8));
+    }
+
+    // Returns the live entry of the id, or null if the id was never assigned
+    // or the event was deleted
+    private Entry readEntry(Header header, long id) throws IOException {
+        if (id < 1 || id >= header.nextId) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        readFully(index, buffer, entryOffset(id));
+        buffer.flip();
+        Entry entry = new Entry();
+        entry.offset = buffer.getLong();
+        entry.version = buffer.getLong();
+        entry.length = buffer.getInt();
+        entry.sizeClass = buffer.getInt();
+        return entry.offset == 0 ? null : entry;
+    }
+
+    private void writeEntry(long id, Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        buffer.putLong(entry.offset).putLong(entry.version).putInt(entry.length).putInt(entry.sizeClass).flip();
+        writeFully(index, buffer, entryOffset(id));
+    }
+
+    private Header readHeader() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER);
+        readFully(index, buffer, 0);
+        buffer.flip();
+        buffer.position(8);
+        Header header = new Header();
+        header.nextId = buffer.getLong();
+        header.dataEnd = buffer.getLong();
+        header.changes = buffer.getLong();
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            header.freeHeads[i] = buffer.getLong();
+        }
+        return header;
+    }
+
+    private void writeHeader(Header header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER);
+        buffer.putInt(INDEX_MAGIC).putInt(FORMAT).putLong(header.nextId).putLong(header.dataEnd).putLong(header.changes);
+        for (long head : header.freeHeads) {
+            buffer.putLong(head);
+        }
+        buffer.flip();
+        writeFully(index, buffer, 0);
+    }
+
+    private void checkMagic(FileChannel channel, int magic, String name) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        readFully(channel, buffer, 0);
+        if (buffer.getInt(0) != magic || buffer.getInt(4) != FORMAT) {
+            close();
+            throw new IOException(name + " is not an event store file");
+        }
+    }
+
+    private static long entryOffset(long id) {
+        return INDEX_HEADER + (id - 1) * ENTRY_SIZE;
+    }
+
+    private static int slotSize(int sizeClass) {
+        return MIN_SLOT << sizeClass;
+    }
+
+    // Smallest size class whose slots hold the payload
+    private static int sizeClassFor(int payloadLength) throws IOException {
+        for (int c = 0; c < SIZE_CLASSES; c++) {
+            if (SLOT_HEADER + payloadLength <= slotSize(c)) {
+                return c;
+            }
+        }
+        throw new IOException("Event is too large (" + payloadLength + " bytes)");
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = ch.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of event store");
+            }
+            position += n;
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += ch.write(buffer, position);
+        }
+    }
+}
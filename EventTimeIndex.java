@@ -0,0 +1,242 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Time-ordered index over the events: every event's start time and id in a
+// concurrent skip list, plus one skip list per building, so "what is on next"
+// and "what is on between these dates" seek straight to the first matching
+// event and walk forward, reading only the events they return.
+//
+// The index is saved beside the event store together with the store's change
+// count. On open it is loaded from that file if the store has not changed
+// since, which needs no pass over the event records; otherwise it is rebuilt
+// from them. It is kept current the same way as EventSchedule: updated in
+// place after this process's own changes, rebuilt when another process
+// changed the store as well.
+//
+// File layout: [int magic][int format][long store changes][int count]
+//              then per event [long start minute][long id][UTF building]
+public class EventTimeIndex {
+    private static final int MAGIC = 0x45565449; // "EVTI"
+    private static final int FORMAT = 1;
+
+    // Position of one event in time order
+    private static class Key implements Comparable<Key> {
+        final long start;
+        final long id;
+        final String building;
+
+        Key(long start, long id, String building) {
+            this.start = start;
+            this.id = id;
+            this.building = building;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int c = Long.compare(start, other.start);
+            return c != 0 ? c : Long.compare(id, other.id);
+        }
+    }
+
+    // Walks events in start time order, fetching each record only when it is
+    // returned. Reflects changes made while it is open on a best-effort basis,
+    // like the skip list iterators it wraps.
+    public class Cursor implements Iterator<EventStore.Record> {
+        private final Iterator<Key> keys;
+        private final long endMinute;
+        private EventStore.Record next;
+
+        Cursor(Iterator<Key> keys, long endMinute) {
+            this.keys = keys;
+            this.endMinute = endMinute;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && keys.hasNext()) {
+                Key key = keys.next();
+                if (key.start >= endMinute) {
+                    return false;
+                }
+                try {
+                    next = events.get(key.id); // Null if deleted meanwhile
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public EventStore.Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            EventStore.Record record = next;
+            next = null;
+            return record;
+        }
+
+        // Returns up to 'size' further events, fewer at the end
+        public List<EventStore.Record> nextPage(int size) {
+            List<EventStore.Record> page = new ArrayList<>(size);
+            while (page.size() < size && hasNext()) {
+                page.add(next());
+            }
+            return page;
+        }
+    }
+
+    private final EventStore events;
+    private final Path file;
+    private final ConcurrentSkipListSet<Key> byTime = new ConcurrentSkipListSet<>();
+    private final Map<String, ConcurrentSkipListSet<Key>> byBuilding = new ConcurrentHashMap<>();
+    private final Map<Long, Key> byId = new ConcurrentHashMap<>();
+    private long storeChanges = -1;
+
+    private EventTimeIndex(EventStore events, Path file) {
+        this.events = events;
+        this.file = file;
+    }
+
+    // Loads the saved index if it matches the store, otherwise rebuilds it
+    public static EventTimeIndex open(EventStore events, String file) throws IOException {
+        EventTimeIndex index = new EventTimeIndex(events, Paths.get(file));
+        if (!index.load()) {
+            index.rebuild();
+        }
+        return index;
+    }
+
+    // Events starting in [fromMinute, toMinute), optionally only in one
+    // building (null for all). Times are minutes as from EventSchedule.timeOf.
+    public Cursor range(long fromMinute, long toMinute, String building) throws IOException {
+        refresh();
+        NavigableSet<Key> set = building == null ? byTime
+                : byBuilding.getOrDefault(EventSchedule.normalise(building), new ConcurrentSkipListSet<>());
+        return new Cursor(set.tailSet(new Key(fromMinute, Long.MIN_VALUE, null), true).iterator(), toMinute);
+    }
+
+    // Events starting at or after the minute, in time order
+    public Cursor upcoming(long fromMinute, String building) throws IOException {
+        return range(fromMinute, Long.MAX_VALUE, building);
+    }
+
+    public int size() throws IOException {
+        refresh();
+        return byTime.size();
+    }
+
+    // Rebuilds the index if the store was changed
+    public void refresh() throws IOException {
+        if (events.changes() != storeChanges) {
+            rebuild();
+        }
+    }
+
+    // Call after the event was added or updated in the store
+    public void eventSaved(long id, String[] fields) throws IOException {
+        if (events.changes() != storeChanges + 1) {
+            rebuild();
+            return;
+        }
+        remove(id);
+        add(id, fields);
+        storeChanges++;
+    }
+
+    // Call after the event was deleted from the store
+    public void eventDeleted(long id) throws IOException {
+        if (events.changes() != storeChanges + 1) {
+            rebuild();
+            return;
+        }
+        remove(id);
+        storeChanges++;
+    }
+
+    // Writes the index beside the store, through a temporary file and an
+    // atomic rename
+    public void save() throws IOException {
+        Path tmp = FileLocks.tempFileFor(file);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeLong(storeChanges);
+                List<Key> keys = new ArrayList<>(byTime);
+                out.writeInt(keys.size());
+                for (Key key : keys) {
+                    out.writeLong(key.start);
+                    out.writeLong(key.id);
+                    out.writeUTF(key.building);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Returns false if there is no saved index or it is out of date
+    private boolean load() throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        long current = events.changes();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT || in.readLong() != current) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                insert(new Key(in.readLong(), in.readLong(), in.readUTF()));
+            }
+        } catch (EOFException e) {
+            clear();
+            return false;
+        }
+        storeChanges = current;
+        return true;
+    }
+
+    private void rebuild() throws IOException {
+        clear();
+        storeChanges = events.changes(); // Before reading, see EventSchedule
+        for (EventStore.Record record : events.all()) {
+            add(record.id, record.fields);
+        }
+        save();
+    }
+
+    private void clear() {
+        byTime.clear();
+        byBuilding.clear();
+        byId.clear();
+    }
+
+    private void add(long id, String[] fields) {
+        long[] time = EventSchedule.timeOf(fields);
+        if (time != null) {
+            insert(new Key(time[0], id, EventSchedule.normalise(fields[1])));
+        }
+    }
+
+    private void insert(Key key) {
+        byTime.add(key);
+        byBuilding.computeIfAbsent(key.building, k -> new ConcurrentSkipListSet<>()).add(key);
+        byId.put(key.id, key);
+    }
+
+    private void remove(long id) {
+        Key key = byId.remove(id);
+        if (key != null) {
+            byTime.remove(key);
+            byBuilding.get(key.building).remove(key);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Cross-process locking for the shared data files.
+//
+// A lock on "students.csv" is an OS-level FileChannel lock on the sidecar file
+// "students.csv.lock", so StudentManager, EventManager and any other process
+// exclude each other. The OS lock is held per JVM, not per thread, so threads
+// in the same process are first ordered by an in-process read/write lock for
+// the same path.
+public class FileLocks {
+
+    public interface IOAction<T> {
+        T run() throws IOException;
+    }
+
+    // In-process lock for one path plus the OS lock currently held on it. One
+    // shared OS lock is held on behalf of all in-process readers at once.
+    private static class PathLock {
+        final ReentrantReadWriteLock local = new ReentrantReadWriteLock();
+        final Path lockFile;
+        FileChannel channel;
+        FileLock osLock;
+        int sharedUsers;
+
+        PathLock(Path lockFile) {
+            this.lockFile = lockFile;
+        }
+
+        void acquireOs(boolean shared) throws IOException {
+            channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                osLock = channel.lock(0, Long.MAX_VALUE, shared);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        void releaseOs() throws IOException {
+            try {
+                osLock.release();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static final ConcurrentHashMap<Path, PathLock> LOCKS = new ConcurrentHashMap<>();
+
+    private FileLocks() {
+    }
+
+    // Runs the action while holding a shared lock: other readers may run at
+    // the same time, writers may not
+    public static <T> T withSharedLock(Path file, IOAction<T> action) throws IOException {
+        PathLock lock = lockFor(file);
+        lock.local.readLock().lock();
+        try {
+            // A thread holding the exclusive lock already excludes everyone
+            boolean nested = lock.local.isWriteLockedByCurrentThread();
+            if (!nested) {
+                synchronized (lock) {
+                    if (lock.sharedUsers == 0) {
+                        lock.acquireOs(true);
+                    }
+                    lock.sharedUsers++;
+                }
+            }
+            try {
+                return action.run();
+            } finally {
+                if (!nested) {
+                    synchronized (lock) {
+                        if (--lock.sharedUsers == 0) {
+                            lock.releaseOs();
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.local.readLock().unlock();
+        }
+    }
+
+    // Runs the action while holding the exclusive lock
+    public static <T> T withExclusiveLock(Path file, IOAction<T> action) throws IOException {
+        PathLock lock = lockFor(file);
+        lock.local.writeLock().lock();
+        try {
+            boolean nested = lock.local.getWriteHoldCount() > 1;
+            if (!nested) {
+                lock.acquireOs(false);
+            }
+            try {
+                return action.run();
+            } finally {
+                if (!nested) {
+                    lock.releaseOs();
+                }
+            }
+        } finally {
+            lock.local.writeLock().unlock();
+        }
+    }
+
+    private static PathLock lockFor(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        return LOCKS.computeIfAbsent(key, k -> new PathLock(k.resolveSibling(k.getFileName() + ".lock")));
+    }
+
+    // Creates a uniquely named temporary file next to the target, so that
+    // concurrent writers never share a temporary file. It gets the target's
+    // permissions, or the default ones for a new file if there is no target
+    // yet, so moving it into place does not change who can read the data.
+    // (Files.createTempFile would make it readable by its owner only.)
+    public static Path tempFileFor(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        while (true) {
+            Path tmp = dir.resolve(file.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                Files.createFile(tmp);
+            } catch (FileAlreadyExistsException e) {
+                continue;
+            }
+            try {
+                if (Files.getFileStore(tmp).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                    Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(file));
+                }
+            } catch (NoSuchFileException e) {
+                // No target yet, so the default permissions stand
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            return tmp;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Calls a handler when a watched file changes, from one background thread
+// fed by a WatchService on the file's directory.
+//
+// Writers here replace files through a temporary file and an atomic rename,
+// and editors often write in several steps, so one change arrives as a burst
+// of events. The thread waits until the directory has been quiet for a short
+// while and then runs each affected handler once. If the service drops
+// events (OVERFLOW), every handler of that directory is run, since any of its
+// files may have changed.
+public class FileWatcher implements Closeable {
+    private static final long QUIET_MILLIS = 200;
+
+    private final WatchService service;
+    private final Map<Path, Map<String, Runnable>> handlers = new ConcurrentHashMap<>(); // Directory, then file name
+    private final Thread thread;
+
+    public FileWatcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        thread = new Thread(this::run, "file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Runs the handler after each change to the file. The file need not exist
+    // yet, but its directory must.
+    public synchronized void watch(Path file, Runnable handler) throws IOException {
+        Path absolute = file.toAbsolutePath().normalize();
+        Path directory = absolute.getParent();
+        if (!handlers.containsKey(directory)) {
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            handlers.put(directory, new ConcurrentHashMap<>());
+        }
+        handlers.get(directory).put(absolute.getFileName().toString(), handler);
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close(); // Ends the thread with ClosedWatchServiceException
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Set<Runnable> due = new LinkedHashSet<>();
+                collect(service.take(), due);
+                WatchKey key;
+                while ((key = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, due);
+                }
+                for (Runnable handler : due) {
+                    try {
+                        handler.run();
+                    } catch (RuntimeException e) {
+                        System.out.println("Error handling file change: " + e.getMessage());
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private void collect(WatchKey key, Set<Runnable> due) {
+        Map<String, Runnable> files = handlers.getOrDefault((Path) key.watchable(), Map.of());
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                due.addAll(files.values());
+            } else {
+                Runnable handler = files.get(event.context().toString());
+                if (handler != null) {
+                    due.add(handler);
+                }
+            }
+        }
+        key.reset();
+    }
+}
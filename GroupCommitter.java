@@ -0,0 +1,135 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Group commit: requests from many threads are queued, and one writer thread
+// takes everything queued so far and hands it to the batch writer, which
+// makes it durable with a single force. Each caller blocks until the batch
+// holding its request is written, then gets its own result.
+//
+// There is no timer: while one batch is being forced, the next one builds up
+// in the queue, so batches grow by themselves under load and a lone request
+// is written straight away.
+public class GroupCommitter<T, R> implements Closeable {
+    private static final int MAX_BATCH = 4096;
+
+    // Writes a batch, returning one result per request in the same order
+    public interface BatchWriter<T, R> {
+        List<R> write(List<T> batch) throws IOException;
+    }
+
+    private static class Pending<T, R> {
+        final T request;
+        final CompletableFuture<R> result = new CompletableFuture<>();
+
+        Pending(T request) {
+            this.request = request;
+        }
+    }
+
+    private final BatchWriter<T, R> writer;
+    private final BlockingQueue<Pending<T, R>> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+    private long batches;
+    private long requests;
+
+    public GroupCommitter(String name, BatchWriter<T, R> writer) {
+        this.writer = writer;
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Queues the request (not null) and waits until it is committed
+    public R submit(T request) throws IOException, InterruptedException {
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+        Pending<T, R> pending = new Pending<>(request);
+        queue.add(pending);
+        try {
+            return pending.result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Average number of requests per commit so far
+    public synchronized double averageBatch() {
+        return batches == 0 ? 0 : (double) requests / batches;
+    }
+
+    // Commits what is queued, then stops the writer thread. The thread is
+    // stopped by a marker in the queue rather than an interrupt, which would
+    // close any FileChannel it is writing to.
+    @Override
+    public void close() {
+        closed = true;
+        queue.add(new Pending<>(null));
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Pending<T, R>> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - batch.size());
+            int stop = 0;
+            while (stop < batch.size() && batch.get(stop).request != null) {
+                stop++;
+            }
+            commit(batch.subList(0, stop));
+            if (stop < batch.size()) {
+                // Requests that raced with close() are refused, not lost
+                List<Pending<T, R>> late = new ArrayList<>(batch.subList(stop + 1, batch.size()));
+                queue.drainTo(late);
+                for (Pending<T, R> pending : late) {
+                    pending.result.completeExceptionally(new IOException("Writer is closed"));
+                }
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    private void commit(List<Pending<T, R>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<T> requests = new ArrayList<>(batch.size());
+        for (Pending<T, R> pending : batch) {
+            requests.add(pending.request);
+        }
+        try {
+            List<R> results = writer.write(requests);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(results.get(i));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Pending<T, R> pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+        synchronized (this) {
+            batches++;
+            this.requests += batch.size();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Checksum index of a text file of records, one per line (students.csv,
+// locations.txt): the offset, length and 64-bit checksum of every record,
+// and the record's key.
+//
+// diff() compares a new version of the file with the index. Each record of
+// the new file is hashed; a record whose checksum the index already knows is
+// unchanged and keeps its key without being decoded or parsed, so only added
+// and edited records are parsed. A one-line edit of a large file therefore
+// costs one pass of hashing and one parse, instead of parsing every record.
+//
+// A line break inside double quotes does not end a CSV record. When a key
+// occurs more than once the last record wins, as it does when the file is
+// loaded into a map.
+public class LineIndex {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static class Entry {
+        final long offset;
+        final int length;
+        final long checksum;
+        final String key;
+
+        Entry(long offset, int length, long checksum, String key) {
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+            this.key = key;
+        }
+    }
+
+    // What changed between the indexed version of the file and the new one
+    public static class Diff {
+        public final Map<String, String> changed = new LinkedHashMap<>(); // Key to record, added or edited
+        public final Set<String> removed = new LinkedHashSet<>();
+        public final LineIndex index; // Index of the new version
+
+        Diff(LineIndex index) {
+            this.index = index;
+        }
+
+        public boolean isEmpty() {
+            return changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private final Function<String, String> keyOf;
+    private final List<Entry> entries;
+    private final Map<Long, Entry> byChecksum;
+    private final Map<String, Entry> byKey; // Last record of each key
+    private final long fileSize;
+    private final long fileModified;
+
+    private LineIndex(Function<String, String> keyOf, List<Entry> entries, long fileSize, long fileModified) {
+        this.keyOf = keyOf;
+        this.entries = entries;
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+        this.byChecksum = new HashMap<>(entries.size() * 2);
+        this.byKey = new HashMap<>(entries.size() * 2);
+        for (Entry entry : entries) {
+            byChecksum.put(entry.checksum, entry);
+            byKey.put(entry.key, entry);
+        }
+    }
+
+    // Indexes the file. keyOf returns the key of a record, or null for
+    // records to ignore (blank or malformed lines).
+    public static LineIndex build(Path file, Function<String, String> keyOf) throws IOException {
+        return new LineIndex(keyOf, List.of(), -1, -1).diff(file).index;
+    }
+
+    // Number of records with a key
+    public int size() {
+        return entries.size();
+    }
+
+    // Keys of the records in file order, each once, at its last position
+    public List<String> keys() {
+        List<String> keys = new ArrayList<>(byKey.size());
+        for (Entry entry : entries) {
+            if (byKey.get(entry.key) == entry) {
+                keys.add(entry.key);
+            }
+        }
+        return keys;
+    }
+
+    // Compares the file as it is now with the index. If its size and
+    // modification time are unchanged it is not read at all.
+    public Diff diff(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long modified = Files.getLastModifiedTime(file).to(TimeUnit.NANOSECONDS);
+            if (size == fileSize && modified == fileModified) {
+                return new Diff(this);
+            }
+
+            // Records the index does not know, by checksum, decoded on the way
+            Map<Long, String> decoded = new HashMap<>();
+            List<Entry> scanned = scan(channel, decoded);
+            Diff diff = new Diff(new LineIndex(keyOf, scanned, size, modified));
+
+            for (Map.Entry<String, Entry> current : diff.index.byKey.entrySet()) {
+                Entry before = byKey.get(current.getKey());
+                Entry now = current.getValue();
+                if (before == null || before.checksum != now.checksum) {
+                    String record = decoded.get(now.checksum);
+                    // A known record can become the last of its key when a
+                    // later duplicate is removed; read it back from the file
+                    diff.changed.put(now.key, record != null ? record : read(channel, now));
+                }
+            }
+            for (String key : byKey.keySet()) {
+                if (!diff.index.byKey.containsKey(key)) {
+                    diff.removed.add(key);
+                }
+            }
+            return diff;
+        }
+    }
+
+    // Splits the file into records and hashes each one. Records with an
+    // unknown checksum are decoded and parsed for their key.
+    private List<Entry> scan(FileChannel channel, Map<Long, String> decoded) throws IOException {
+        List<Entry> scanned = new ArrayList<>(Math.max(16, entries.size()));
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        byte[] record = new byte[256];
+        int length = 0;
+        long start = 0;
+        long position = 0;
+        boolean quoted = false;
+        int read;
+        while ((read = channel.read(buffer.clear(), position)) >= 0) {
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                byte b = bytes[i];
+                if (b == '\n' && !quoted) {
+                    add(scanned, start, record, length, decoded);
+                    start = position + i + 1;
+                    length = 0;
+                    continue;
+                }
+                if (b == '"') {
+                    quoted = !quoted;
+                }
+                if (length == record.length) {
+                    record = Arrays.copyOf(record, length * 2);
+                }
+                record[length++] = b;
+            }
+            position += read;
+        }
+        add(scanned, start, record, length, decoded); // Last record without a line break
+        return scanned;
+    }
+
+    private void add(List<Entry> scanned, long offset, byte[] record, int length, Map<Long, String> decoded) {
+        if (length > 0 && record[length - 1] == '\r') {
+            length--;
+        }
+        if (length == 0) {
+            return;
+        }
+        long checksum = checksum(record, length);
+        Entry known = byChecksum.get(checksum);
+        String key;
+        if (known != null && known.length == length) {
+            key = known.key;
+        } else {
+            String text = new String(record, 0, length, StandardCharsets.UTF_8);
+            key = keyOf.apply(text);
+            if (key == null) {
+                return;
+            }
+            decoded.put(checksum, text);
+        }
+        scanned.add(new Entry(offset, length, checksum, key));
+    }
+
+    private static String read(FileChannel channel, Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                throw new EOFException("Record at " + entry.offset + " is past the end of the file");
+            }
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    // 64-bit FNV-1a over the bytes of the record
+    private static long checksum(byte[] record, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            h ^= record[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -2,6 +2,7 @@
 // Required imports for XML parsing and basic utilities
 import org.w3c.dom.*;
 import javax.xml.parsers.*;
+import org.xml.sax.SAXException;
 import java.io.*;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -31,6 +32,13 @@ public class OSMRouteCalculator {
         Map<Long, List<Long>> adjacency = new HashMap<>(); // Node ID → List of connected node IDs
         Map<String, Double> edgeLengths = new HashMap<>(); // "from-to" string → distance
 
+        // Coordinates of all connected nodes as parallel arrays, so nearest-node
+        // scans can run through DistanceKernel in one batch. Rebuilt lazily after
+        // the graph changes.
+        long[] connectedIds;
+        double[] connectedLats;
+        double[] connectedLons;
+
         // Adds a node to the network
         public void addNode(long id, double lat, double lon) {
             nodes.put(id, new Coordinate(lat, lon));
@@ -38,18 +46,69 @@ public class OSMRouteCalculator {
 
         // Adds a bidirectional edge (connection) between two nodes
         public void addEdge(long from, long to) {
-            if (!nodes.containsKey(from) || !nodes.containsKey(to)) {
-                return; // Skip if either node doesn't exist
+            addEdges(new long[] { from }, new long[] { to }, 1);
+        }
+
+        // Adds the bidirectional edges from[i] - to[i] for the first count pairs,
+        // computing all their lengths in one batch
+        public void addEdges(long[] from, long[] to, int count) {
+            double[] fromLats = new double[count];
+            double[] fromLons = new double[count];
+            double[] toLats = new double[count];
+            double[] toLons = new double[count];
+            long[] validFrom = new long[count];
+            long[] validTo = new long[count];
+
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                Coordinate a = nodes.get(from[i]);
+                Coordinate b = nodes.get(to[i]);
+                if (a == null || b == null) {
+                    continue; // Skip if either node doesn't exist
+                }
+                validFrom[n] = from[i];
+                validTo[n] = to[i];
+                fromLats[n] = a.lat;
+                fromLons[n] = a.lon;
+                toLats[n] = b.lat;
+                toLons[n] = b.lon;
+                n++;
             }
 
-            // Add the edge to both directions (undirected graph)
-            adjacency.computeIfAbsent(from, _ -> new ArrayList<>()).add(to);
-            adjacency.computeIfAbsent(to, _ -> new ArrayList<>()).add(from);
+            // Calculate the physical distance between each pair of nodes
+            double[] lengths = new double[n];
+            DistanceKernel.pairDistances(fromLats, fromLons, toLats, toLons, lengths, n);
 
-            // Calculate the physical distance between the nodes
-            double length = calculateDistance(nodes.get(from), nodes.get(to));
-            edgeLengths.put(from + "-" + to, length);
-            edgeLengths.put(to + "-" + from, length);
+            for (int i = 0; i < n; i++) {
+                // Add the edge to both directions (undirected graph)
+                adjacency.computeIfAbsent(validFrom[i], _ -> new ArrayList<>()).add(validTo[i]);
+                adjacency.computeIfAbsent(validTo[i], _ -> new ArrayList<>()).add(validFrom[i]);
+                edgeLengths.put(validFrom[i] + "-" + validTo[i], lengths[i]);
+                edgeLengths.put(validTo[i] + "-" + validFrom[i], lengths[i]);
+            }
+            if (n > 0) {
+                connectedIds = null;
+            }
+        }
+
+        // Returns the connected node IDs, building the coordinate arrays if needed
+        long[] connectedNodes() {
+            if (connectedIds == null) {
+                int n = adjacency.size();
+                long[] ids = new long[n];
+                connectedLats = new double[n];
+                connectedLons = new double[n];
+                int i = 0;
+                for (Long id : adjacency.keySet()) {
+                    Coordinate c = nodes.get(id);
+                    ids[i] = id;
+                    connectedLats[i] = c.lat;
+                    connectedLons[i] = c.lon;
+                    i++;
+                }
+                connectedIds = ids;
+            }
+            return connectedIds;
         }
 
         // Retrieves the edge length between two nodes
@@ -74,6 +133,46 @@ public class OSMRouteCalculator {
         }
     }
 
+    // Represents one route through the road network: the ordered node IDs and the
+    // total road distance in meters
+    static class Route {
+        double distance;
+        List<Long> path;
+
+        public Route(double distance, List<Long> path) {
+            this.distance = distance;
+            this.path = path;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.2f meters via %d nodes", distance, path.size());
+        }
+    }
+
+    // Entry in the search queue; carrying the priority avoids re-reading a map
+    // that is mutated while the entry sits in the queue
+    private static class QueueEntry {
+        long node;
+        double priority;
+
+        QueueEntry(long node, double priority) {
+            this.node = node;
+            this.priority = priority;
+        }
+    }
+
+    // Alternatives longer than this multiple of the shortest route are not
+    // considered sensible and are never searched for
+    private static final double MAX_ROUTE_STRETCH = 1.5;
+
+    // An alternative may share at most this fraction of its length with a route
+    // already returned, otherwise it is only a small detour of that route
+    private static final double MAX_ROUTE_OVERLAP = 0.8;
+
+    // Upper bound on candidate paths examined per requested alternative
+    private static final int MAX_CANDIDATES_PER_ROUTE = 20;
+
     public static void main(String[] args) {
         try {
             String osmFile = "map3.osm";
@@ -94,14 +193,16 @@ public class OSMRouteCalculator {
             while (running) {
                 System.out.println("\n=== OSM Route Calculator ===");
                 System.out.println("1. Calculate route between locations");
-                System.out.println("2. Clear console");
-                System.out.println("3. Exit");
-                System.out.print("Enter your choice (1-3): ");
+                System.out.println("2. Calculate alternative routes between locations");
+                System.out.println("3. Clear console");
+                System.out.println("4. Exit");
+                System.out.print("Enter your choice (1-4): ");
 
                 int choice = scanner.nextInt();
 
                 switch (choice) {
                     case 1:
+                    case 2:
                         // Display available locations
                         System.out.println("\nAvailable locations:");
                         for (int i = 0; i < places.size(); i++) {
@@ -117,24 +218,30 @@ public class OSMRouteCalculator {
                         if (sourceIdx >= 0 && sourceIdx < places.size() &&
                                 destIdx >= 0 && destIdx < places.size()) {
 
-                            calculateRoute(network, places.get(sourceIdx), places.get(destIdx));
+                            if (choice == 1) {
+                                calculateRoute(network, places.get(sourceIdx), places.get(destIdx));
+                            } else {
+                                System.out.print("How many routes (1-5): ");
+                                int k = Math.max(1, Math.min(5, scanner.nextInt()));
+                                calculateAlternativeRoutes(network, places.get(sourceIdx), places.get(destIdx), k);
+                            }
                         } else {
                             System.out.println("Invalid location numbers!");
                         }
                         break;
 
-                    case 2:
+                    case 3:
                         // Clear console - works for both Windows and Unix-like systems
                         clearConsole();
                         break;
 
-                    case 3:
+                    case 4:
                         running = false;
                         System.out.println("Goodbye!");
                         break;
 
                     default:
-                        System.out.println("Invalid choice! Please enter 1-3.");
+                        System.out.println("Invalid choice! Please enter 1-4.");
                 }
             }
             scanner.close();
@@ -188,6 +295,246 @@ public class OSMRouteCalculator {
         }
     }
     
+    // Prints up to k distinct routes between two places, shortest first
+    private static void calculateAlternativeRoutes(RoadNetwork network, NamedPlace source, NamedPlace dest, int k) {
+        System.out.println("\nSelected locations:");
+        System.out.println("Source: " + source);
+        System.out.println("Destination: " + dest);
+
+        long sourceNode = findNearestNode(network, source.coord);
+        long destNode = findNearestNode(network, dest.coord);
+
+        List<Route> routes = findAlternativeRoutes(network, sourceNode, destNode, k);
+        if (routes.isEmpty()) {
+            System.out.println("No road path found between '" + source.name + "' and '" + dest.name + "'");
+            return;
+        }
+
+        for (int i = 0; i < routes.size(); i++) {
+            Route route = routes.get(i);
+            System.out.printf("\nRoute %d: %s", i + 1, route);
+            if (i > 0) {
+                System.out.printf(" (+%.1f%%)", ((route.distance / routes.get(0).distance) - 1) * 100);
+            }
+            System.out.println();
+            System.out.println("Path: " + route.path.stream().map(String::valueOf).collect(Collectors.joining(" -> ")));
+        }
+        if (routes.size() < k) {
+            System.out.println("\nOnly " + routes.size() + " sensible route(s) exist between these locations.");
+        }
+    }
+
+    // Finds up to k loopless routes from source to target using Yen's algorithm.
+    //
+    // A single Dijkstra run from the target gives the exact remaining distance from
+    // every node. That shared tree yields the shortest route directly and serves as
+    // the A* heuristic for every deviation search: removing edges and nodes can only
+    // make distances longer, so it stays admissible. Deviation searches are also
+    // bounded by MAX_ROUTE_STRETCH, so three alternatives cost a small multiple of
+    // one query rather than dozens of full Dijkstra runs.
+    static List<Route> findAlternativeRoutes(RoadNetwork network, long source, long target, int k) {
+        List<Route> accepted = new ArrayList<>();
+        Map<Long, Double> toTarget = new HashMap<>();
+        Map<Long, Long> towardsTarget = new HashMap<>();
+        shortestPathTree(network, target, toTarget, towardsTarget);
+
+        if (!toTarget.containsKey(source)) {
+            return accepted;
+        }
+
+        // Follow the shared tree from the source for the shortest route
+        List<Long> shortestPath = new ArrayList<>();
+        for (Long node = source; node != null; node = towardsTarget.get(node)) {
+            shortestPath.add(node);
+        }
+        Route shortest = new Route(toTarget.get(source), shortestPath);
+        double limit = shortest.distance * MAX_ROUTE_STRETCH;
+
+        // Yen's algorithm needs every path found so far, including ones rejected for
+        // overlapping too much, to enumerate the later candidates correctly
+        List<Route> found = new ArrayList<>();
+        found.add(shortest);
+        accepted.add(shortest);
+
+        PriorityQueue<Route> candidates = new PriorityQueue<>(Comparator.comparingDouble(r -> r.distance));
+        Set<List<Long>> seen = new HashSet<>();
+        seen.add(shortestPath);
+
+        int budget = k * MAX_CANDIDATES_PER_ROUTE;
+        while (accepted.size() < k && budget-- > 0) {
+            Route last = found.get(found.size() - 1);
+            double rootDistance = 0;
+
+            for (int i = 0; i < last.path.size() - 1; i++) {
+                long spurNode = last.path.get(i);
+                List<Long> rootPath = last.path.subList(0, i + 1);
+
+                // Block the next edge of every known route sharing this root, so the
+                // spur path must deviate here
+                Set<String> blockedEdges = new HashSet<>();
+                for (Route route : found) {
+                    if (route.path.size() > i + 1 && route.path.subList(0, i + 1).equals(rootPath)) {
+                        blockedEdges.add(spurNode + "-" + route.path.get(i + 1));
+                    }
+                }
+
+                // Nodes already on the root path cannot be revisited (loopless routes)
+                Set<Long> blockedNodes = new HashSet<>(rootPath.subList(0, i));
+
+                Route spur = boundedSearch(network, spurNode, target, toTarget, blockedNodes, blockedEdges,
+                        limit - rootDistance);
+                if (spur != null) {
+                    List<Long> path = new ArrayList<>(rootPath.subList(0, i));
+                    path.addAll(spur.path);
+                    if (seen.add(path)) {
+                        candidates.add(new Route(rootDistance + spur.distance, path));
+                    }
+                }
+
+                rootDistance += network.getEdgeLength(spurNode, last.path.get(i + 1));
+            }
+
+            Route next = candidates.poll();
+            if (next == null) {
+                break;
+            }
+            found.add(next);
+            if (isDistinctRoute(network, next, accepted)) {
+                accepted.add(next);
+            }
+        }
+
+        return accepted;
+    }
+
+    // Runs Dijkstra from the given root over the whole network, filling in the
+    // distance from the root and the next node on the way back to it
+    private static void shortestPathTree(RoadNetwork network, long root, Map<Long, Double> distances,
+            Map<Long, Long> parent) {
+        PriorityQueue<QueueEntry> queue = new PriorityQueue<>(Comparator.comparingDouble(e -> e.priority));
+        distances.put(root, 0.0);
+        queue.add(new QueueEntry(root, 0.0));
+
+        while (!queue.isEmpty()) {
+            QueueEntry entry = queue.poll();
+            if (entry.priority > distances.get(entry.node)) {
+                continue; // Stale entry, a shorter distance was already settled
+            }
+            for (Long neighbor : network.adjacency.getOrDefault(entry.node, Collections.emptyList())) {
+                double newDist = entry.priority + network.getEdgeLength(entry.node, neighbor);
+                if (newDist < distances.getOrDefault(neighbor, Double.POSITIVE_INFINITY)) {
+                    distances.put(neighbor, newDist);
+                    parent.put(neighbor, entry.node);
+                    queue.add(new QueueEntry(neighbor, newDist));
+                }
+            }
+        }
+    }
+
+    // Runs Dijkstra from the root until every target is settled (or the rest of
+    // the network is unreachable), returning the distance to each target
+    // reached. One search serves many targets, e.g. every hostel for a venue.
+    static Map<Long, Double> distancesFrom(RoadNetwork network, long root, Collection<Long> targets) {
+        Set<Long> remaining = new HashSet<>(targets);
+        Map<Long, Double> found = new HashMap<>();
+        Map<Long, Double> distances = new HashMap<>();
+        PriorityQueue<QueueEntry> queue = new PriorityQueue<>(Comparator.comparingDouble(e -> e.priority));
+        distances.put(root, 0.0);
+        queue.add(new QueueEntry(root, 0.0));
+
+        while (!queue.isEmpty() && !remaining.isEmpty()) {
+            QueueEntry entry = queue.poll();
+            if (entry.priority > distances.get(entry.node)) {
+                continue; // Stale entry
+            }
+            if (remaining.remove(entry.node)) {
+                found.put(entry.node, entry.priority);
+            }
+            for (Long neighbor : network.adjacency.getOrDefault(entry.node, Collections.emptyList())) {
+                double newDist = entry.priority + network.getEdgeLength(entry.node, neighbor);
+                if (newDist < distances.getOrDefault(neighbor, Double.POSITIVE_INFINITY)) {
+                    distances.put(neighbor, newDist);
+                    queue.add(new QueueEntry(neighbor, newDist));
+                }
+            }
+        }
+        return found;
+    }
+
+    // A* search from source to target that avoids the blocked nodes and edges,
+    // guided by the exact distances of the unblocked graph. Any node whose best
+    // possible completion exceeds maxDistance is pruned; returns null if no route
+    // within that bound exists.
+    private static Route boundedSearch(RoadNetwork network, long source, long target, Map<Long, Double> toTarget,
+            Set<Long> blockedNodes, Set<String> blockedEdges, double maxDistance) {
+        Map<Long, Double> distances = new HashMap<>();
+        Map<Long, Long> previous = new HashMap<>();
+        PriorityQueue<QueueEntry> queue = new PriorityQueue<>(Comparator.comparingDouble(e -> e.priority));
+
+        distances.put(source, 0.0);
+        queue.add(new QueueEntry(source, toTarget.getOrDefault(source, Double.POSITIVE_INFINITY)));
+
+        while (!queue.isEmpty()) {
+            QueueEntry entry = queue.poll();
+            long current = entry.node;
+            double dist = distances.get(current);
+
+            if (current == target) {
+                List<Long> path = new ArrayList<>();
+                for (Long node = target; node != null; node = previous.get(node)) {
+                    path.add(node);
+                }
+                Collections.reverse(path);
+                return new Route(dist, path);
+            }
+            if (entry.priority > dist + toTarget.getOrDefault(current, Double.POSITIVE_INFINITY)) {
+                continue; // Stale entry
+            }
+
+            for (Long neighbor : network.adjacency.getOrDefault(current, Collections.emptyList())) {
+                if (blockedNodes.contains(neighbor) || blockedEdges.contains(current + "-" + neighbor)) {
+                    continue;
+                }
+                double newDist = dist + network.getEdgeLength(current, neighbor);
+                double estimate = newDist + toTarget.getOrDefault(neighbor, Double.POSITIVE_INFINITY);
+                if (estimate > maxDistance) {
+                    continue; // Cannot reach the target within the allowed stretch
+                }
+                if (newDist < distances.getOrDefault(neighbor, Double.POSITIVE_INFINITY)) {
+                    distances.put(neighbor, newDist);
+                    previous.put(neighbor, current);
+                    queue.add(new QueueEntry(neighbor, estimate));
+                }
+            }
+        }
+
+        return null;
+    }
+
+    // A route is distinct if it shares at most MAX_ROUTE_OVERLAP of its length
+    // with every route already accepted
+    private static boolean isDistinctRoute(RoadNetwork network, Route candidate, List<Route> accepted) {
+        for (Route route : accepted) {
+            Set<String> edges = new HashSet<>();
+            for (int i = 1; i < route.path.size(); i++) {
+                edges.add(route.path.get(i - 1) + "-" + route.path.get(i));
+            }
+
+            double shared = 0;
+            for (int i = 1; i < candidate.path.size(); i++) {
+                long from = candidate.path.get(i - 1);
+                long to = candidate.path.get(i);
+                if (edges.contains(from + "-" + to) || edges.contains(to + "-" + from)) {
+                    shared += network.getEdgeLength(from, to);
+                }
+            }
+            if (shared > candidate.distance * MAX_ROUTE_OVERLAP) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static void clearConsole() {
         try {
             if (System.getProperty("os.name").contains("Windows")) {
@@ -202,7 +549,8 @@ public class OSMRouteCalculator {
     }
 
     // Parses an OSM XML file and constructs the road network graph
-    private static RoadNetwork parseOSMFile(String filename) throws Exception {
+    static RoadNetwork parseOSMFile(String filename)
+            throws IOException, ParserConfigurationException, SAXException {
         RoadNetwork network = new RoadNetwork();
 
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -244,9 +592,14 @@ public class OSMRouteCalculator {
                 }
 
                 // Create edges between adjacent nodes
+                int segments = Math.max(0, nodeRefs.size() - 1);
+                long[] from = new long[segments];
+                long[] to = new long[segments];
                 for (int j = 1; j < nodeRefs.size(); j++) {
-                    network.addEdge(nodeRefs.get(j - 1), nodeRefs.get(j));
+                    from[j - 1] = nodeRefs.get(j - 1);
+                    to[j - 1] = nodeRefs.get(j);
                 }
+                network.addEdges(from, to, segments);
             }
         }
 
@@ -325,21 +678,13 @@ public class OSMRouteCalculator {
     }
 
     // Finds the closest connected road node to a given coordinate
-    private static long findNearestNode(RoadNetwork network, Coordinate coord) {
-        long nearestNode = -1;
-        double minDistance = Double.POSITIVE_INFINITY;
-
-        // Only search among nodes with connections
-        for (Long nodeId : network.adjacency.keySet()) {
-            Coordinate nodeCoord = network.nodes.get(nodeId);
-            double dist = calculateDistance(coord, nodeCoord);
-            if (dist < minDistance) {
-                minDistance = dist;
-                nearestNode = nodeId;
-            }
-        }
-
-        return nearestNode;
+    static long findNearestNode(RoadNetwork network, Coordinate coord) {
+        // Only search among nodes with connections, scanning their coordinate
+        // arrays in one batch
+        long[] ids = network.connectedNodes();
+        int nearest = DistanceKernel.nearest(coord.lat, coord.lon, network.connectedLats, network.connectedLons,
+                ids.length);
+        return nearest < 0 ? -1 : ids[nearest];
     }
 
     // Calculates the shortest path between two nodes in a road network using
@@ -427,15 +772,6 @@ public class OSMRouteCalculator {
 
     // Calculates great-circle distance (Haversine formula) between two coordinates
     private static double calculateDistance(Coordinate c1, Coordinate c2) {
-        final int R = 6371; // Earth radius in kilometers
-
-        double latDistance = Math.toRadians(c2.lat - c1.lat);
-        double lonDistance = Math.toRadians(c2.lon - c1.lon);
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(c1.lat)) * Math.cos(Math.toRadians(c2.lat))
-                        * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-
-        return R * c * 1000; // Convert to meters
+        return DistanceKernel.distance(c1.lat, c1.lon, c2.lat, c2.lon); // In meters
     }
 }
@@ -0,0 +1,522 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// Persistent event participation: which students are registered for which
+// event.
+//
+// Every roll number that is ever registered gets a dense ordinal (0, 1, 2,
+// ...), and each event's participants are a RoaringBitmap of ordinals. Adding,
+// removing and checking a registration is one bitmap operation, and questions
+// across events (who attends both, who attends any event in a date range, how
+// many per hostel) are bitmap intersections and unions instead of list scans.
+//
+// Changes are appended to a log in the same way as StudentStore: each batch of
+// registrations is one record, appended and forced under the cross-process
+// lock from FileLocks after catching up with records other processes wrote.
+// When the log has grown to several times the size of its live state, it is
+// rewritten as one ordinal table plus one bitmap per event.
+//
+// Record layout: [int payload length][int crc32][byte type][payload]
+//   ORDINAL: [UTF roll number]                    next ordinal is assigned
+//   ADD / REMOVE: [long event][int n][int ordinal x n]
+//   DROP: [long event]                            event deleted
+//   SET: [long event][bitmap]                     written by compaction
+public class ParticipantStore implements Closeable {
+    private static final byte ORDINAL = 1;
+    private static final byte ADD = 2;
+    private static final byte REMOVE = 3;
+    private static final byte DROP = 4;
+    private static final byte SET = 5;
+    private static final int HEADER_SIZE = 4 + 4 + 1;
+
+    // Rewrite the log once it is this many times the size of a fresh one
+    private static final int COMPACTION_GROWTH = 4;
+    private static final long COMPACTION_MIN_SIZE = 256 * 1024;
+
+    // Longest roll number the log can hold: writeUTF takes at most three
+    // bytes a character and no more than 65535 bytes
+    private static final int MAX_ROLL_LENGTH = 65535 / 3;
+
+    // One registration or unregistration, for changeAll(). Checked when it is
+    // made, so a bad request is refused on its own rather than failing the
+    // batch it would have joined.
+    public static class Change {
+        final long eventId;
+        final Collection<String> rollNumbers;
+        final boolean register;
+
+        public Change(long eventId, Collection<String> rollNumbers, boolean register) {
+            for (String roll : rollNumbers) {
+                if (roll == null || roll.trim().length() > MAX_ROLL_LENGTH) {
+                    throw new IllegalArgumentException("Invalid roll number");
+                }
+            }
+            this.eventId = eventId;
+            this.rollNumbers = List.copyOf(rollNumbers);
+            this.register = register;
+        }
+    }
+
+    private final Path logFile;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel channel;
+    private Object fileKey; // Identity of the log file the channel has open
+    private long end;
+    private long compactedSize;
+    private long changes; // Registration changes applied, see changes()
+
+    private final List<String> rolls = new ArrayList<>(); // Ordinal to roll number
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final Map<Long, RoaringBitmap> events = new HashMap<>();
+
+    private ParticipantStore(Path logFile) {
+        this.logFile = logFile;
+    }
+
+    // Opens the store, truncating a torn record left by a crash
+    public static ParticipantStore open(String logFile) throws IOException {
+        ParticipantStore store = new ParticipantStore(Paths.get(logFile));
+        FileLocks.withExclusiveLock(store.logFile, () -> {
+            store.openChannel();
+            long size = store.channel.size();
+            store.end = store.scan(0);
+            store.compactedSize = store.end;
+            if (store.end < size) {
+                System.out.println("Recovered participant log: discarded " + (size - store.end)
+                        + " bytes of incomplete data.");
+                store.channel.truncate(store.end);
+                store.channel.force(true);
+            }
+            return null;
+        });
+        return store;
+    }
+
+    // Registers the students for the event and returns how many were not
+    // registered already
+    public int register(long eventId, Collection<String> rollNumbers) throws IOException {
+        return change(eventId, rollNumbers, ADD);
+    }
+
+    // Unregisters the students and returns how many had been registered
+    public int unregister(long eventId, Collection<String> rollNumbers) throws IOException {
+        return change(eventId, rollNumbers, REMOVE);
+    }
+
+    // Applies the changes in order, appending all their records and forcing
+    // the log once, and returns what register() or unregister() would have
+    // returned for each. Lets many concurrent requests share one commit.
+    // If writing fails part way, the log is cut back to where the batch
+    // began, so no caller is told of an error for a change that was kept.
+    public int[] changeAll(List<Change> batch) throws IOException {
+        int[] changed = FileLocks.withExclusiveLock(logFile, () -> {
+            lock.writeLock().lock();
+            try {
+                catchUp();
+                long start = end;
+                try {
+                    int[] counts = new int[batch.size()];
+                    for (int i = 0; i < counts.length; i++) {
+                        Change change = batch.get(i);
+                        counts[i] = changeLocked(change.eventId, change.rollNumbers,
+                                change.register ? ADD : REMOVE);
+                    }
+                    channel.force(false);
+                    return counts;
+                } catch (IOException | RuntimeException e) {
+                    // The log is now shorter than end, so the next catchUp()
+                    // rebuilds the state without the batch
+                    try {
+                        channel.truncate(start);
+                    } catch (IOException truncateError) {
+                        e.addSuppressed(truncateError);
+                    }
+                    throw e;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+        compactIfNeeded();
+        return changed;
+    }
+
+    // Runs the action holding the log's cross-process lock, so that whatever
+    // it checks stays true until its changes are written. dropEvent() takes
+    // the same lock, so an event deleted before the action's check is seen
+    // as gone, and one deleted after has its registrations dropped later.
+    public <T> T locked(FileLocks.IOAction<T> action) throws IOException {
+        return FileLocks.withExclusiveLock(logFile, action);
+    }
+
+    // Forgets every registration for a deleted event
+    public void dropEvent(long eventId) throws IOException {
+        FileLocks.withExclusiveLock(logFile, () -> {
+            lock.writeLock().lock();
+            try {
+                catchUp();
+                if (events.containsKey(eventId)) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    new DataOutputStream(bytes).writeLong(eventId);
+                    append(DROP, bytes.toByteArray());
+                    channel.force(false);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return null;
+        });
+        compactIfNeeded();
+    }
+
+    public boolean isRegistered(long eventId, String rollNumber) throws IOException {
+        refresh();
+        lock.readLock().lock();
+        try {
+            Integer ordinal = ordinals.get(rollNumber.trim());
+            RoaringBitmap bitmap = events.get(eventId);
+            return ordinal != null && bitmap != null && bitmap.contains(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Returns a copy of the event's participant bitmap, empty if it has none
+    public RoaringBitmap participants(long eventId) throws IOException {
+        refresh();
+        lock.readLock().lock();
+        try {
+            RoaringBitmap bitmap = events.get(eventId);
+            return bitmap == null ? new RoaringBitmap() : bitmap.copy();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Number of participants of every event that has any
+    public Map<Long, Integer> counts() throws IOException {
+        refresh();
+        lock.readLock().lock();
+        try {
+            Map<Long, Integer> result = new HashMap<>();
+            for (Map.Entry<Long, RoaringBitmap> entry : events.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().cardinality());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Union of the participants of all the events
+    public RoaringBitmap participantsOfAny(Collection<Long> eventIds) throws IOException {
+        refresh();
+        lock.readLock().lock();
+        try {
+            RoaringBitmap result = new RoaringBitmap();
+            for (long eventId : eventIds) {
+                RoaringBitmap bitmap = events.get(eventId);
+                if (bitmap != null) {
+                    result.orWith(bitmap);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Roll numbers of the students with the given ordinal or a later one, in
+    // ordinal order, or null if there are fewer ordinals than that (the log
+    // was replaced). Ordinals are handed out in log order and compaction
+    // keeps them, so a cache keyed on them only needs the new ones.
+    public List<String> rollNumbersFrom(int ordinal) throws IOException {
+        refresh();
+        lock.readLock().lock();
+        try {
+            return ordinal > rolls.size() ? null : new ArrayList<>(rolls.subList(ordinal, rolls.size()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Roll numbers of the students in the bitmap, in ordinal order
+    public List<String> rollNumbers(RoaringBitmap bitmap) throws IOException {
+        refresh();
+        lock.readLock().lock();
+        try {
+            List<String> result = new ArrayList<>(bitmap.cardinality());
+            bitmap.forEach(ordinal -> result.add(rolls.get(ordinal)));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Number of registration changes seen so far, including those of other
+    // processes. Each register, unregister or dropEvent call that changes
+    // something adds exactly one, so a cache can tell whether a change it
+    // just made was the only one. Only comparable within this process.
+    public long changes() throws IOException {
+        refresh();
+        lock.readLock().lock();
+        try {
+            return changes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Rewrites the log as the current state only
+    public void compact() throws IOException {
+        FileLocks.withExclusiveLock(logFile, () -> {
+            compactLocked();
+            return null;
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactIfNeeded();
+        channel.close();
+    }
+
+    private int change(long eventId, Collection<String> rollNumbers, byte type) throws IOException {
+        int changed = FileLocks.withExclusiveLock(logFile, () -> {
+            lock.writeLock().lock();
+            try {
+                catchUp();
+                int count = changeLocked(eventId, rollNumbers, type);
+                channel.force(false);
+                return count;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+        compactIfNeeded();
+        return changed;
+    }
+
+    // Appends the ADD or REMOVE record for the students whose registration
+    // changes, without forcing it; caller holds both locks and has caught up
+    private int changeLocked(long eventId, Collection<String> rollNumbers, byte type) throws IOException {
+        RoaringBitmap bitmap = events.get(eventId);
+        Set<Integer> affected = new LinkedHashSet<>();
+        for (String roll : rollNumbers) {
+            String key = roll.trim();
+            Integer ordinal = ordinals.get(key);
+            if (ordinal == null) {
+                if (type == REMOVE) {
+                    continue;
+                }
+                append(ORDINAL, utf(key));
+                ordinal = ordinals.get(key);
+            }
+            boolean member = bitmap != null && bitmap.contains(ordinal);
+            if (member == (type == REMOVE)) {
+                affected.add(ordinal);
+            }
+        }
+        if (!affected.isEmpty()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + 4 * affected.size());
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(eventId);
+            out.writeInt(affected.size());
+            for (int ordinal : affected) {
+                out.writeInt(ordinal);
+            }
+            append(type, bytes.toByteArray());
+        }
+        return affected.size();
+    }
+
+    private void compactIfNeeded() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (end < COMPACTION_MIN_SIZE || end < compactedSize * COMPACTION_GROWTH) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        compact();
+    }
+
+    private void compactLocked() throws IOException {
+        Path tmp = FileLocks.tempFileFor(logFile);
+        lock.writeLock().lock();
+        try {
+            catchUp();
+            long position = 0;
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                for (String roll : rolls) {
+                    position += writeRecord(out, position, ORDINAL, utf(roll));
+                }
+                for (Map.Entry<Long, RoaringBitmap> e : events.entrySet()) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream data = new DataOutputStream(bytes);
+                    data.writeLong(e.getKey());
+                    e.getValue().write(data);
+                    position += writeRecord(out, position, SET, bytes.toByteArray());
+                }
+                out.force(true);
+            }
+            Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            openChannel();
+            end = position;
+            compactedSize = position;
+        } finally {
+            lock.writeLock().unlock();
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Picks up records written by other processes, if there are any
+    private void refresh() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (channel.size() == end && Objects.equals(currentFileKey(), fileKey)) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            catchUp();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Brings the in-memory state up to date with the log; caller holds the
+    // write lock. If another process compacted, the new file is read from the
+    // start.
+    private void catchUp() throws IOException {
+        if (!Objects.equals(currentFileKey(), fileKey) || channel.size() < end) {
+            channel.close();
+            openChannel();
+            rolls.clear();
+            ordinals.clear();
+            events.clear();
+            end = 0;
+            changes++; // State is rebuilt from scratch, so caches must be too
+        }
+        end = scan(end);
+    }
+
+    // Applies complete records from the given offset and returns the offset
+    // after the last one. Stops at a torn or corrupt record.
+    private long scan(long position) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int payloadLength = header.getInt();
+            int checksum = header.getInt();
+            if (payloadLength < 0 || position + HEADER_SIZE + payloadLength > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payloadLength);
+            readFully(record, position);
+            crc.reset();
+            crc.update(record.array(), 8, record.capacity() - 8);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            apply(record.get(8), new DataInputStream(
+                    new ByteArrayInputStream(record.array(), HEADER_SIZE, payloadLength)));
+            position += record.capacity();
+        }
+        return position;
+    }
+
+    private void apply(byte type, DataInputStream in) throws IOException {
+        if (type != ORDINAL) {
+            changes++;
+        }
+        switch (type) {
+            case ORDINAL -> {
+                String roll = in.readUTF();
+                ordinals.put(roll, rolls.size());
+                rolls.add(roll);
+            }
+            case ADD, REMOVE -> {
+                long eventId = in.readLong();
+                RoaringBitmap bitmap = events.computeIfAbsent(eventId, k -> new RoaringBitmap());
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    if (type == ADD) {
+                        bitmap.add(in.readInt());
+                    } else {
+                        bitmap.remove(in.readInt());
+                    }
+                }
+            }
+            case DROP -> events.remove(in.readLong());
+            case SET -> events.put(in.readLong(), RoaringBitmap.read(in));
+            default -> throw new IOException("Unknown participant record type " + type);
+        }
+    }
+
+    // Appends a record and applies it; caller holds both locks
+    private void append(byte type, byte[] payload) throws IOException {
+        end += writeRecord(channel, end, type, payload);
+        apply(type, new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    private static int writeRecord(FileChannel ch, long position, byte type, byte[] payload) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt(0).put(type).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.capacity() - 8);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        while (record.hasRemaining()) {
+            position += ch.write(record, position);
+        }
+        return record.capacity();
+    }
+
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        fileKey = currentFileKey();
+    }
+
+    private Object currentFileKey() throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(logFile, BasicFileAttributes.class);
+            return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of participant log");
+            }
+            position += n;
+        }
+    }
+
+    private static byte[] utf(String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(value);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,307 @@
+import java.util.*;
+import java.util.function.BiConsumer;
+
+// Immutable hash map with structural sharing: a hash array mapped trie.
+//
+// Each level of the trie consumes five bits of the key's hash. A node keeps
+// a 32-bit bitmap of which of its 32 slots are used and an array holding
+// only those slots, each either a key/value leaf or a child node. Keys whose
+// whole hash is equal share a collision node.
+//
+// plus() and minus() copy only the nodes on the path to the key, at most
+// seven short arrays, and share everything else with the old map. The old
+// map stays valid and unchanged, so keeping earlier versions costs only
+// what changed since, and a reader holding a version needs no lock however
+// many new versions are made meanwhile.
+public final class PersistentHashMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(new BitmapNode(0, new Object[0]), 0);
+
+    private static final class Leaf {
+        final int hash;
+        final Object key;
+        final Object value;
+
+        Leaf(int hash, Object key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // Slots hold a Leaf, a BitmapNode or a CollisionNode
+    private static final class BitmapNode {
+        final int bitmap;
+        final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private static final class CollisionNode {
+        final int hash;
+        final Leaf[] leaves;
+
+        CollisionNode(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+    }
+
+    private final BitmapNode root;
+    private final int size;
+
+    private PersistentHashMap(BitmapNode root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(K key) {
+        return leaf(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        Leaf leaf = leaf(key);
+        return leaf == null ? null : (V) leaf.value;
+    }
+
+    // Returns a map with the key mapped to the value
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        int[] added = new int[1];
+        BitmapNode newRoot = (BitmapNode) put(root, 0, new Leaf(hash(key), key, value), added);
+        return newRoot == root ? this : new PersistentHashMap<>(newRoot, size + added[0]);
+    }
+
+    // Returns a map without the key
+    public PersistentHashMap<K, V> minus(K key) {
+        int hash = hash(key);
+        Object newRoot = remove(root, 0, hash, key);
+        if (newRoot == root) {
+            return this;
+        }
+        if (newRoot == null) {
+            return empty();
+        }
+        if (newRoot instanceof Leaf leaf) {
+            // The root keeps its single leaf rather than becoming one
+            newRoot = new BitmapNode(bit(leaf.hash, 0), new Object[] { leaf });
+        }
+        return new PersistentHashMap<>((BitmapNode) newRoot, size - 1);
+    }
+
+    // Visits every entry, in no particular order
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Object node = stack.pop();
+            if (node instanceof Leaf leaf) {
+                action.accept((K) leaf.key, (V) leaf.value);
+            } else if (node instanceof BitmapNode bitmapNode) {
+                for (Object slot : bitmapNode.slots) {
+                    stack.push(slot);
+                }
+            } else {
+                for (Leaf leaf : ((CollisionNode) node).leaves) {
+                    action.accept((K) leaf.key, (V) leaf.value);
+                }
+            }
+        }
+    }
+
+    public List<V> values() {
+        List<V> values = new ArrayList<>(size);
+        forEach((key, value) -> values.add(value));
+        return values;
+    }
+
+    private Leaf leaf(Object key) {
+        int hash = hash(key);
+        Object node = root;
+        for (int shift = 0;; shift += BITS) {
+            if (node instanceof BitmapNode bitmapNode) {
+                int bit = bit(hash, shift);
+                if ((bitmapNode.bitmap & bit) == 0) {
+                    return null;
+                }
+                node = bitmapNode.slots[index(bitmapNode.bitmap, bit)];
+            } else if (node instanceof Leaf leaf) {
+                return leaf.hash == hash && leaf.key.equals(key) ? leaf : null;
+            } else {
+                CollisionNode collision = (CollisionNode) node;
+                for (Leaf leaf : collision.leaves) {
+                    if (leaf.hash == hash && leaf.key.equals(key)) {
+                        return leaf;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    // Returns the node with the leaf put in, or the node itself if nothing
+    // changed; added[0] becomes 1 if the key is new
+    private static Object put(Object node, int shift, Leaf leaf, int[] added) {
+        if (node instanceof CollisionNode collision) {
+            if (collision.hash != leaf.hash) {
+                added[0] = 1;
+                return pair(collision, collision.hash, leaf, shift);
+            }
+            for (int i = 0; i < collision.leaves.length; i++) {
+                if (collision.leaves[i].key.equals(leaf.key)) {
+                    if (collision.leaves[i].value == leaf.value) {
+                        return node;
+                    }
+                    Leaf[] leaves = collision.leaves.clone();
+                    leaves[i] = leaf;
+                    return new CollisionNode(collision.hash, leaves);
+                }
+            }
+            added[0] = 1;
+            Leaf[] leaves = Arrays.copyOf(collision.leaves, collision.leaves.length + 1);
+            leaves[leaves.length - 1] = leaf;
+            return new CollisionNode(collision.hash, leaves);
+        }
+
+        BitmapNode bitmapNode = (BitmapNode) node;
+        int bit = bit(leaf.hash, shift);
+        int index = index(bitmapNode.bitmap, bit);
+        if ((bitmapNode.bitmap & bit) == 0) {
+            added[0] = 1;
+            Object[] slots = new Object[bitmapNode.slots.length + 1];
+            System.arraycopy(bitmapNode.slots, 0, slots, 0, index);
+            slots[index] = leaf;
+            System.arraycopy(bitmapNode.slots, index, slots, index + 1, bitmapNode.slots.length - index);
+            return new BitmapNode(bitmapNode.bitmap | bit, slots);
+        }
+
+        Object slot = bitmapNode.slots[index];
+        Object replacement;
+        if (slot instanceof Leaf existing) {
+            if (existing.hash == leaf.hash && existing.key.equals(leaf.key)) {
+                if (existing.value == leaf.value) {
+                    return node;
+                }
+                replacement = leaf;
+            } else {
+                added[0] = 1;
+                replacement = pair(existing, existing.hash, leaf, shift + BITS);
+            }
+        } else {
+            replacement = put(slot, shift + BITS, leaf, added);
+            if (replacement == slot) {
+                return node;
+            }
+        }
+        Object[] slots = bitmapNode.slots.clone();
+        slots[index] = replacement;
+        return new BitmapNode(bitmapNode.bitmap, slots);
+    }
+
+    // A node holding an existing leaf or collision node and a new leaf with
+    // a different hash, nested as deep as their hashes agree
+    private static Object pair(Object existing, int existingHash, Leaf leaf, int shift) {
+        if (existingHash == leaf.hash) {
+            return new CollisionNode(leaf.hash, new Leaf[] { (Leaf) existing, leaf });
+        }
+        int existingBit = bit(existingHash, shift);
+        int bit = bit(leaf.hash, shift);
+        if (existingBit == bit) {
+            return new BitmapNode(bit, new Object[] { pair(existing, existingHash, leaf, shift + BITS) });
+        }
+        Object[] slots = Integer.compareUnsigned(existingBit, bit) < 0 ? new Object[] { existing, leaf }
+                : new Object[] { leaf, existing };
+        return new BitmapNode(existingBit | bit, slots);
+    }
+
+    // Returns the node without the key, the node itself if the key is not
+    // in it, null if nothing is left, or a lone leaf for the parent to hold
+    // in place of the node
+    private static Object remove(Object node, int shift, int hash, Object key) {
+        if (node instanceof CollisionNode collision) {
+            for (int i = 0; i < collision.leaves.length; i++) {
+                if (collision.leaves[i].key.equals(key)) {
+                    if (collision.leaves.length == 2) {
+                        return collision.leaves[1 - i];
+                    }
+                    Leaf[] leaves = new Leaf[collision.leaves.length - 1];
+                    System.arraycopy(collision.leaves, 0, leaves, 0, i);
+                    System.arraycopy(collision.leaves, i + 1, leaves, i, leaves.length - i);
+                    return new CollisionNode(collision.hash, leaves);
+                }
+            }
+            return node;
+        }
+
+        BitmapNode bitmapNode = (BitmapNode) node;
+        int bit = bit(hash, shift);
+        if ((bitmapNode.bitmap & bit) == 0) {
+            return node;
+        }
+        int index = index(bitmapNode.bitmap, bit);
+        Object slot = bitmapNode.slots[index];
+        Object replacement;
+        if (slot instanceof Leaf leaf) {
+            if (leaf.hash != hash || !leaf.key.equals(key)) {
+                return node;
+            }
+            replacement = null;
+        } else {
+            replacement = remove(slot, shift + BITS, hash, key);
+            if (replacement == slot) {
+                return node;
+            }
+        }
+
+        if (replacement != null) {
+            if (bitmapNode.slots.length == 1 && replacement instanceof Leaf) {
+                return replacement;
+            }
+            Object[] slots = bitmapNode.slots.clone();
+            slots[index] = replacement;
+            return new BitmapNode(bitmapNode.bitmap, slots);
+        }
+        if (bitmapNode.slots.length == 1) {
+            return null;
+        }
+        if (bitmapNode.slots.length == 2 && bitmapNode.slots[1 - index] instanceof Leaf other) {
+            return other;
+        }
+        Object[] slots = new Object[bitmapNode.slots.length - 1];
+        System.arraycopy(bitmapNode.slots, 0, slots, 0, index);
+        System.arraycopy(bitmapNode.slots, index + 1, slots, index, slots.length - index);
+        return new BitmapNode(bitmapNode.bitmap & ~bit, slots);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+}
@@ -0,0 +1,345 @@
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+// Reports over the roster and the events: headcounts per course, group and
+// hostel, events per organiser and building, and registrations over time.
+//
+// The rows are held in memory in fixed-size partitions. An aggregate runs
+// one task per partition on the common fork-join pool, each summing into a
+// map of its own, and the partial maps are merged pairwise as the tasks
+// finish. Nothing is shared while counting, and there are far fewer groups
+// (courses, hostels, dates) than rows, so the merge is cheap and the work
+// scales with the number of cores. Top-k keeps a k-sized heap per partition
+// in the same way.
+//
+// Run 'java ReportEngine [report|all] [k] [dir]' to print a report over the
+// files in dir (default: the current directory), where k limits the top-k
+// reports. Set -Djava.util.concurrent.ForkJoinPool.common.parallelism to
+// change the number of threads.
+public class ReportEngine {
+    private static final int PARTITION_SIZE = 64 * 1024;
+    private static final int DEFAULT_TOP = 10;
+    private static final String DAY_SCHOLAR = "Day Scholar";
+
+    // What the event reports need to know about one event
+    public static class EventRow {
+        public final long id;
+        public final String name;
+        public final String building;
+        public final String organiser;
+        public final LocalDate date; // Null if the date cannot be read
+        public final int participants;
+
+        public EventRow(long id, String name, String building, String organiser, LocalDate date, int participants) {
+            this.id = id;
+            this.name = name;
+            this.building = building;
+            this.organiser = organiser;
+            this.date = date;
+            this.participants = participants;
+        }
+    }
+
+    // A finished report, one row per group in display order
+    public static class Report {
+        public final String title;
+        public final String[] columns;
+        public final List<String[]> rows = new ArrayList<>();
+
+        Report(String title, String... columns) {
+            this.title = title;
+            this.columns = columns;
+        }
+
+        void add(String key, long... values) {
+            String[] row = new String[values.length + 1];
+            row[0] = key;
+            for (int i = 0; i < values.length; i++) {
+                row[i + 1] = String.valueOf(values[i]);
+            }
+            rows.add(row);
+        }
+
+        // Prints the rows as a table, the first column left aligned and the
+        // numbers right aligned
+        public void print(PrintStream out) {
+            int[] widths = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                widths[i] = columns[i].length();
+            }
+            for (String[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    widths[i] = Math.max(widths[i], row[i].length());
+                }
+            }
+            out.println(title);
+            printRow(out, columns, widths);
+            for (String[] row : rows) {
+                printRow(out, row, widths);
+            }
+        }
+
+        private static void printRow(PrintStream out, String[] row, int[] widths) {
+            StringBuilder line = new StringBuilder(String.format("  %-" + widths[0] + "s", row[0]));
+            for (int i = 1; i < row.length; i++) {
+                line.append(String.format("  %" + widths[i] + "s", row[i]));
+            }
+            out.println(line);
+        }
+    }
+
+    private static final String[] REPORTS = { "courses", "groups", "hostels", "organisers", "buildings",
+            "attendance", "popular" };
+
+    private final List<List<Student>> students;
+    private final List<List<EventRow>> events;
+    // Names are typed in different cases ("ACM Club", "ACM club"), so they
+    // are grouped by their normalised form and shown as first spelt. Each
+    // spelling is looked up as typed first, to normalise it only once.
+    private final Map<String, String> spellings = new ConcurrentHashMap<>(); // As typed to shown
+    private final Map<String, String> shown = new ConcurrentHashMap<>(); // Normalised to shown
+
+    public ReportEngine(List<Student> students, List<EventRow> events) {
+        this.students = partition(students);
+        this.events = partition(events);
+    }
+
+    // Splits the rows into partitions of PARTITION_SIZE, the unit of
+    // parallel work
+    public static <T> List<List<T>> partition(List<T> rows) {
+        List<List<T>> parts = new ArrayList<>();
+        for (int start = 0; start < rows.size(); start += PARTITION_SIZE) {
+            parts.add(rows.subList(start, Math.min(rows.size(), start + PARTITION_SIZE)));
+        }
+        return parts;
+    }
+
+    // Groups the rows by key and sums each of the values per group. Rows
+    // whose key is null are left out.
+    @SafeVarargs
+    public static <T> Map<String, long[]> aggregate(List<List<T>> parts, Function<T, String> key,
+            ToLongFunction<T>... values) {
+        return parts.parallelStream().map(part -> {
+            Map<String, long[]> sums = new HashMap<>();
+            for (T row : part) {
+                String group = key.apply(row);
+                if (group != null) {
+                    long[] sum = sums.computeIfAbsent(group, k -> new long[values.length]);
+                    for (int i = 0; i < values.length; i++) {
+                        sum[i] += values[i].applyAsLong(row);
+                    }
+                }
+            }
+            return sums;
+        }).reduce(ReportEngine::merge).orElseGet(HashMap::new);
+    }
+
+    // Number of rows per key
+    public static <T> Map<String, long[]> countBy(List<List<T>> parts, Function<T, String> key) {
+        return aggregate(parts, key, row -> 1);
+    }
+
+    // The k rows that come first in the order
+    public static <T> List<T> topK(List<List<T>> parts, int k, Comparator<T> order) {
+        return parts.parallelStream()
+                .map(part -> top(part, k, order))
+                .reduce((a, b) -> {
+                    List<T> both = new ArrayList<>(a);
+                    both.addAll(b);
+                    return top(both, k, order);
+                })
+                .orElseGet(List::of);
+    }
+
+    // The k groups with the largest first value, ties by key
+    public static List<Map.Entry<String, long[]>> topK(Map<String, long[]> groups, int k) {
+        return top(groups.entrySet(), k, byFirstValue());
+    }
+
+    // Adds the smaller map into the larger one; both are private to the
+    // tasks being merged, so the larger can be reused
+    private static Map<String, long[]> merge(Map<String, long[]> a, Map<String, long[]> b) {
+        Map<String, long[]> into = a.size() >= b.size() ? a : b;
+        Map<String, long[]> from = into == a ? b : a;
+        for (Map.Entry<String, long[]> entry : from.entrySet()) {
+            long[] sum = into.putIfAbsent(entry.getKey(), entry.getValue());
+            if (sum != null) {
+                for (int i = 0; i < sum.length; i++) {
+                    sum[i] += entry.getValue()[i];
+                }
+            }
+        }
+        return into;
+    }
+
+    // Bounded heap holding the best k seen so far, worst on top
+    private static <T> List<T> top(Collection<T> rows, int k, Comparator<T> order) {
+        PriorityQueue<T> heap = new PriorityQueue<>(k + 1, order.reversed());
+        for (T row : rows) {
+            heap.add(row);
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        }
+        List<T> result = new ArrayList<>(heap);
+        result.sort(order);
+        return result;
+    }
+
+    private static Comparator<Map.Entry<String, long[]>> byFirstValue() {
+        return Comparator.comparingLong((Map.Entry<String, long[]> e) -> -e.getValue()[0])
+                .thenComparing(Map.Entry::getKey);
+    }
+
+    // Runs a built-in report; k limits the top-k ones
+    public Report report(String name, int k) {
+        switch (name) {
+            case "courses" -> {
+                Report report = new Report("Students per course", "Course", "Students");
+                addSorted(report, countBy(students, s -> spelling(s.course)), byFirstValue());
+                return report;
+            }
+            case "groups" -> {
+                Report report = new Report("Students per group", "Group", "Students");
+                // By course, then by group number rather than its digits
+                addSorted(report, countBy(students, s -> spelling(s.course) + " group " + s.groupNumber),
+                        Comparator.comparing((Map.Entry<String, long[]> e) -> e.getKey().substring(0,
+                                e.getKey().lastIndexOf(' '))).thenComparingInt(e -> Integer.parseInt(
+                                        e.getKey().substring(e.getKey().lastIndexOf(' ') + 1))));
+                return report;
+            }
+            case "hostels" -> {
+                Report report = new Report("Students per hostel", "Hostel", "Students");
+                addSorted(report, countBy(students, s -> s.isHosteller && s.hostelName != null
+                        ? spelling(s.hostelName) : DAY_SCHOLAR), byFirstValue());
+                return report;
+            }
+            case "organisers" -> {
+                Report report = new Report("Top " + k + " organisers by events", "Organiser", "Events",
+                        "Registrations");
+                for (Map.Entry<String, long[]> entry : topK(aggregate(events, e -> spelling(e.organiser), e -> 1,
+                        e -> e.participants), k)) {
+                    report.add(entry.getKey(), entry.getValue());
+                }
+                return report;
+            }
+            case "buildings" -> {
+                Report report = new Report("Events per building", "Building", "Events", "Registrations");
+                addSorted(report, aggregate(events, e -> spelling(e.building), e -> 1, e -> e.participants),
+                        byFirstValue());
+                return report;
+            }
+            case "attendance" -> {
+                Report report = new Report("Registrations by date", "Date", "Events", "Registrations",
+                        "Per event");
+                Map<String, long[]> days = aggregate(events, e -> e.date == null ? null : e.date.toString(),
+                        e -> 1, e -> e.participants);
+                for (Map.Entry<String, long[]> entry : new TreeMap<>(days).entrySet()) {
+                    long[] sums = entry.getValue();
+                    report.add(entry.getKey(), sums[0], sums[1], Math.round((double) sums[1] / sums[0]));
+                }
+                return report;
+            }
+            case "popular" -> {
+                Report report = new Report("Top " + k + " events by registrations", "Event", "ID", "Registrations");
+                for (EventRow row : topK(events, k, Comparator.comparingInt((EventRow e) -> -e.participants)
+                        .thenComparingLong(e -> e.id))) {
+                    report.add(row.name, row.id, row.participants);
+                }
+                return report;
+            }
+            default -> throw new IllegalArgumentException("Unknown report: " + name);
+        }
+    }
+
+    private String spelling(String name) {
+        String spelling = spellings.get(name);
+        if (spelling == null) {
+            spelling = shown.computeIfAbsent(EventSchedule.normalise(name), k -> name.trim());
+            spellings.put(name, spelling);
+        }
+        return spelling;
+    }
+
+    private static void addSorted(Report report, Map<String, long[]> groups,
+            Comparator<Map.Entry<String, long[]>> order) {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(groups.entrySet());
+        entries.sort(order);
+        for (Map.Entry<String, long[]> entry : entries) {
+            report.add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // Reads the students, events and registrations from their stores,
+    // importing events.csv on first use. The students come from the student
+    // log, which is ahead of students.csv until its next export; it is only
+    // read, never compacted or exported from here.
+    public static ReportEngine load(Path dir) throws IOException {
+        List<Student> students = StudentStore.readSnapshot(dir.resolve("students.log").toString(),
+                dir.resolve("students.csv").toString()).all();
+        List<EventStore.Record> records;
+        Map<Long, Integer> counts;
+        try (EventStore store = EventStore.open(dir.resolve("events.db").toString(),
+                dir.resolve("events.idx").toString(), dir.resolve("events.csv").toString());
+                ParticipantStore participants = ParticipantStore.open(dir.resolve("participants.log").toString())) {
+            records = store.all();
+            counts = participants.counts();
+        }
+        List<EventRow> events = records.parallelStream().map(record -> {
+            String[] fields = Arrays.copyOf(record.fields, Math.max(record.fields.length, 6));
+            for (int i = record.fields.length; i < fields.length; i++) {
+                fields[i] = "";
+            }
+            LocalDate date;
+            try {
+                date = LocalDate.parse(fields[3].trim());
+            } catch (DateTimeParseException e) {
+                date = null;
+            }
+            return new EventRow(record.id, fields[0], fields[1], fields[5], date, counts.getOrDefault(record.id, 0));
+        }).toList();
+        return new ReportEngine(students, events);
+    }
+
+    public static void main(String[] args) {
+        String name = args.length > 0 ? args[0] : "all";
+        if (!name.equals("all") && !Arrays.asList(REPORTS).contains(name)) {
+            System.out.println("Usage: java ReportEngine [all|" + String.join("|", REPORTS) + "] [k] [dir]");
+            return;
+        }
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TOP;
+        Path dir = Paths.get(args.length > 2 ? args[2] : ".");
+
+        try {
+            long start = System.nanoTime();
+            ReportEngine engine = load(dir);
+            System.out.printf("Loaded %d students and %d events in %d ms%n%n", engine.studentCount(),
+                    engine.eventCount(), (System.nanoTime() - start) / 1_000_000);
+
+            for (String report : name.equals("all") ? REPORTS : new String[] { name }) {
+                start = System.nanoTime();
+                Report result = engine.report(report, k);
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                result.print(System.out);
+                System.out.println("  (" + millis + " ms)");
+                System.out.println();
+            }
+        } catch (IOException e) {
+            System.out.println("Error loading data: " + e.getMessage());
+        }
+    }
+
+    public int studentCount() {
+        return students.stream().mapToInt(List::size).sum();
+    }
+
+    public int eventCount() {
+        return events.stream().mapToInt(List::size).sum();
+    }
+}
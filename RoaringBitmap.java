@@ -0,0 +1,515 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// Compressed bitmap of non-negative ints in the style of Roaring bitmaps.
+//
+// Values are split by their high 16 bits into chunks of 65536. Each chunk is
+// a container: a sorted char array while it holds at most 4096 values (2
+// bytes per value), or a plain 8 KB bitmap once it is denser than that. So a
+// sparse set costs about 2 bytes per value, a dense one about 1 bit, and
+// membership, add and remove only touch one container.
+//
+// Set operations work container by container: array-array pairs merge,
+// bitmap-bitmap pairs combine 64 bits per step, and mixed pairs probe the
+// bitmap, so intersections cost time in the smaller side rather than in the
+// range of values.
+public class RoaringBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size; // Number of containers
+
+    public boolean add(int value) {
+        char high = (char) (value >>> 16);
+        int i = find(high);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, high, new ArrayContainer());
+        }
+        Container container = containers[i];
+        int before = container.cardinality();
+        containers[i] = container.add((char) value);
+        return containers[i].cardinality() != before;
+    }
+
+    public boolean remove(int value) {
+        int i = find((char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Container container = containers[i];
+        int before = container.cardinality();
+        containers[i] = container.remove((char) value);
+        if (containers[i].cardinality() == 0) {
+            removeContainer(i);
+            return true;
+        }
+        return containers[i].cardinality() != before;
+    }
+
+    public boolean contains(int value) {
+        int i = find((char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += containers[i].cardinality();
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Calls the action with every value in ascending order
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    public RoaringBitmap copy() {
+        RoaringBitmap result = new RoaringBitmap();
+        result.keys = Arrays.copyOf(keys, Math.max(size, 4));
+        result.containers = new Container[result.keys.length];
+        for (int i = 0; i < size; i++) {
+            result.containers[i] = containers[i].copy();
+        }
+        result.size = size;
+        return result;
+    }
+
+    // Values in both bitmaps
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality() > 0) {
+                    result.insertContainer(result.size, a.keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    // Number of values in both bitmaps, without building the intersection
+    public static int andCardinality(RoaringBitmap a, RoaringBitmap b) {
+        int total = 0;
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                total += a.containers[i].andCardinality(b.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return total;
+    }
+
+    // Values in either bitmap
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = a.copy();
+        result.orWith(b);
+        return result;
+    }
+
+    // Adds every value of the other bitmap to this one
+    public void orWith(RoaringBitmap other) {
+        for (int j = 0; j < other.size; j++) {
+            int i = find(other.keys[j]);
+            if (i < 0) {
+                insertContainer(-i - 1, other.keys[j], other.containers[j].copy());
+            } else {
+                containers[i] = containers[i].or(other.containers[j]);
+            }
+        }
+    }
+
+    // Values in this bitmap but not in the other
+    public static RoaringBitmap andNot(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = a.copy();
+        b.forEach(result::remove);
+        return result;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeChar(keys[i]);
+            containers[i].write(out);
+        }
+    }
+
+    public static RoaringBitmap read(DataInput in) throws IOException {
+        RoaringBitmap result = new RoaringBitmap();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            char key = in.readChar();
+            result.insertContainer(i, key, in.readBoolean() ? BitmapContainer.read(in) : ArrayContainer.read(in));
+        }
+        return result;
+    }
+
+    // Binary search over the container keys; returns -(insertion point) - 1
+    // when the key is absent
+    private int find(char high) {
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+
+    private void insertContainer(int i, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = container;
+        size++;
+    }
+
+    private void removeContainer(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+        containers[--size] = null;
+    }
+
+    // Holds the low 16 bits of the values of one chunk. Mutators return the
+    // container to use from then on, which changes when a container crosses
+    // the array/bitmap threshold.
+    private abstract static class Container {
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract Container and(Container other);
+
+        abstract int andCardinality(Container other);
+
+        abstract Container or(Container other);
+
+        abstract void forEach(int high, IntConsumer action);
+
+        abstract Container copy();
+
+        abstract void write(DataOutput out) throws IOException;
+    }
+
+    private static class ArrayContainer extends Container {
+        char[] values;
+        int count;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int count) {
+            this.values = values;
+            this.count = count;
+        }
+
+        @Override
+        Container add(char value) {
+            int i = Arrays.binarySearch(values, 0, count, value);
+            if (i >= 0) {
+                return this;
+            }
+            if (count == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            i = -i - 1;
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.min(Math.max(count * 2, 4), ARRAY_MAX));
+            }
+            System.arraycopy(values, i, values, i + 1, count - i);
+            values[i] = value;
+            count++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int i = Arrays.binarySearch(values, 0, count, value);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, count - i - 1);
+                count--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, count, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[count];
+            int n = 0;
+            if (other instanceof ArrayContainer o) {
+                int i = 0, j = 0;
+                while (i < count && j < o.count) {
+                    if (values[i] < o.values[j]) {
+                        i++;
+                    } else if (values[i] > o.values[j]) {
+                        j++;
+                    } else {
+                        result[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    if (other.contains(values[i])) {
+                        result[n++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            int n = 0;
+            if (other instanceof ArrayContainer o) {
+                int i = 0, j = 0;
+                while (i < count && j < o.count) {
+                    if (values[i] < o.values[j]) {
+                        i++;
+                    } else if (values[i] > o.values[j]) {
+                        j++;
+                    } else {
+                        n++;
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    if (other.contains(values[i])) {
+                        n++;
+                    }
+                }
+            }
+            return n;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.copy().or(this);
+            }
+            ArrayContainer o = (ArrayContainer) other;
+            char[] merged = new char[count + o.count];
+            int i = 0, j = 0, n = 0;
+            while (i < count || j < o.count) {
+                if (j == o.count || (i < count && values[i] < o.values[j])) {
+                    merged[n++] = values[i++];
+                } else if (i == count || o.values[j] < values[i]) {
+                    merged[n++] = o.values[j++];
+                } else {
+                    merged[n++] = values[i++];
+                    j++;
+                }
+            }
+            ArrayContainer result = new ArrayContainer(merged, n);
+            return n > ARRAY_MAX ? result.toBitmap() : result;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < count; i++) {
+                action.accept(high | values[i]);
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(count, 4)), count);
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            out.writeBoolean(false);
+            out.writeShort(count - 1); // 1..4096 fits in 16 bits this way
+            for (int i = 0; i < count; i++) {
+                out.writeChar(values[i]);
+            }
+        }
+
+        static ArrayContainer read(DataInput in) throws IOException {
+            int count = in.readUnsignedShort() + 1;
+            char[] values = new char[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = in.readChar();
+            }
+            return new ArrayContainer(values, count);
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < count; i++) {
+                bitmap.words[values[i] >>> 6] |= 1L << values[i];
+            }
+            bitmap.count = count;
+            return bitmap;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        final long[] words = new long[WORDS];
+        int count;
+
+        @Override
+        Container add(char value) {
+            long before = words[value >>> 6];
+            words[value >>> 6] = before | (1L << value);
+            if (before != words[value >>> 6]) {
+                count++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long before = words[value >>> 6];
+            words[value >>> 6] = before & ~(1L << value);
+            if (before != words[value >>> 6]) {
+                count--;
+            }
+            return count <= ARRAY_MAX ? toArray() : this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            BitmapContainer o = (BitmapContainer) other;
+            BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < WORDS; i++) {
+                result.words[i] = words[i] & o.words[i];
+                result.count += Long.bitCount(result.words[i]);
+            }
+            return result.count <= ARRAY_MAX ? result.toArray() : result;
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.andCardinality(this);
+            }
+            BitmapContainer o = (BitmapContainer) other;
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                n += Long.bitCount(words[i] & o.words[i]);
+            }
+            return n;
+        }
+
+        // Adds the other container's values into this one
+        @Override
+        Container or(Container other) {
+            if (other instanceof ArrayContainer o) {
+                for (int i = 0; i < o.count; i++) {
+                    add(o.values[i]);
+                }
+                return this;
+            }
+            BitmapContainer o = (BitmapContainer) other;
+            count = 0;
+            for (int i = 0; i < WORDS; i++) {
+                words[i] |= o.words[i];
+                count += Long.bitCount(words[i]);
+            }
+            return this;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    action.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer result = new BitmapContainer();
+            System.arraycopy(words, 0, result.words, 0, WORDS);
+            result.count = count;
+            return result;
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            out.writeBoolean(true);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+
+        static BitmapContainer read(DataInput in) throws IOException {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < WORDS; i++) {
+                bitmap.words[i] = in.readLong();
+                bitmap.count += Long.bitCount(bitmap.words[i]);
+            }
+            return bitmap;
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[count];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+// On-disk hash index from roll number to row of a roster file
+// (students.rolls beside students.roster).
+//
+// The index is an open-addressing hash table written straight into the file:
+// a power-of-two number of slots, at least twice the number of students, each
+// holding a 64-bit hash of a roll number and its row. Opening maps the file
+// and reads nothing else, so the cost of opening does not depend on the
+// roster size, and a lookup touches one or two slots plus the roster row it
+// leads to. Hashes are confirmed against the roster's roll number column, so
+// a collision never returns the wrong student.
+//
+// The header records the size and modification time of the roster the index
+// was built for; an index that does not match its roster is rebuilt.
+//
+// Layout: [int magic][int format][int rows][int slot count]
+//         [long roster size][long roster modified], then per slot
+//         [long hash][int row + 1, 0 if empty]
+public class RollIndex implements Closeable {
+    private static final int MAGIC = 0x524F4C4C; // "ROLL"
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 8;
+    private static final int SLOT_SIZE = 8 + 4;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final RosterFile roster;
+    private final int mask;
+
+    private RollIndex(FileChannel channel, MappedByteBuffer buffer, RosterFile roster) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.roster = roster;
+        this.mask = buffer.getInt(12) - 1;
+    }
+
+    // Maps the index for the roster, building it first if it is missing or
+    // was built for a different version of the roster file
+    public static RollIndex open(Path file, RosterFile roster, Path rosterFile) throws IOException {
+        if (!matches(file, rosterFile)) {
+            write(file, roster, rosterFile);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(8) != roster.size()) {
+                throw new IOException(file + " does not belong to " + rosterFile);
+            }
+            return new RollIndex(channel, buffer, roster);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Returns the roster row of the roll number, or -1
+    public int find(String rollNumber) {
+        if (rollNumber == null) {
+            return -1;
+        }
+        String key = rollNumber.trim();
+        long hash = hash(key);
+        for (int slot = (int) hash & mask;; slot = (slot + 1) & mask) {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+            int row = buffer.getInt(position + 8) - 1;
+            if (row < 0) {
+                return -1;
+            }
+            if (buffer.getLong(position) == hash && roster.rollNumber(row).trim().equals(key)) {
+                return row;
+            }
+        }
+    }
+
+    public boolean contains(String rollNumber) {
+        return find(rollNumber) >= 0;
+    }
+
+    // Materialises the student with the roll number, or returns null
+    public Student get(String rollNumber) {
+        int row = find(rollNumber);
+        return row < 0 ? null : roster.get(row);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Builds the index for the roster, via a temporary file and an atomic
+    // rename. With duplicate roll numbers the later row wins, as it does
+    // when the CSV is loaded into a map.
+    public static void write(Path file, RosterFile roster, Path rosterFile) throws IOException {
+        int rows = roster.size();
+        int slots = Integer.highestOneBit(Math.max(2, rows) * 2 - 1) << 1;
+        ByteBuffer table = ByteBuffer.allocate(HEADER_SIZE + slots * SLOT_SIZE);
+        table.putInt(MAGIC).putInt(FORMAT).putInt(rows).putInt(slots)
+                .putLong(Files.size(rosterFile)).putLong(Files.getLastModifiedTime(rosterFile).toMillis());
+        for (int row = 0; row < rows; row++) {
+            String key = roster.rollNumber(row).trim();
+            long hash = hash(key);
+            for (int slot = (int) hash & (slots - 1);; slot = (slot + 1) & (slots - 1)) {
+                int position = HEADER_SIZE + slot * SLOT_SIZE;
+                int existing = table.getInt(position + 8) - 1;
+                if (existing < 0 || (table.getLong(position) == hash
+                        && roster.rollNumber(existing).trim().equals(key))) {
+                    table.putLong(position, hash);
+                    table.putInt(position + 8, row + 1);
+                    break;
+                }
+            }
+        }
+
+        Path tmp = FileLocks.tempFileFor(file);
+        try {
+            Files.write(tmp, table.array());
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // True if the index file exists and was built for the roster file as it
+    // is now
+    private static boolean matches(Path file, Path rosterFile) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return in.readInt() == MAGIC && in.readInt() == FORMAT && in.skipBytes(8) == 8
+                    && in.readLong() == Files.size(rosterFile)
+                    && in.readLong() == Files.getLastModifiedTime(rosterFile).toMillis();
+        }
+    }
+
+    // 64-bit FNV-1a over the characters, so that the hash does not depend on
+    // the JVM
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h ^ (h >>> 32);
+    }
+}
@@ -0,0 +1,548 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Columnar binary format for the student roster (students.roster).
+//
+// Each student attribute is stored as its own column. Low-cardinality string
+// columns (course, hostel, email domain, and any other column with many
+// repeats) are dictionary encoded: the distinct values once, then one
+// bit-packed code per row. Group numbers, the hosteller flag and numeric roll
+// numbers are bit-packed as offsets from the column minimum. Emails are split
+// at the last '@' so that the shared domain only costs a few bits per row.
+//
+// The file is memory-mapped when opened. Dictionaries are decoded once, and
+// every other value is read straight from the mapping when it is asked for,
+// so opening is cheap and a scan over one column touches only that column.
+//
+// Layout: [int magic][int version][int rows][int columns][long offset per
+// column] followed by the column sections. Usage:
+//   java RosterFile to-roster students.csv students.roster
+//   java RosterFile to-csv students.roster students.csv
+//   java RosterFile bench [rows]
+public class RosterFile implements Closeable {
+    private static final int MAGIC = 0x524F5354; // "ROST"
+    private static final int VERSION = 1;
+
+    private static final byte PLAIN = 0;
+    private static final byte DICT = 1;
+    private static final byte PACKED = 2;
+
+    private static final int FIRST_NAME = 0;
+    private static final int LAST_NAME = 1;
+    private static final int ROLL = 2;
+    private static final int EMAIL_LOCAL = 3;
+    private static final int EMAIL_DOMAIN = 4;
+    private static final int COURSE = 5;
+    private static final int GROUP = 6;
+    private static final int HOSTELLER = 7;
+    private static final int HOSTEL = 8;
+    private static final int COLUMNS = 9;
+
+    // Emails without an '@' are stored whole in the local part, with this
+    // domain marker
+    private static final String NO_DOMAIN = "\0";
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int rows;
+    private final Column[] columns = new Column[COLUMNS];
+
+    private RosterFile(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a roster file or unsupported version");
+        }
+        this.rows = buffer.getInt(8);
+        int count = buffer.getInt(12);
+        for (int c = 0; c < count && c < COLUMNS; c++) {
+            columns[c] = Column.open(buffer, (int) buffer.getLong(16 + 8 * c));
+        }
+    }
+
+    // Memory-maps an existing roster file. Files are limited to 2 GB, the size
+    // of a single mapping.
+    public static RosterFile open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new RosterFile(channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public String firstName(int row) {
+        return columns[FIRST_NAME].string(row);
+    }
+
+    public String lastName(int row) {
+        return columns[LAST_NAME].string(row);
+    }
+
+    public String rollNumber(int row) {
+        return columns[ROLL].string(row);
+    }
+
+    public String emailId(int row) {
+        String local = columns[EMAIL_LOCAL].string(row);
+        String domain = columns[EMAIL_DOMAIN].string(row);
+        return domain.equals(NO_DOMAIN) ? local : local + "@" + domain;
+    }
+
+    public String course(int row) {
+        return columns[COURSE].string(row);
+    }
+
+    public int groupNumber(int row) {
+        return (int) columns[GROUP].number(row);
+    }
+
+    public boolean isHosteller(int row) {
+        return columns[HOSTELLER].number(row) != 0;
+    }
+
+    public String hostelName(int row) {
+        return columns[HOSTEL].string(row);
+    }
+
+    public Student get(int row) {
+        return new Student(firstName(row), lastName(row), rollNumber(row), emailId(row), course(row),
+                groupNumber(row), isHosteller(row), hostelName(row));
+    }
+
+    public List<Student> toStudents() {
+        List<Student> students = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            students.add(get(i));
+        }
+        return students;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Writes the students as a roster file, via a temporary file and an atomic
+    // rename so readers never map a half-written file
+    public static void write(Path file, List<Student> students) throws IOException {
+        int n = students.size();
+        List<String> first = new ArrayList<>(n);
+        List<String> last = new ArrayList<>(n);
+        List<String> rolls = new ArrayList<>(n);
+        List<String> locals = new ArrayList<>(n);
+        List<String> domains = new ArrayList<>(n);
+        List<String> courses = new ArrayList<>(n);
+        List<String> hostels = new ArrayList<>(n);
+        long[] groups = new long[n];
+        long[] hostellers = new long[n];
+        long[] numericRolls = new long[n];
+        boolean rollsNumeric = true;
+
+        for (int i = 0; i < n; i++) {
+            Student s = students.get(i);
+            first.add(nonNull(s.firstName));
+            last.add(nonNull(s.lastName));
+            rolls.add(nonNull(s.rollNumber));
+            String email = nonNull(s.emailId);
+            int at = email.lastIndexOf('@');
+            locals.add(at < 0 ? email : email.substring(0, at));
+            domains.add(at < 0 ? NO_DOMAIN : email.substring(at + 1));
+            courses.add(nonNull(s.course));
+            hostels.add(nonNull(s.hostelName));
+            groups[i] = s.groupNumber;
+            hostellers[i] = s.isHosteller ? 1 : 0;
+            if (rollsNumeric) {
+                Long value = canonicalNumber(s.rollNumber);
+                rollsNumeric = value != null;
+                numericRolls[i] = rollsNumeric ? value : 0;
+            }
+        }
+
+        byte[][] sections = new byte[COLUMNS][];
+        sections[FIRST_NAME] = encodeStrings(first);
+        sections[LAST_NAME] = encodeStrings(last);
+        sections[ROLL] = rollsNumeric ? encodePacked(numericRolls) : encodeStrings(rolls);
+        sections[EMAIL_LOCAL] = encodeStrings(locals);
+        sections[EMAIL_DOMAIN] = encodeStrings(domains);
+        sections[COURSE] = encodeStrings(courses);
+        sections[GROUP] = encodePacked(groups);
+        sections[HOSTELLER] = encodePacked(hostellers);
+        sections[HOSTEL] = encodeStrings(hostels);
+
+        Path tmp = FileLocks.tempFileFor(file);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(COLUMNS);
+            long offset = 16 + 8L * COLUMNS;
+            for (byte[] section : sections) {
+                out.writeLong(offset);
+                offset += section.length;
+            }
+            for (byte[] section : sections) {
+                out.write(section);
+            }
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public static void fromCsv(Path csv, Path roster) throws IOException {
+        write(roster, CsvCodec.importStudents(csv));
+    }
+
+    public static void toCsv(Path roster, Path csv) throws IOException {
+        try (RosterFile file = open(roster)) {
+            CsvCodec.export(csv, file.toStudents(), CsvCodec::studentFields);
+        }
+    }
+
+    // Dictionary-encodes the column when values repeat enough to pay for the
+    // dictionary, otherwise stores the strings back to back
+    private static byte[] encodeStrings(List<String> values) throws IOException {
+        StringDictionary dictionary = new StringDictionary();
+        long[] codes = new long[values.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = dictionary.code(values.get(i));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (dictionary.size() * 2 <= values.size()) {
+            out.writeByte(DICT);
+            writeStrings(out, dictionary.values());
+            out.write(encodePacked(codes));
+        } else {
+            out.writeByte(PLAIN);
+            writeStrings(out, values);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // [int count][int offsets, count + 1 of them][UTF-8 bytes]
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        byte[][] encoded = new byte[values.size()][];
+        out.writeInt(values.size());
+        int offset = 0;
+        out.writeInt(0);
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = values.get(i).getBytes(StandardCharsets.UTF_8);
+            offset += encoded[i].length;
+            out.writeInt(offset);
+        }
+        for (byte[] value : encoded) {
+            out.write(value);
+        }
+    }
+
+    // [byte PACKED][long min][byte width][int words][long words...]
+    private static byte[] encodePacked(long[] values) throws IOException {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (long v : values) {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        if (values.length == 0) {
+            min = max = 0;
+        }
+        int width = 64 - Long.numberOfLeadingZeros(max - min);
+        long[] words = new long[(int) (((long) values.length * width + 63) / 64)];
+        for (int i = 0; i < values.length && width > 0; i++) {
+            long v = values[i] - min;
+            long bit = (long) i * width;
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            words[word] |= v << shift;
+            if (shift + width > 64) {
+                words[word + 1] |= v >>> (64 - shift);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(13 + words.length * 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PACKED);
+        out.writeLong(min);
+        out.writeByte(width);
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // Returns the value if the text is exactly its canonical decimal form, so
+    // that converting back gives the same string
+    private static Long canonicalNumber(String text) {
+        if (text == null || text.isEmpty() || text.length() > 18 || (text.length() > 1 && text.charAt(0) == '0')) {
+            return null;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return null;
+            }
+        }
+        return Long.parseLong(text);
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    // Read-side view of one column section inside the mapping
+    private abstract static class Column {
+        abstract String string(int row);
+
+        abstract long number(int row);
+
+        static Column open(ByteBuffer buffer, int offset) {
+            byte encoding = buffer.get(offset);
+            if (encoding == PACKED) {
+                return new Packed(buffer, offset);
+            }
+            if (encoding == DICT) {
+                return new Dictionary(buffer, offset + 1);
+            }
+            return new Plain(buffer, offset + 1);
+        }
+    }
+
+    private static class Packed extends Column {
+        final ByteBuffer buffer;
+        final long min;
+        final int width;
+        final int base;
+        final long mask;
+
+        Packed(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.min = buffer.getLong(offset + 1);
+            this.width = buffer.get(offset + 9);
+            this.base = offset + 14;
+            this.mask = width == 64 ? -1L : (1L << width) - 1;
+        }
+
+        @Override
+        long number(int row) {
+            if (width == 0) {
+                return min;
+            }
+            long bit = (long) row * width;
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            long v = buffer.getLong(base + 8 * word) >>> shift;
+            if (shift + width > 64) {
+                v |= buffer.getLong(base + 8 * (word + 1)) << (64 - shift);
+            }
+            return min + (v & mask);
+        }
+
+        @Override
+        String string(int row) {
+            return String.valueOf(number(row));
+        }
+    }
+
+    private static class Plain extends Column {
+        final ByteBuffer buffer;
+        final int count;
+        final int offsets;
+        final int data;
+
+        Plain(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.count = buffer.getInt(offset);
+            this.offsets = offset + 4;
+            this.data = offsets + 4 * (count + 1);
+        }
+
+        // Offset just past the last string, where a following section starts
+        int end() {
+            return data + buffer.getInt(offsets + 4 * count);
+        }
+
+        @Override
+        String string(int row) {
+            int start = buffer.getInt(offsets + 4 * row);
+            int length = buffer.getInt(offsets + 4 * (row + 1)) - start;
+            byte[] bytes = new byte[length];
+            buffer.get(data + start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        long number(int row) {
+            return Long.parseLong(string(row));
+        }
+    }
+
+    // Dictionary values are decoded once, so every row sharing a value also
+    // shares the same String instance
+    private static class Dictionary extends Column {
+        final String[] values;
+        final Packed codes;
+
+        Dictionary(ByteBuffer buffer, int offset) {
+            Plain strings = new Plain(buffer, offset);
+            values = new String[strings.count];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = strings.string(i);
+            }
+            codes = new Packed(buffer, strings.end());
+        }
+
+        @Override
+        String string(int row) {
+            return values[(int) codes.number(row)];
+        }
+
+        @Override
+        long number(int row) {
+            return codes.number(row);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String command = args.length > 0 ? args[0] : "bench";
+        switch (command) {
+            case "to-roster" -> {
+                fromCsv(Paths.get(args[1]), Paths.get(args[2]));
+                System.out.println("Roster written to: " + args[2]);
+            }
+            case "to-csv" -> {
+                toCsv(Paths.get(args[1]), Paths.get(args[2]));
+                System.out.println("CSV written to: " + args[2]);
+            }
+            case "bench" -> bench(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            default -> System.out.println("Usage: java RosterFile to-roster|to-csv <from> <to> | bench [rows]");
+        }
+    }
+
+    // Compares size, heap footprint, load time and a single-column scan
+    // against the CSV file
+    private static void bench(int rows) throws IOException {
+        Path dir = Files.createTempDirectory("roster-bench");
+        Path csv = dir.resolve("students.csv");
+        Path roster = dir.resolve("students.roster");
+        Path rolls = dir.resolve("students.rolls");
+
+        String[] firstNames = { "Vaibhav", "Vansh", "Vinay", "Pankit", "Rohan", "Aarav", "Isha", "Meera" };
+        String[] lastNames = { "Madan", "Sharma", "Kumar", "Sheoran", "Mehra", "Gupta", "Singh", "Verma" };
+        String[] courses = { "BE-CSE", "BE-ECE", "BE-ME", "BBA", "MBA" };
+        String[] hostels = { "Archimedes", "Teresa Girls Hostel", "Pie Hostel", "Boys Hostel" };
+        List<Student> students = new ArrayList<>(rows);
+        Random random = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            boolean hosteller = random.nextInt(3) > 0;
+            String first = firstNames[random.nextInt(firstNames.length)];
+            long roll = 2310990000L + i;
+            students.add(new Student(first, lastNames[random.nextInt(lastNames.length)], String.valueOf(roll),
+                    first.toLowerCase() + (roll % 10000) + ".be23@chitkara.edu.in", courses[random.nextInt(courses.length)],
+                    1 + random.nextInt(30), hosteller, hosteller ? hostels[random.nextInt(hostels.length)] : ""));
+        }
+        CsvCodec.export(csv, students, CsvCodec::studentFields);
+        write(roster, students);
+        students = null;
+
+        System.out.printf("Rows: %d%nCSV size:    %8.1f MB%nRoster size: %8.1f MB%n", rows, Files.size(csv) / 1e6,
+                Files.size(roster) / 1e6);
+        heapFootprint(csv, roster, rolls, rows);
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            List<Student> fromCsv = CsvCodec.importSequential(csv, CsvCodec::toStudent);
+            long csvLoad = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<Student> fromRoster;
+            try (RosterFile file = open(roster)) {
+                fromRoster = file.toStudents();
+            }
+            long rosterLoad = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int csvHostellers = 0;
+            try (CsvCodec.Parser parser = new CsvCodec.Parser(Files.newBufferedReader(csv))) {
+                while (parser.next()) {
+                    csvHostellers += Boolean.parseBoolean(parser.get(6)) ? 1 : 0;
+                }
+            }
+            long csvScan = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int rosterHostellers = 0;
+            try (RosterFile file = open(roster)) {
+                for (int i = 0; i < file.size(); i++) {
+                    rosterHostellers += file.isHosteller(i) ? 1 : 0;
+                }
+            }
+            long rosterScan = System.nanoTime() - start;
+
+            if (round == 2) {
+                System.out.printf("Full load:      CSV %6d ms, roster %6d ms%n", csvLoad / 1_000_000,
+                        rosterLoad / 1_000_000);
+                System.out.printf("Hosteller scan: CSV %6d ms, roster %6d ms (%d = %d)%n", csvScan / 1_000_000,
+                        rosterScan / 1_000_000, csvHostellers, rosterHostellers);
+                System.out.println("Round trip check: "
+                        + (fromCsv.get(rows - 1).toString().equals(fromRoster.get(rows - 1).toString()) ? "ok" : "FAILED"));
+            }
+        }
+
+        Files.delete(csv);
+        Files.delete(roster);
+        Files.delete(rolls);
+        Files.delete(dir);
+    }
+
+    // Heap taken by the students looked up by roll number: as a
+    // HashMap<String, Student>, the way EventManager held them before, and as
+    // the mapped roster and roll index it uses now, whose columns stay in the
+    // page cache and are decoded one value at a time
+    private static void heapFootprint(Path csv, Path roster, Path rolls, int rows) throws IOException {
+        long baseline = usedHeap();
+        Map<String, Student> byRoll = new HashMap<>();
+        for (Student student : CsvCodec.importSequential(csv, CsvCodec::toStudent)) {
+            byRoll.put(student.rollNumber, student);
+        }
+        long mapBytes = usedHeap() - baseline;
+        String last = byRoll.get(String.valueOf(2310990000L + rows - 1)).toString();
+        byRoll = null;
+
+        baseline = usedHeap();
+        try (RosterFile file = open(roster); RollIndex index = RollIndex.open(rolls, file, roster)) {
+            long rosterBytes = usedHeap() - baseline;
+            System.out.printf("Heap, HashMap<String, Student>: %8.1f MB (%d bytes/student)%n", mapBytes / 1e6,
+                    mapBytes / rows);
+            System.out.printf("Heap, roster and roll index:    %8.1f MB (%d bytes/student)%n", rosterBytes / 1e6,
+                    rosterBytes / rows);
+            System.out.println("Lookup check: "
+                    + (index.get(String.valueOf(2310990000L + rows - 1)).toString().equals(last) ? "ok" : "FAILED"));
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
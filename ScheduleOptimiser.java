@@ -0,0 +1,572 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+// Assigns rooms and start times to a batch of events so that as few
+// registered students as possible have two events at once, and no room is
+// booked twice.
+//
+// Time is a grid of GRID_MINUTES slots over the days of the schedule,
+// between a daily start and end time. An event takes as many consecutive
+// slots as its duration needs and never runs past the end of its day.
+// Events that share students are joined in a conflict graph weighted by the
+// number of students they share, computed from the participant bitmaps on
+// the fork-join pool.
+//
+// The first schedule is a greedy colouring of that graph with start slots
+// as the colours: events sharing the most students are placed first, each
+// at the slot and free room where it clashes least, staying where it is
+// when that is as good. Local search then improves it: simulated annealing
+// that moves one event at a time to the best of a few sampled free slots
+// and rooms. One search per core runs on the fork-join pool with its own
+// seed until the time limit, and the best schedule wins.
+//
+// Each student clash costs CLASH_COST and each event moved from its
+// current room or time costs 1, so events only move to remove clashes.
+//
+// An event whose current time is not on the grid, or not within the day's
+// hours, has no slot to stay in. Unless it is in a student or room clash at
+// its current time it is left where it is: it is never moved, and it holds
+// its room and students in the grid slots its time overlaps.
+public class ScheduleOptimiser {
+    public static final int GRID_MINUTES = 15;
+    private static final long CLASH_COST = 100;
+    private static final int SAMPLES = 6; // Candidate moves compared per step
+    private static final int STEPS_PER_CHECK = 1024; // Steps between clock checks
+
+    // Where one event of the batch goes
+    public static class Placement {
+        public final long id;
+        public final String building;
+        public final String room;
+        public final LocalDateTime start;
+        public final boolean moved;
+
+        Placement(long id, String building, String room, LocalDateTime start, boolean moved) {
+            this.id = id;
+            this.building = building;
+            this.room = room;
+            this.start = start;
+            this.moved = moved;
+        }
+    }
+
+    public static class Result {
+        public final List<Placement> placements; // In start time order
+        public final long clashesBefore; // Students with two events at once, counted per pair of events
+        public final long clashesAfter;
+        public final int moved;
+        public final int leftOffGrid; // Off the grid and in no clash, so left where they are
+
+        Result(List<Placement> placements, long clashesBefore, long clashesAfter, int moved, int leftOffGrid) {
+            this.placements = placements;
+            this.clashesBefore = clashesBefore;
+            this.clashesAfter = clashesAfter;
+            this.moved = moved;
+            this.leftOffGrid = leftOffGrid;
+        }
+    }
+
+    private final LocalDate firstDay;
+    private final LocalTime dayStart;
+    private final int slotsPerDay;
+    private final int slots;
+
+    private final List<String[]> rooms = new ArrayList<>(); // {building, room}
+    private final Map<String, Integer> roomIndex = new HashMap<>();
+
+    private final List<Long> ids = new ArrayList<>();
+    private final List<long[]> times = new ArrayList<>(); // Current {start, end} minute, or null
+    private final List<Integer> lengths = new ArrayList<>(); // In slots
+    private final List<Integer> currentSlots = new ArrayList<>(); // -1 if not on the grid
+    private final List<Integer> currentRooms = new ArrayList<>();
+    private final List<RoaringBitmap> students = new ArrayList<>();
+
+    // Conflict graph, filled in by optimise()
+    private int[][] neighbours;
+    private long[][] shared;
+
+    // Off-grid events left where they are, the first grid slot their time
+    // overlaps (-1 if none), and the events that may move; set by optimise()
+    private boolean[] pinned;
+    private int[] pinnedSlots;
+    private int[] movable;
+
+    public ScheduleOptimiser(LocalDate firstDay, LocalDate lastDay, LocalTime dayStart, LocalTime dayEnd) {
+        if (lastDay.isBefore(firstDay) || !dayEnd.isAfter(dayStart)) {
+            throw new IllegalArgumentException("Empty schedule: no days or no hours");
+        }
+        this.firstDay = firstDay;
+        this.dayStart = dayStart;
+        this.slotsPerDay = (int) (ChronoUnit.MINUTES.between(dayStart, dayEnd) / GRID_MINUTES);
+        this.slots = (int) (ChronoUnit.DAYS.between(firstDay, lastDay) + 1) * slotsPerDay;
+    }
+
+    // Makes the room available to the batch; returns its index
+    public int addRoom(String building, String room) {
+        String key = EventSchedule.normalise(building) + '\u0000' + EventSchedule.normalise(room);
+        return roomIndex.computeIfAbsent(key, k -> {
+            rooms.add(new String[] { building.trim(), room.trim() });
+            return rooms.size() - 1;
+        });
+    }
+
+    // Adds an event to the batch. Its own room becomes a candidate room too.
+    // Returns false, leaving it out, if it is longer than a day's hours.
+    public boolean addEvent(long id, String[] fields, RoaringBitmap registered) {
+        int length = (EventSchedule.durationOf(fields) + GRID_MINUTES - 1) / GRID_MINUTES;
+        if (length > slotsPerDay) {
+            return false;
+        }
+        long[] time = EventSchedule.timeOf(fields);
+        ids.add(id);
+        times.add(time);
+        lengths.add(length);
+        currentRooms.add(addRoom(fields[1], fields[2]));
+        currentSlots.add(time == null ? -1 : slotOf(time[0], length));
+        students.add(registered);
+        return true;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    // Builds the schedule, searching for at most the given time
+    public Result optimise(long timeLimitMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeLimitMillis;
+        int n = ids.size();
+        if (n == 0) {
+            return new Result(List.of(), 0, 0, 0, 0);
+        }
+        buildConflictGraph();
+        pinOffGridEvents();
+
+        State greedy = greedy();
+        State best = greedy;
+        if (greedy.clashes() > 0 && movable.length > 0) {
+            int chains = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+            List<Callable<State>> searches = new ArrayList<>();
+            for (int c = 0; c < chains; c++) {
+                long seed = 31L * c + 17;
+                searches.add(() -> anneal(greedy.copy(), new SplittableRandom(seed), deadline));
+            }
+            for (Future<State> search : ForkJoinPool.commonPool().invokeAll(searches)) {
+                try {
+                    State found = search.get();
+                    if (found.cost < best.cost) {
+                        best = found;
+                    }
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        return result(best);
+    }
+
+    // Edges between events sharing students, one row of pairs per event on
+    // the fork-join pool
+    private void buildConflictGraph() {
+        int n = ids.size();
+        long[][] rows = IntStream.range(0, n).parallel().mapToObj(i -> {
+            long[] row = new long[8];
+            int count = 0;
+            if (!students.get(i).isEmpty()) {
+                for (int j = i + 1; j < n; j++) {
+                    int common = RoaringBitmap.andCardinality(students.get(i), students.get(j));
+                    if (common > 0) {
+                        if (count + 2 > row.length) {
+                            row = Arrays.copyOf(row, row.length * 2);
+                        }
+                        row[count++] = j;
+                        row[count++] = common;
+                    }
+                }
+            }
+            return Arrays.copyOf(row, count);
+        }).toArray(long[][]::new);
+
+        int[] degree = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < rows[i].length; k += 2) {
+                degree[i]++;
+                degree[(int) rows[i][k]]++;
+            }
+        }
+        neighbours = new int[n][];
+        shared = new long[n][];
+        for (int i = 0; i < n; i++) {
+            neighbours[i] = new int[degree[i]];
+            shared[i] = new long[degree[i]];
+            degree[i] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < rows[i].length; k += 2) {
+                int j = (int) rows[i][k];
+                long w = rows[i][k + 1];
+                neighbours[i][degree[i]] = j;
+                shared[i][degree[i]++] = w;
+                neighbours[j][degree[j]] = i;
+                shared[j][degree[j]++] = w;
+            }
+        }
+    }
+
+    // Pins the events that are off the grid but in no clash at their current
+    // time. A pinned event takes the length of the grid slots its time
+    // overlaps, which is all the grid needs to know about it.
+    private void pinOffGridEvents() {
+        int n = ids.size();
+        pinned = new boolean[n];
+        pinnedSlots = new int[n];
+        List<Integer> free = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            pinnedSlots[i] = -1;
+            if (currentSlots.get(i) < 0 && times.get(i) != null && !inClash(i)) {
+                pinned[i] = true;
+                long[] time = times.get(i);
+                long dayStartMinute = EventSchedule.minuteOf(firstDay.atTime(dayStart));
+                long day = Math.floorDiv(time[0] - EventSchedule.minuteOf(firstDay.atStartOfDay()), 24L * 60);
+                long opens = dayStartMinute + day * 24 * 60;
+                long from = Math.max(time[0], opens);
+                long to = Math.min(time[1], opens + (long) slotsPerDay * GRID_MINUTES);
+                if (day >= 0 && day < slots / slotsPerDay && from < to) {
+                    int first = (int) ((from - opens) / GRID_MINUTES);
+                    int last = (int) ((to - opens + GRID_MINUTES - 1) / GRID_MINUTES);
+                    pinnedSlots[i] = (int) day * slotsPerDay + first;
+                    lengths.set(i, last - first);
+                }
+            } else {
+                free.add(i);
+            }
+        }
+        movable = free.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // True if the event shares students or its room with another event of
+    // the batch at their current times
+    private boolean inClash(int event) {
+        long[] time = times.get(event);
+        for (int other : neighbours[event]) {
+            if (overlaps(time, times.get(other))) {
+                return true;
+            }
+        }
+        for (int other = 0; other < ids.size(); other++) {
+            if (other != event && currentRooms.get(other).equals(currentRooms.get(event))
+                    && overlaps(time, times.get(other))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean overlaps(long[] time, long[] other) {
+        return time != null && other != null && time[0] < other[1] && other[0] < time[1];
+    }
+
+    // A complete schedule: a start slot and room for every event, and which
+    // event holds each room at each slot
+    private class State {
+        final int[] start;
+        final int[] room;
+        final int[][] occupant; // Room, then slot: event + 1, or 0 if free
+        long cost;
+
+        State() {
+            start = new int[ids.size()];
+            room = new int[ids.size()];
+            occupant = new int[rooms.size()][slots];
+            Arrays.fill(start, -1);
+        }
+
+        State(State other) {
+            start = other.start.clone();
+            room = other.room.clone();
+            occupant = new int[other.occupant.length][];
+            for (int r = 0; r < occupant.length; r++) {
+                occupant[r] = other.occupant[r].clone();
+            }
+            cost = other.cost;
+        }
+
+        State copy() {
+            return new State(this);
+        }
+
+        // True if the room is free for the event's length from the slot,
+        // apart from the event itself
+        boolean free(int r, int s, int event) {
+            int[] taken = occupant[r];
+            for (int t = s; t < s + lengths.get(event); t++) {
+                if (taken[t] != 0 && taken[t] != event + 1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void place(int event, int s, int r) {
+            if (start[event] >= 0) {
+                Arrays.fill(occupant[room[event]], start[event], start[event] + lengths.get(event), 0);
+            }
+            start[event] = s;
+            room[event] = r;
+            Arrays.fill(occupant[r], s, s + lengths.get(event), event + 1);
+        }
+
+        // Students the event would share with placed events overlapping it
+        // if it started at the slot; none if it has no slot
+        long clashesAt(int event, int s) {
+            if (s < 0) {
+                return 0;
+            }
+            long clashes = 0;
+            int end = s + lengths.get(event);
+            int[] adjacent = neighbours[event];
+            for (int k = 0; k < adjacent.length; k++) {
+                int other = adjacent[k];
+                int otherStart = start[other];
+                if (otherStart >= 0 && otherStart < end && s < otherStart + lengths.get(other)) {
+                    clashes += shared[event][k];
+                }
+            }
+            return clashes;
+        }
+
+        long costAt(int event, int s, int r) {
+            boolean moved = !pinned[event] && (s != currentSlots.get(event) || r != currentRooms.get(event));
+            return clashesAt(event, s) * CLASH_COST + (moved ? 1 : 0);
+        }
+
+        long clashes() {
+            long clashes = 0;
+            for (int i = 0; i < start.length; i++) {
+                clashes += clashesAt(i, start[i]);
+            }
+            return clashes / 2; // Each pair was counted from both ends
+        }
+    }
+
+    // Places the events one at a time, most shared students first, each
+    // where it costs least given the events placed before it
+    private State greedy() {
+        int n = ids.size();
+        Integer[] order = new Integer[n];
+        long[] weight = new long[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            for (long w : shared[i]) {
+                weight[i] += w;
+            }
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> -weight[i]).thenComparingInt(i -> i));
+
+        State state = new State();
+        for (int event = 0; event < n; event++) {
+            if (pinned[event] && pinnedSlots[event] >= 0) {
+                state.place(event, pinnedSlots[event], currentRooms.get(event));
+            }
+        }
+        for (int event : order) {
+            if (pinned[event]) {
+                continue;
+            }
+            int length = lengths.get(event);
+            int bestSlot = -1;
+            int bestRoom = -1;
+            long bestCost = Long.MAX_VALUE;
+
+            int current = currentSlots.get(event);
+            if (current >= 0 && state.free(currentRooms.get(event), current, event)) {
+                bestSlot = current;
+                bestRoom = currentRooms.get(event);
+                bestCost = state.costAt(event, current, bestRoom);
+            }
+            for (int s = 0; s < slots && bestCost > 0; s++) {
+                if (s % slotsPerDay + length > slotsPerDay) {
+                    s += slotsPerDay - s % slotsPerDay - 1; // To the next day
+                    continue;
+                }
+                long clashCost = state.clashesAt(event, s) * CLASH_COST;
+                if (clashCost + 1 >= bestCost) {
+                    continue; // Moving here cannot beat the best so far
+                }
+                int r = freeRoom(state, event, s);
+                if (r >= 0) {
+                    bestSlot = s;
+                    bestRoom = r;
+                    bestCost = state.costAt(event, s, r);
+                }
+            }
+            if (bestSlot < 0) {
+                throw new IllegalStateException("Not enough rooms and hours for " + n + " events");
+            }
+            state.place(event, bestSlot, bestRoom);
+        }
+        state.cost = 0;
+        for (int i = 0; i < n; i++) {
+            state.cost += state.costAt(i, state.start[i], state.room[i]);
+        }
+        // Clashes were counted from both ends; count each pair once
+        state.cost -= state.clashes() * CLASH_COST;
+        return state;
+    }
+
+    // A room free for the event from the slot, its own room if possible, or -1
+    private int freeRoom(State state, int event, int s) {
+        int own = currentRooms.get(event);
+        if (state.free(own, s, event)) {
+            return own;
+        }
+        for (int r = 0; r < rooms.size(); r++) {
+            if (r != own && state.free(r, s, event)) {
+                return r;
+            }
+        }
+        return -1;
+    }
+
+    // Simulated annealing from the state until the deadline. Each step takes
+    // an event, preferring ones in a clash, and compares moving it to a few
+    // random free slots and rooms; the best is taken if it is no worse, and
+    // otherwise with a probability that falls as the search cools.
+    private State anneal(State state, SplittableRandom random, long deadline) {
+        int n = ids.size();
+        long started = System.currentTimeMillis();
+        double span = Math.max(1, deadline - started);
+        int[] bestStart = state.start.clone();
+        int[] bestRoom = state.room.clone();
+        long bestCost = state.cost;
+        double temperature = CLASH_COST;
+
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (now >= deadline) {
+                break;
+            }
+            // From about one clash down to a fraction of a move
+            temperature = CLASH_COST * Math.pow(0.002, (now - started) / span);
+
+            for (int step = 0; step < STEPS_PER_CHECK; step++) {
+                int event = movable[random.nextInt(movable.length)];
+                for (int tries = 0; tries < 4 && state.clashesAt(event, state.start[event]) == 0; tries++) {
+                    event = movable[random.nextInt(movable.length)];
+                }
+                int length = lengths.get(event);
+                long before = state.costAt(event, state.start[event], state.room[event]);
+
+                int moveSlot = -1;
+                int moveRoom = -1;
+                long moveCost = Long.MAX_VALUE;
+                for (int k = 0; k < SAMPLES; k++) {
+                    int s;
+                    int r;
+                    if (k == 0 && currentSlots.get(event) >= 0) {
+                        s = currentSlots.get(event); // Always consider moving back
+                        r = currentRooms.get(event);
+                    } else {
+                        int day = random.nextInt(slots / slotsPerDay);
+                        s = day * slotsPerDay + random.nextInt(slotsPerDay - length + 1);
+                        r = random.nextInt(3) == 0 ? random.nextInt(rooms.size()) : state.room[event];
+                    }
+                    if ((s != state.start[event] || r != state.room[event]) && state.free(r, s, event)) {
+                        long cost = state.costAt(event, s, r);
+                        if (cost < moveCost) {
+                            moveSlot = s;
+                            moveRoom = r;
+                            moveCost = cost;
+                        }
+                    }
+                }
+                if (moveSlot < 0) {
+                    continue;
+                }
+                long delta = moveCost - before;
+                if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+                    state.place(event, moveSlot, moveRoom);
+                    state.cost += delta;
+                    if (state.cost < bestCost) {
+                        bestCost = state.cost;
+                        bestStart = state.start.clone();
+                        bestRoom = state.room.clone();
+                    }
+                }
+            }
+        }
+
+        State best = new State();
+        for (int i = 0; i < n; i++) {
+            if (bestStart[i] >= 0) {
+                best.place(i, bestStart[i], bestRoom[i]);
+            }
+        }
+        best.cost = bestCost;
+        return best;
+    }
+
+    private Result result(State state) {
+        List<Placement> placements = new ArrayList<>();
+        int moved = 0;
+        int left = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            if (pinned[i]) {
+                String[] room = rooms.get(currentRooms.get(i));
+                LocalDateTime start = LocalDateTime.ofEpochSecond(times.get(i)[0] * 60, 0, ZoneOffset.UTC);
+                placements.add(new Placement(ids.get(i), room[0], room[1], start, false));
+                left++;
+                continue;
+            }
+            boolean isMoved = state.start[i] != currentSlots.get(i) || state.room[i] != currentRooms.get(i);
+            String[] room = rooms.get(state.room[i]);
+            placements.add(new Placement(ids.get(i), room[0], room[1], timeOf(state.start[i]), isMoved));
+            moved += isMoved ? 1 : 0;
+        }
+        placements.sort(Comparator.comparing((Placement p) -> p.start).thenComparingLong(p -> p.id));
+        return new Result(placements, clashesBefore(), state.clashes(), moved, left);
+    }
+
+    // Student clashes among the batch at the events' current times, which
+    // need not be on the grid
+    private long clashesBefore() {
+        long clashes = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            long[] time = times.get(i);
+            for (int k = 0; k < neighbours[i].length; k++) {
+                int j = neighbours[i][k];
+                long[] other = times.get(j);
+                if (j > i && time != null && other != null && time[0] < other[1] && other[0] < time[1]) {
+                    clashes += shared[i][k];
+                }
+            }
+        }
+        return clashes;
+    }
+
+    // The grid slot an event starting at the minute occupies, or -1 if it is
+    // not aligned to the grid or does not fit in the day's hours
+    private int slotOf(long startMinute, int length) {
+        long first = EventSchedule.minuteOf(firstDay.atTime(dayStart));
+        long day = Math.floorDiv(startMinute - first, 24L * 60);
+        long offset = startMinute - first - day * 24 * 60;
+        if (day < 0 || offset % GRID_MINUTES != 0 || offset / GRID_MINUTES + length > slotsPerDay) {
+            return -1;
+        }
+        long slot = day * slotsPerDay + offset / GRID_MINUTES;
+        return slot < slots ? (int) slot : -1;
+    }
+
+    private LocalDateTime timeOf(int slot) {
+        return firstDay.plusDays(slot / slotsPerDay).atTime(dayStart)
+                .plusMinutes((long) (slot % slotsPerDay) * GRID_MINUTES);
+    }
+}
@@ -0,0 +1,385 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Benchmarks for the student and event stores, on generated data:
+//
+//   java StoreBenchmark generate [students] [events] [dir]
+//       writes synthetic students.csv and events.csv (10^3 to 10^7 rows)
+//   java StoreBenchmark micro [students] [events]
+//       times load, lookup by roll number, update, delete, event listing
+//       and participant validation one operation type at a time
+//   java StoreBenchmark mixed [students] [events] [threads] [seconds]
+//       runs a mixed workload on several threads and reports throughput and
+//       latency percentiles per operation
+//
+// Defaults: 100,000 students, 10,000 events, 4 threads, 10 seconds. Each
+// measurement is preceded by a warm-up run so that compiled code is
+// measured. Latencies are kept per operation and sorted for the
+// percentiles, so the numbers are exact rather than bucketed.
+public class StoreBenchmark {
+    private static final long FIRST_ROLL = 2310990000L;
+    private static final String[] HOSTELS = { "Archimedes", "Pie Hostel", "Boys Hostel", "Teresa Girls Hostel" };
+    private static final String[] BUILDINGS = { "Edison Block", "Newton Block", "Galileo Block", "Turing Block" };
+    private static final int VALIDATION_BATCH = 20; // Roll numbers per participant registration
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "micro";
+        int students = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int events = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        switch (mode) {
+            case "generate" -> {
+                Path dir = Paths.get(args.length > 3 ? args[3] : ".");
+                generateStudents(dir.resolve("students.csv"), students);
+                generateEvents(dir.resolve("events.csv"), events);
+                System.out.println("Wrote " + students + " students and " + events + " events to " + dir);
+            }
+            case "micro" -> micro(students, events);
+            case "mixed" -> mixed(students, events, args.length > 3 ? Integer.parseInt(args[3]) : 4,
+                    args.length > 4 ? Integer.parseInt(args[4]) : 10);
+            default -> System.out.println("Usage: java StoreBenchmark generate|micro|mixed [students] [events] ...");
+        }
+    }
+
+    // Students with consecutive roll numbers, a few courses and hostels, and
+    // a third of them day scholars
+    static void generateStudents(Path file, int rows) throws IOException {
+        Random random = new Random(7);
+        try (CsvCodec.Writer out = new CsvCodec.Writer(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            for (int i = 0; i < rows; i++) {
+                boolean hosteller = i % 3 != 0;
+                out.writeRow(CsvCodec.studentFields(new Student("First" + i, "Last" + (i % 997), roll(i),
+                        "student" + i + ".be23@chitkara.edu.in", i % 5 == 0 ? "BE-ECE" : "BE-CSE",
+                        1 + random.nextInt(30), hosteller, hosteller ? HOSTELS[i % HOSTELS.length] : "")));
+            }
+        }
+    }
+
+    // Events spread over a year, 9:00 to 17:00, in forty rooms per building
+    static void generateEvents(Path file, int rows) throws IOException {
+        Random random = new Random(11);
+        LocalDate first = LocalDate.of(2025, 1, 1);
+        try (CsvCodec.Writer out = new CsvCodec.Writer(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            for (int i = 0; i < rows; i++) {
+                out.writeRow("Event " + i, BUILDINGS[i % BUILDINGS.length], "Room " + random.nextInt(40),
+                        first.plusDays(random.nextInt(365)).toString(),
+                        String.format("%02d:00", 9 + random.nextInt(8)), "Club " + (i % 50), "Talk on topic " + i,
+                        String.valueOf(30 * (1 + random.nextInt(4))));
+            }
+        }
+    }
+
+    private static String roll(int i) {
+        return String.valueOf(FIRST_ROLL + i);
+    }
+
+    // The stores over one generated data set in a temporary directory
+    private static class Fixture implements Closeable {
+        final Path dir;
+        final int studentCount;
+        StudentStore students;
+        EventStore events;
+        ParticipantStore participants;
+        RosterFile roster;
+        RollIndex rollIndex;
+
+        Fixture(int studentCount, int eventCount) throws IOException {
+            this.dir = Files.createTempDirectory("store-bench");
+            this.studentCount = studentCount;
+            generateStudents(file("students.csv"), studentCount);
+            generateEvents(file("events.csv"), eventCount);
+        }
+
+        Path file(String name) {
+            return dir.resolve(name);
+        }
+
+        String path(String name) {
+            return file(name).toString();
+        }
+
+        void open() throws IOException {
+            students = StudentStore.open(path("students.log"), path("students.csv"));
+            events = EventStore.open(path("events.db"), path("events.idx"), path("events.csv"));
+            participants = ParticipantStore.open(path("participants.log"));
+            RosterFile.write(file("students.roster"), CsvCodec.importStudents(file("students.csv")));
+            roster = RosterFile.open(file("students.roster"));
+            rollIndex = RollIndex.open(file("students.rolls"), roster, file("students.roster"));
+        }
+
+        // Roll numbers to register: mostly valid, one in ten unknown
+        List<String> validationBatch(Random random) {
+            List<String> rolls = new ArrayList<>(VALIDATION_BATCH);
+            for (int i = 0; i < VALIDATION_BATCH; i++) {
+                rolls.add(random.nextInt(10) == 0 ? "9" + random.nextInt(1_000_000)
+                        : roll(random.nextInt(studentCount)));
+            }
+            return rolls;
+        }
+
+        // What EventManager does when registering: keep the known roll
+        // numbers, then register them
+        int validateAndRegister(long eventId, List<String> rolls) throws IOException {
+            List<String> valid = new ArrayList<>(rolls.size());
+            for (String rollNumber : rolls) {
+                if (rollIndex.contains(rollNumber)) {
+                    valid.add(rollNumber);
+                }
+            }
+            return participants.register(eventId, valid);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (students != null) {
+                students.close();
+                events.close();
+                participants.close();
+                rollIndex.close();
+                roster.close();
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    // Returns what it computed, so the result can be consumed
+    private interface Operation {
+        Object run(Random random) throws IOException;
+    }
+
+    // Never equal to a result. Comparing every result with it, as JMH's
+    // Blackhole does, keeps the JIT from dropping work whose result is
+    // unused; being volatile, it cannot be read once and folded away.
+    private static volatile Object sink = new Object();
+
+    private static void consume(Object result) {
+        if (result == sink) {
+            throw new AssertionError();
+        }
+    }
+
+    private static void micro(int studentCount, int eventCount) throws IOException {
+        System.out.println("Students: " + studentCount + ", events: " + eventCount + ", cores: "
+                + Runtime.getRuntime().availableProcessors());
+        try (Fixture f = new Fixture(studentCount, eventCount)) {
+            // Loading is measured once, cold, as a user would see it
+            timeOnce("students CSV import", () -> CsvCodec.importStudents(f.file("students.csv")).size());
+            timeOnce("student log import", () -> StudentStore.open(f.path("warm.log"),
+                    f.path("students.csv")).close());
+            timeOnce("student log recovery", () -> StudentStore.open(f.path("warm.log"),
+                    f.path("students.csv")).close());
+            timeOnce("event store import", () -> EventStore.open(f.path("warm.db"), f.path("warm.idx"),
+                    f.path("events.csv")).close());
+            timeOnce("event store open", () -> EventStore.open(f.path("warm.db"), f.path("warm.idx"),
+                    f.path("events.csv")).close());
+            f.open();
+            timeOnce("roll index open", () -> RollIndex.open(f.file("students.rolls"), f.roster,
+                    f.file("students.roster")).close());
+
+            List<EventStore.Record> all = f.events.all();
+            long[] ids = all.stream().mapToLong(r -> r.id).toArray();
+            time("lookup by roll (roll index)", 200_000,
+                    r -> f.rollIndex.get(roll(r.nextInt(studentCount))));
+            time("lookup by roll (student log)", 200_000,
+                    r -> f.students.get(roll(r.nextInt(studentCount))));
+            time("event by id", 200_000, r -> f.events.get(ids[r.nextInt(ids.length)]));
+            time("student update", 2_000, r -> {
+                Student s = f.students.get(roll(r.nextInt(studentCount)));
+                Student updated = new Student(s.firstName, s.lastName, s.rollNumber, s.emailId, s.course,
+                        1 + r.nextInt(30), s.isHosteller, s.hostelName);
+                f.students.put(updated);
+                return updated;
+            });
+            time("event update", 2_000, r -> {
+                EventStore.Record record = f.events.get(ids[r.nextInt(ids.length)]);
+                String[] fields = record.fields.clone();
+                fields[6] = "Updated " + r.nextInt();
+                return f.events.update(record.id, fields, record.version);
+            });
+            time("participant validation", 2_000,
+                    r -> f.validateAndRegister(ids[r.nextInt(ids.length)], f.validationBatch(r)));
+            time("event listing (all)", 20, r -> f.events.all());
+            EventTimeIndex timeIndex = EventTimeIndex.open(f.events, f.path("events.time"));
+            long from = EventSchedule.minuteOf(LocalDateTime.of(2025, 6, 1, 0, 0));
+            time("event listing (next 5)", 20_000, r -> timeIndex.upcoming(from + r.nextInt(100_000), null)
+                    .nextPage(5));
+
+            // Deletes go last, and only touch a fraction of the data
+            int deletes = Math.min(2_000, Math.min(studentCount, ids.length) / 2);
+            int[] next = { 0 };
+            time("student delete", deletes, r -> f.students.delete(roll(next[0]++ % studentCount)));
+            next[0] = 0;
+            time("event delete", deletes,
+                    r -> f.events.delete(ids[next[0]++ % ids.length], EventStore.ANY_VERSION));
+        }
+    }
+
+    private interface Step {
+        void run() throws IOException;
+    }
+
+    private static void timeOnce(String name, Step step) throws IOException {
+        long start = System.nanoTime();
+        step.run();
+        System.out.printf("%-30s %10.1f ms%n", name, (System.nanoTime() - start) / 1e6);
+    }
+
+    // Runs the operation a tenth of the count to warm up, then the count,
+    // timing every call
+    private static void time(String name, int count, Operation operation) throws IOException {
+        Random random = new Random(3);
+        for (int i = 0; i < Math.max(1, count / 10); i++) {
+            consume(operation.run(random));
+        }
+        long[] latencies = new long[count];
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long t = System.nanoTime();
+            consume(operation.run(random));
+            latencies[i] = System.nanoTime() - t;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Arrays.sort(latencies);
+        System.out.printf("%-30s %10.0f ops/s  p50 %s  p99 %s  max %s%n", name, count / seconds,
+                micros(percentile(latencies, 50)), micros(percentile(latencies, 99)),
+                micros(latencies[count - 1]));
+    }
+
+    // Mix of the mixed workload, in percent
+    private static final String[] MIX_NAMES = { "student lookup", "student update", "event read",
+            "event update", "participant validation", "event listing" };
+    private static final int[] MIX = { 55, 10, 20, 5, 8, 2 };
+
+    // Threads pick operations at random in the proportions of MIX until the
+    // time is up; the first fifth of the time is a warm-up and not counted
+    private static void mixed(int studentCount, int eventCount, int threads, int seconds) throws Exception {
+        System.out.println("Students: " + studentCount + ", events: " + eventCount + ", threads: " + threads
+                + ", seconds: " + seconds);
+        try (Fixture f = new Fixture(studentCount, eventCount)) {
+            f.open();
+            EventTimeIndex timeIndex = EventTimeIndex.open(f.events, f.path("events.time"));
+            long[] ids = f.events.all().stream().mapToLong(r -> r.id).toArray();
+            long from = EventSchedule.minuteOf(LocalDateTime.of(2025, 6, 1, 0, 0));
+            Operation[] operations = {
+                    r -> f.students.get(roll(r.nextInt(studentCount))),
+                    r -> {
+                        Student s = f.students.get(roll(r.nextInt(studentCount)));
+                        Student updated = new Student(s.firstName, s.lastName, s.rollNumber, s.emailId, s.course,
+                                1 + r.nextInt(30), s.isHosteller, s.hostelName);
+                        f.students.put(updated);
+                        return updated;
+                    },
+                    r -> f.events.get(ids[r.nextInt(ids.length)]),
+                    r -> {
+                        EventStore.Record record = f.events.get(ids[r.nextInt(ids.length)]);
+                        String[] fields = record.fields.clone();
+                        fields[6] = "Updated " + r.nextInt();
+                        // Kept current like EventManager keeps its index; the
+                        // index is not thread-safe, so it is used under a lock
+                        synchronized (timeIndex) {
+                            try {
+                                if (f.events.update(record.id, fields, record.version)) {
+                                    timeIndex.eventSaved(record.id, fields);
+                                    return fields;
+                                }
+                            } catch (ConcurrentModificationException e) {
+                                // Another thread updated it first; still a completed operation
+                            }
+                            return record;
+                        }
+                    },
+                    r -> f.validateAndRegister(ids[r.nextInt(ids.length)], f.validationBatch(r)),
+                    r -> {
+                        synchronized (timeIndex) {
+                            return timeIndex.upcoming(from + r.nextInt(100_000), null).nextPage(5);
+                        }
+                    },
+            };
+
+            long start = System.nanoTime();
+            long measureFrom = start + seconds * 200_000_000L;
+            long end = start + seconds * 1_000_000_000L;
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<long[][]>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long seed = t;
+                results.add(pool.submit(() -> runMix(operations, new Random(seed), measureFrom, end)));
+            }
+
+            long[][] merged = new long[operations.length][0];
+            for (Future<long[][]> result : results) {
+                long[][] latencies = result.get();
+                for (int op = 0; op < operations.length; op++) {
+                    long[] combined = Arrays.copyOf(merged[op], merged[op].length + latencies[op].length);
+                    System.arraycopy(latencies[op], 0, combined, merged[op].length, latencies[op].length);
+                    merged[op] = combined;
+                }
+            }
+            pool.shutdown();
+
+            double measured = (end - measureFrom) / 1e9;
+            long total = 0;
+            for (int op = 0; op < operations.length; op++) {
+                long[] latencies = merged[op];
+                total += latencies.length;
+                if (latencies.length == 0) {
+                    continue;
+                }
+                Arrays.sort(latencies);
+                System.out.printf("%-24s %9.0f ops/s  p50 %s  p99 %s  p99.9 %s  max %s%n", MIX_NAMES[op],
+                        latencies.length / measured, micros(percentile(latencies, 50)),
+                        micros(percentile(latencies, 99)), micros(percentile(latencies, 99.9)),
+                        micros(latencies[latencies.length - 1]));
+            }
+            System.out.printf("%-24s %9.0f ops/s%n", "total", total / measured);
+        }
+    }
+
+    // One thread of the mixed workload: latencies per operation, in nanoseconds
+    private static long[][] runMix(Operation[] operations, Random random, long measureFrom, long end)
+            throws IOException {
+        long[][] latencies = new long[operations.length][1024];
+        int[] counts = new int[operations.length];
+        while (true) {
+            long t = System.nanoTime();
+            if (t >= end) {
+                break;
+            }
+            int pick = random.nextInt(100);
+            int op = 0;
+            while (pick >= MIX[op]) {
+                pick -= MIX[op++];
+            }
+            consume(operations[op].run(random));
+            if (t >= measureFrom) {
+                if (counts[op] == latencies[op].length) {
+                    latencies[op] = Arrays.copyOf(latencies[op], counts[op] * 2);
+                }
+                latencies[op][counts[op]++] = System.nanoTime() - t;
+            }
+        }
+        for (int op = 0; op < operations.length; op++) {
+            latencies[op] = Arrays.copyOf(latencies[op], counts[op]);
+        }
+        return latencies;
+    }
+
+    // Nearest-rank percentile of sorted values
+    private static long percentile(long[] sorted, double percent) {
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static String micros(long nanos) {
+        return nanos < 10_000 ? String.format("%.1f us", nanos / 1e3) : String.format("%.0f us", nanos / 1e3);
+    }
+}
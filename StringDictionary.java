@@ -0,0 +1,37 @@
+import java.util.*;
+
+// Maps repeated strings to dense integer codes and back. Each distinct value is
+// stored once, so a column of codes plus the dictionary replaces a column of
+// mostly identical strings.
+public class StringDictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    // Returns the code of the value, assigning the next free code if it is new
+    public int code(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    // Returns the code of the value, or -1 if it is not in the dictionary
+    public int find(String value) {
+        return codes.getOrDefault(value, -1);
+    }
+
+    public String value(int code) {
+        return values.get(code);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public List<String> values() {
+        return Collections.unmodifiableList(values);
+    }
+}
@@ -0,0 +1,24 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+// A fixed set of locks shared out by key hash. Operations on the same key
+// (a roll number or an event id) are serialised, while operations on
+// different keys usually take different locks and run in parallel, without
+// keeping one lock object per key.
+public class StripedLocks {
+    private final ReentrantLock[] stripes;
+
+    public StripedLocks(int count) {
+        // Round up to a power of two so the stripe is picked with a mask
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public ReentrantLock lockFor(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16; // Spread high bits, as HashMap does
+        return stripes[h & (stripes.length - 1)];
+    }
+}
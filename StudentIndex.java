@@ -0,0 +1,241 @@
+import java.util.*;
+
+// In-memory query layer over students with secondary indexes on course, group,
+// hosteller status, hostel name and email domain.
+//
+// Every student gets a dense ordinal and each index maps a value to the BitSet
+// of ordinals having it. Filters are evaluated purely by intersecting, joining
+// and complementing those bitsets, so a query costs time proportional to the
+// bitset words touched rather than a scan over every Student.
+//
+// Removing or replacing a student only clears its old ordinal; the indexes
+// are rebuilt with dense ordinals once removed students outnumber the live
+// ones, so a long session of edits does not grow them without bound.
+public final class StudentIndex {
+
+    // A composable query condition, evaluated to the set of matching ordinals.
+    // Implementations must not modify the bitsets owned by the index.
+    public interface Filter {
+        BitSet evaluate(StudentIndex index);
+    }
+
+    // One page of query results together with the total number of matches
+    public static class Page {
+        public final List<Student> students;
+        public final int total;
+        public final int offset;
+
+        Page(List<Student> students, int total, int offset) {
+            this.students = students;
+            this.total = total;
+            this.offset = offset;
+        }
+
+        public boolean hasMore() {
+            return offset + students.size() < total;
+        }
+    }
+
+    private static final BitSet EMPTY = new BitSet();
+    private static final int MIN_REBUILD = 1024;
+
+    private final List<Student> students = new ArrayList<>(); // By ordinal, null once removed
+    private final Map<String, Integer> ordinalByRoll = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private final BitSet hostellers = new BitSet();
+    private final Map<String, BitSet> byCourse = new HashMap<>();
+    private final Map<Integer, BitSet> byGroup = new HashMap<>();
+    private final Map<String, BitSet> byHostel = new HashMap<>();
+    private final Map<String, BitSet> byEmailDomain = new HashMap<>();
+    private int removed;
+
+    public StudentIndex() {
+    }
+
+    public StudentIndex(Collection<Student> initial) {
+        for (Student student : initial) {
+            add(student);
+        }
+    }
+
+    // Adds a student, replacing any indexed student with the same roll number
+    public void add(Student student) {
+        remove(student.rollNumber);
+        int ordinal = students.size();
+        students.add(student);
+        ordinalByRoll.put(student.rollNumber.trim(), ordinal);
+        live.set(ordinal);
+
+        bits(byCourse, normalise(student.course)).set(ordinal);
+        bits(byGroup, student.groupNumber).set(ordinal);
+        bits(byEmailDomain, domainOf(student.emailId)).set(ordinal);
+        if (student.isHosteller) {
+            hostellers.set(ordinal);
+            bits(byHostel, normalise(student.hostelName)).set(ordinal);
+        }
+    }
+
+    // Returns false if no student has the roll number
+    public boolean remove(String rollNumber) {
+        Integer ordinal = ordinalByRoll.remove(rollNumber.trim());
+        if (ordinal == null) {
+            return false;
+        }
+        Student student = students.get(ordinal);
+        students.set(ordinal, null);
+        live.clear(ordinal);
+        hostellers.clear(ordinal);
+        clear(byCourse, normalise(student.course), ordinal);
+        clear(byGroup, student.groupNumber, ordinal);
+        clear(byEmailDomain, domainOf(student.emailId), ordinal);
+        if (student.isHosteller) {
+            clear(byHostel, normalise(student.hostelName), ordinal);
+        }
+        removed++;
+        if (removed >= MIN_REBUILD && removed > ordinalByRoll.size()) {
+            rebuild();
+        }
+        return true;
+    }
+
+    public Student get(String rollNumber) {
+        Integer ordinal = ordinalByRoll.get(rollNumber.trim());
+        return ordinal == null ? null : students.get(ordinal);
+    }
+
+    public int size() {
+        return ordinalByRoll.size();
+    }
+
+    public int count(Filter filter) {
+        return filter.evaluate(this).cardinality();
+    }
+
+    // Returns up to limit matches starting at the given offset, in the order
+    // the students were indexed
+    public Page query(Filter filter, int offset, int limit) {
+        BitSet matches = filter.evaluate(this);
+        List<Student> page = new ArrayList<>(Math.min(limit, 64));
+        int skipped = 0;
+        for (int i = matches.nextSetBit(0); i >= 0 && page.size() < limit; i = matches.nextSetBit(i + 1)) {
+            if (skipped++ >= offset) {
+                page.add(students.get(i));
+            }
+        }
+        return new Page(page, matches.cardinality(), offset);
+    }
+
+    public static Filter all() {
+        return index -> index.live;
+    }
+
+    public static Filter course(String course) {
+        return index -> index.byCourse.getOrDefault(normalise(course), EMPTY);
+    }
+
+    public static Filter group(int groupNumber) {
+        return index -> index.byGroup.getOrDefault(groupNumber, EMPTY);
+    }
+
+    public static Filter hosteller() {
+        return index -> index.hostellers;
+    }
+
+    public static Filter dayScholar() {
+        return not(hosteller());
+    }
+
+    public static Filter hostel(String hostelName) {
+        return index -> index.byHostel.getOrDefault(normalise(hostelName), EMPTY);
+    }
+
+    // Matches the part after '@', e.g. "chitkara.edu.in"
+    public static Filter emailDomain(String domain) {
+        return index -> index.byEmailDomain.getOrDefault(normalise(domain), EMPTY);
+    }
+
+    public static Filter and(Filter... filters) {
+        return index -> {
+            // Intersect starting from the smallest set to keep the work minimal
+            List<BitSet> sets = new ArrayList<>();
+            for (Filter f : filters) {
+                sets.add(f.evaluate(index));
+            }
+            if (sets.isEmpty()) {
+                return index.live;
+            }
+            sets.sort(Comparator.comparingInt(BitSet::cardinality));
+            BitSet result = (BitSet) sets.get(0).clone();
+            for (int i = 1; i < sets.size() && !result.isEmpty(); i++) {
+                result.and(sets.get(i));
+            }
+            return result;
+        };
+    }
+
+    public static Filter or(Filter... filters) {
+        return index -> {
+            BitSet result = new BitSet();
+            for (Filter f : filters) {
+                result.or(f.evaluate(index));
+            }
+            return result;
+        };
+    }
+
+    public static Filter not(Filter filter) {
+        return index -> {
+            BitSet result = (BitSet) index.live.clone();
+            result.andNot(filter.evaluate(index));
+            return result;
+        };
+    }
+
+    // Reindexes the live students from scratch, keeping their order
+    private void rebuild() {
+        List<Student> current = new ArrayList<>(ordinalByRoll.size());
+        for (Student student : students) {
+            if (student != null) {
+                current.add(student);
+            }
+        }
+        students.clear();
+        ordinalByRoll.clear();
+        removed = 0;
+        live.clear();
+        hostellers.clear();
+        byCourse.clear();
+        byGroup.clear();
+        byHostel.clear();
+        byEmailDomain.clear();
+        for (Student student : current) {
+            add(student);
+        }
+    }
+
+    private static <K> BitSet bits(Map<K, BitSet> map, K key) {
+        return map.computeIfAbsent(key, k -> new BitSet());
+    }
+
+    private static <K> void clear(Map<K, BitSet> map, K key, int ordinal) {
+        BitSet set = map.get(key);
+        if (set != null) {
+            set.clear(ordinal);
+            if (set.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    private static String normalise(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static String domainOf(String email) {
+        if (email == null) {
+            return "";
+        }
+        int at = email.lastIndexOf('@');
+        return normalise(at < 0 ? "" : email.substring(at + 1));
+    }
+}
@@ -3,9 +3,27 @@ import java.util.*;
 
 public class StudentManager {
     private static final String FILE_NAME = "students.csv";
+    private static final String LOG_FILE = "students.log";
     private static final Scanner scanner = new Scanner(System.in);
+    private static StudentStore store;
+    private static StudentIndex index; // Built on first search, then kept in step with the store
+    private static StudentNameIndex nameIndex; // Built on first name lookup, then kept in step too
+    private static long indexVersion; // Store version each index is current with
+    private static long nameIndexVersion;
+    private static final int PAGE_SIZE = 20;
+    private static final int NAME_MATCHES = 5;
+    private static String lastChanged; // Roll number of the last change made here, for undo
+    private static long lastChangeAt; // Store version just before that change
+    private static long lastChangeVersion; // The student's version after it, 0 if deleted
 
     public static void main(String[] args) {
+        try {
+            store = StudentStore.open(LOG_FILE, FILE_NAME);
+        } catch (IOException e) {
+            System.out.println("Error opening student store: " + e.getMessage());
+            return;
+        }
+
         boolean running = true;
         while (running) {
             printMenu();
@@ -15,15 +33,22 @@ public class StudentManager {
                 case 2 -> viewStudents();
                 case 3 -> updateStudent();
                 case 4 -> deleteStudent();
-                case 5 -> clearConsole();
-                case 6 -> running = false;
+                case 5 -> searchStudents();
+                case 6 -> undoLastChange();
+                case 7 -> clearConsole();
+                case 8 -> running = false;
                 default -> System.out.println("Invalid choice.");
             }
-            if (choice != 5 && choice != 6) {
+            if (choice != 7 && choice != 8) {
                 System.out.println("\nPress Enter to continue...");
                 scanner.nextLine();
             }
         }
+        try {
+            store.close(); // Republishes the CSV if anything changed
+        } catch (IOException e) {
+            System.out.println("Error saving students: " + e.getMessage());
+        }
         System.out.println("Goodbye!");
     }
 
@@ -34,6 +59,10 @@ public class StudentManager {
         String last = scanner.nextLine();
         System.out.print("Roll Number: ");
         String roll = scanner.nextLine();
+        if (store.contains(roll)) {
+            System.out.println("A student with this roll number already exists.");
+            return;
+        }
         System.out.print("Email ID: ");
         String email = scanner.nextLine();
         System.out.print("Course: ");
@@ -47,10 +76,19 @@ public class StudentManager {
             hostel = scanner.nextLine();
         }
 
-        try (PrintWriter out = new PrintWriter(new FileWriter(FILE_NAME, true))) {
-            out.println(String.join(",", first, last, roll, email, course, String.valueOf(group),
-                    String.valueOf(hosteller), hostel));
+        try {
+            Student student = new Student(first, last, roll, email, course, group, hosteller, hostel);
+            long before = store.snapshot().version();
+            store.put(student, 0); // Fails if another operator added the roll number meanwhile
+            changed(roll, before);
+            if (index != null)
+                index.add(student);
+            if (nameIndex != null)
+                nameIndex.add(student);
+            indexed(before);
             System.out.println("Student added.");
+        } catch (ConcurrentModificationException e) {
+            System.out.println("A student with this roll number was just added by another operator.");
         } catch (IOException e) {
             System.out.println("Error saving student: " + e.getMessage());
         }
@@ -69,48 +107,114 @@ public class StudentManager {
     }
 
     private static void deleteStudent() {
-        System.out.print("Enter roll number to delete: ");
-        String roll = scanner.nextLine();
-        List<String> newLines = new ArrayList<>();
-        boolean found = false;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(FILE_NAME))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",", -1);
-                if (data.length >= 3 && data[2].equalsIgnoreCase(roll)) {
-                    found = true;
-                    continue;
-                }
-                newLines.add(line);
+        String roll = chooseStudent("Enter roll number, name or email to delete: ");
+        if (roll == null)
+            return;
+
+        try {
+            StudentStore.Snapshot before = store.snapshot();
+            if (before.contains(roll) && store.delete(roll, before.version(roll))) {
+                changed(roll, before.version());
+                if (index != null)
+                    index.remove(roll.trim());
+                if (nameIndex != null)
+                    nameIndex.remove(roll.trim());
+                indexed(before.version());
+                System.out.println("Student deleted.");
+            } else {
+                System.out.println("Student not found.");
             }
+        } catch (ConcurrentModificationException e) {
+            System.out.println("This student was just changed by another operator. Please try again.");
         } catch (IOException e) {
-            System.out.println("Error reading file.");
-            return;
+            System.out.println("Error saving file.");
         }
+    }
 
-        if (!found) {
-            System.out.println("Student not found.");
+    // Remembers a change made here so that it can be undone
+    private static void changed(String roll, long before) {
+        lastChanged = roll.trim();
+        lastChangeAt = before;
+        lastChangeVersion = store.version(lastChanged);
+    }
+
+    // Called after the indexes were updated in place for a change made here,
+    // which took the store from version before. They stay current only if no
+    // other operator's change came in with it; otherwise they are rebuilt
+    // when next used.
+    private static void indexed(long before) {
+        long after = store.snapshot().version();
+        if (indexVersion == before && after == before + 1)
+            indexVersion = after;
+        if (nameIndexVersion == before && after == before + 1)
+            nameIndexVersion = after;
+    }
+
+    // Puts the student changed last back the way they were, from the
+    // store's history of versions, unless someone has changed them since
+    private static void undoLastChange() {
+        if (lastChanged == null) {
+            System.out.println("Nothing to undo.");
             return;
         }
-
-        try (PrintWriter out = new PrintWriter(new FileWriter(FILE_NAME))) {
-            for (String s : newLines)
-                out.println(s);
-            System.out.println("Student deleted.");
+        try {
+            StudentStore.Snapshot then = store.snapshotAt(lastChangeAt);
+            if (then == null) {
+                System.out.println("Too many changes have been made since to undo it.");
+                return;
+            }
+            Student old = then.get(lastChanged);
+            long before = store.snapshot().version();
+            if (old == null) {
+                store.delete(lastChanged, lastChangeVersion);
+                if (index != null)
+                    index.remove(lastChanged);
+                if (nameIndex != null)
+                    nameIndex.remove(lastChanged);
+                indexed(before);
+                System.out.println("Removed " + lastChanged + " again.");
+            } else {
+                store.put(old, lastChangeVersion);
+                if (index != null)
+                    index.add(old);
+                if (nameIndex != null)
+                    nameIndex.add(old);
+                indexed(before);
+                System.out.println("Restored:\n" + old);
+            }
+            lastChanged = null;
+        } catch (ConcurrentModificationException e) {
+            System.out.println("This student was changed by another operator since, so it cannot be undone.");
         } catch (IOException e) {
             System.out.println("Error saving file.");
         }
     }
 
-    private static String formatStudent(String csv) {
-        String[] data = csv.split(",", -1);
-        if (data.length < 7)
-            return "Invalid student data.";
-        return data[0] + " " + data[1] + " | Roll: " + data[2] + " | Email: " + data[3] +
-                " | Course: " + data[4] + " | Group: " + data[5] +
-                " | " + (Boolean.parseBoolean(data[6]) ? "Hosteller (" + (data.length > 7 ? data[7] : "N/A") + ")"
-                        : "Day Scholar");
+    // Reads a roll number, or a name or part of an email when the roll number
+    // is not known, and returns the roll number of the student chosen from
+    // the closest matches. Returns null if none is chosen.
+    private static String chooseStudent(String prompt) {
+        System.out.print(prompt);
+        String input = scanner.nextLine().trim();
+        if (input.isEmpty() || store.contains(input))
+            return input;
+        // Rebuilt if other operators changed the roster since
+        StudentStore.Snapshot now = store.snapshot();
+        if (nameIndex == null || nameIndexVersion != now.version()) {
+            nameIndex = new StudentNameIndex(now.all());
+            nameIndexVersion = now.version();
+        }
+        List<StudentNameIndex.Hit> hits = nameIndex.search(input, NAME_MATCHES);
+        if (hits.isEmpty()) {
+            System.out.println("Student not found.");
+            return null;
+        }
+
+        System.out.println("No student has that roll number. Closest matches:");
+        for (int i = 0; i < hits.size(); i++)
+            System.out.println((i + 1) + ". " + hits.get(i).student);
+        int choice = getIntInput("Choose a student (0 to cancel): ");
+        return choice >= 1 && choice <= hits.size() ? hits.get(choice - 1).student.rollNumber : null;
     }
 
     private static int getIntInput(String prompt) {
@@ -135,89 +239,145 @@ public class StudentManager {
         System.out.println("2. View Students");
         System.out.println("3. Update Student");
         System.out.println("4. Delete Student");
-        System.out.println("5. Clear Console");
-        System.out.println("6. Exit");
+        System.out.println("5. Search Students");
+        System.out.println("6. Undo Last Change");
+        System.out.println("7. Clear Console");
+        System.out.println("8. Exit");
     }
 
     private static void updateStudent() {
-        System.out.print("Enter roll number of student to update: ");
-        String rollToUpdate = scanner.nextLine();
-        List<String> updatedLines = new ArrayList<>();
-        boolean found = false;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(FILE_NAME))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",", -1);
-                if (data.length >= 7 && data[2].equalsIgnoreCase(rollToUpdate)) {
-                    found = true;
-
-                    System.out.print("First Name (" + data[0] + "): ");
-                    String first = inputOrDefault(data[0]);
-
-                    System.out.print("Last Name (" + data[1] + "): ");
-                    String last = inputOrDefault(data[1]);
-
-                    System.out.print("Email ID (" + data[3] + "): ");
-                    String email = inputOrDefault(data[3]);
-
-                    System.out.print("Course (" + data[4] + "): ");
-                    String course = inputOrDefault(data[4]);
-
-                    System.out.print("Group Number (" + data[5] + "): ");
-                    String groupStr = inputOrDefault(data[5]);
-
-                    System.out.print("Is Hosteller? (" + data[6] + "): ");
-                    String hostellerStr = inputOrDefault(data[6]);
-
-                    String hostelName = "";
-                    if (Boolean.parseBoolean(hostellerStr)) {
-                        System.out.print("Hostel Name (" + (data.length > 7 ? data[7] : "") + "): ");
-                        hostelName = inputOrDefault(data.length > 7 ? data[7] : "");
-                    }
-
-                    updatedLines.add(String.join(",", first, last, rollToUpdate, email, course, groupStr, hostellerStr,
-                            hostelName));
-                } else {
-                    updatedLines.add(line);
-                }
-            }
-        } catch (IOException e) {
-            System.out.println("Error reading file.");
+        String rollToUpdate = chooseStudent("Enter roll number, name or email of student to update: ");
+        if (rollToUpdate == null)
             return;
-        }
 
-        if (!found) {
+        // One snapshot, so the version is the one of the student shown
+        StudentStore.Snapshot snapshot = store.snapshot();
+        long version = snapshot.version(rollToUpdate);
+        Student old = snapshot.get(rollToUpdate);
+        if (old == null) {
             System.out.println("Student not found.");
             return;
         }
 
-        try (PrintWriter out = new PrintWriter(new FileWriter(FILE_NAME))) {
-            for (String s : updatedLines)
-                out.println(s);
+        System.out.print("First Name (" + old.firstName + "): ");
+        String first = inputOrDefault(old.firstName);
+
+        System.out.print("Last Name (" + old.lastName + "): ");
+        String last = inputOrDefault(old.lastName);
+
+        System.out.print("Email ID (" + old.emailId + "): ");
+        String email = inputOrDefault(old.emailId);
+
+        System.out.print("Course (" + old.course + "): ");
+        String course = inputOrDefault(old.course);
+
+        System.out.print("Group Number (" + old.groupNumber + "): ");
+        String groupStr = inputOrDefault(String.valueOf(old.groupNumber));
+
+        System.out.print("Is Hosteller? (" + old.isHosteller + "): ");
+        String hostellerStr = inputOrDefault(String.valueOf(old.isHosteller));
+
+        String hostelName = "";
+        if (Boolean.parseBoolean(hostellerStr)) {
+            String oldHostel = old.hostelName == null ? "" : old.hostelName;
+            System.out.print("Hostel Name (" + oldHostel + "): ");
+            hostelName = inputOrDefault(oldHostel);
+        }
+
+        int group;
+        try {
+            group = Integer.parseInt(groupStr.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid group number, keeping " + old.groupNumber + ".");
+            group = old.groupNumber;
+        }
+
+        Student updated = new Student(first, last, old.rollNumber, email, course, group,
+                Boolean.parseBoolean(hostellerStr), hostelName);
+        try {
+            long before = store.snapshot().version();
+            store.put(updated, version); // Fails if someone else changed the student while we edited
+            changed(updated.rollNumber, before);
+            if (index != null)
+                index.add(updated);
+            if (nameIndex != null)
+                nameIndex.add(updated);
+            indexed(before);
             System.out.println("Student updated successfully.\n");
-            for (String s : updatedLines) {
-                String[] data = s.split(",", -1);
-                if (data.length >= 3 && data[2].equalsIgnoreCase(rollToUpdate)) {
-                    System.out.println("Updated Record:\n" + formatStudent(s));
-                    break;
-                }
-            }
+            System.out.println("Updated Record:\n" + updated);
+        } catch (ConcurrentModificationException e) {
+            System.out.println("This student was changed by another operator while you were editing. Please try again.");
         } catch (IOException e) {
             System.out.println("Error saving file.");
         }
-
     }
 
     private static void viewStudents() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(FILE_NAME))) {
-            String line;
-            System.out.println("\n--- Students ---");
-            while ((line = reader.readLine()) != null) {
-                System.out.println(formatStudent(line));
+        System.out.println("\n--- Students ---");
+        for (Student student : store.all()) {
+            System.out.println(student);
+        }
+    }
+
+    private static void searchStudents() {
+        StudentStore.Snapshot now = store.snapshot();
+        if (index == null || indexVersion != now.version()) {
+            index = new StudentIndex(now.all());
+            indexVersion = now.version();
+        }
+
+        System.out.println("Leave a field blank to match any value.");
+        List<StudentIndex.Filter> filters = new ArrayList<>();
+        System.out.print("Course: ");
+        String course = scanner.nextLine().trim();
+        if (!course.isEmpty())
+            filters.add(StudentIndex.course(course));
+
+        System.out.print("Group Number: ");
+        String group = scanner.nextLine().trim();
+        if (!group.isEmpty()) {
+            try {
+                filters.add(StudentIndex.group(Integer.parseInt(group)));
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid group number, ignoring it.");
             }
-        } catch (IOException e) {
-            System.out.println("No students found or file missing.");
+        }
+
+        System.out.print("Hosteller? (yes/no): ");
+        String hosteller = scanner.nextLine().trim();
+        if (hosteller.equalsIgnoreCase("yes"))
+            filters.add(StudentIndex.hosteller());
+        else if (hosteller.equalsIgnoreCase("no"))
+            filters.add(StudentIndex.dayScholar());
+
+        System.out.print("Hostel Name: ");
+        String hostel = scanner.nextLine().trim();
+        if (!hostel.isEmpty())
+            filters.add(StudentIndex.hostel(hostel));
+
+        System.out.print("Email Domain: ");
+        String domain = scanner.nextLine().trim();
+        if (!domain.isEmpty())
+            filters.add(StudentIndex.emailDomain(domain));
+
+        StudentIndex.Filter filter = StudentIndex.and(filters.toArray(new StudentIndex.Filter[0]));
+        int offset = 0;
+        while (true) {
+            StudentIndex.Page page = index.query(filter, offset, PAGE_SIZE);
+            if (page.total == 0) {
+                System.out.println("No matching students.");
+                return;
+            }
+            System.out.println("\n--- Matches " + (offset + 1) + "-" + (offset + page.students.size()) + " of "
+                    + page.total + " ---");
+            for (Student student : page.students)
+                System.out.println(student);
+            if (!page.hasMore())
+                return;
+            System.out.print("Show more? (yes/no): ");
+            if (!scanner.nextLine().trim().equalsIgnoreCase("yes"))
+                return;
+            offset += PAGE_SIZE;
         }
     }
 }
@@ -0,0 +1,399 @@
+import java.util.*;
+
+// Typo-tolerant search over students' names and email addresses, for when
+// the roll number is not known.
+//
+// Names and the part of the email before the '@' are split into terms:
+// runs of letters and runs of digits, lower-cased, so "vaibhav1073.be23"
+// gives vaibhav, 1073, be and 23. Each distinct term has a posting list of
+// the ordinals of the students having it. A query is split the same way and
+// each of its terms is matched against the term dictionary, best first:
+//
+//   exact           the sorted dictionary
+//   prefix          a range of the sorted dictionary ("vaib")
+//   typo            a BK-tree over the word terms finds every term within
+//                   one typo ("vaibahv") or two for longer words, pruning
+//                   subtrees by the triangle inequality
+//   substring       trigram postings: the candidates are the terms having
+//                   the query's rarest trigram, checked with contains()
+//
+// A student scores the best match of each query term among their own terms,
+// summed over the query terms, so students matching every word rank first.
+// The dictionary is small compared with the roster because names repeat,
+// so a query touches a few thousand terms and their postings rather than
+// every student.
+//
+// Digit runs are only matched exactly or by prefix: a number one digit off
+// is a different student, not a typo.
+//
+// Removing a student only forgets the ordinal; the postings are rebuilt
+// once removed students outnumber the live ones.
+public final class StudentNameIndex {
+    private static final double EXACT = 1.0;
+    private static final double PREFIX = 0.8;
+    private static final double ONE_EDIT = 0.7;
+    private static final double SUBSTRING = 0.6;
+    private static final double TWO_EDITS = 0.5;
+    private static final int MIN_PREFIX = 2;
+    private static final int MIN_REBUILD = 1024;
+
+    // One search result
+    public static class Hit {
+        public final Student student;
+        public final double score;
+
+        Hit(Student student, double score) {
+            this.student = student;
+            this.score = score;
+        }
+    }
+
+    // A distinct term and the ordinals of the students having it
+    private static class Term {
+        final String text;
+        int[] students = new int[2];
+        int size;
+
+        Term(String text) {
+            this.text = text;
+        }
+
+        void add(int ordinal) {
+            if (size == students.length) {
+                students = Arrays.copyOf(students, size * 2);
+            }
+            students[size++] = ordinal;
+        }
+    }
+
+    private final List<Student> students = new ArrayList<>(); // By ordinal, null once removed
+    private final Map<String, Integer> ordinalByRoll = new HashMap<>();
+    private int removed;
+
+    private final TreeMap<String, Term> terms = new TreeMap<>();
+    private final Map<String, List<Term>> trigrams = new HashMap<>(); // Word terms by trigram
+
+    // BK-tree over word terms: each child hangs off its parent at the edit
+    // distance between them, children of one parent in a linked list
+    private final List<Term> bkTerms = new ArrayList<>();
+    private int[] bkFirstChild = new int[16];
+    private int[] bkNextSibling = new int[16];
+    private int[] bkDistance = new int[16];
+
+    // Scratch space for search(), by ordinal; zero between searches
+    private float[] scores = new float[0];
+    private int[] matchedBy = new int[0]; // Query term (from 1) that last scored the student
+    private int[] touched = new int[16]; // Ordinals scored so far
+    private int touchedCount;
+    private int[] previousRow = new int[32]; // Rows of the edit distance table
+    private int[] currentRow = new int[32];
+
+    public StudentNameIndex(Collection<Student> students) {
+        for (Student student : students) {
+            add(student);
+        }
+    }
+
+    public int size() {
+        return ordinalByRoll.size();
+    }
+
+    // Indexes the student, replacing an earlier version with the same roll
+    // number
+    public void add(Student student) {
+        remove(student.rollNumber);
+        int ordinal = students.size();
+        students.add(student);
+        ordinalByRoll.put(student.rollNumber.trim(), ordinal);
+        Set<String> seen = new HashSet<>();
+        for (String field : new String[] { student.firstName, student.lastName, localPart(student.emailId) }) {
+            for (String text : tokenize(field)) {
+                if (seen.add(text)) {
+                    termFor(text).add(ordinal);
+                }
+            }
+        }
+    }
+
+    public void remove(String rollNumber) {
+        Integer ordinal = ordinalByRoll.remove(rollNumber.trim());
+        if (ordinal == null) {
+            return;
+        }
+        students.set(ordinal, null);
+        removed++;
+        if (removed >= MIN_REBUILD && removed > ordinalByRoll.size()) {
+            rebuild();
+        }
+    }
+
+    // The k best matches for the query, best first
+    public List<Hit> search(String query, int k) {
+        List<String> words = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (scores.length < students.size()) {
+            scores = new float[students.size()];
+            matchedBy = new int[students.size()];
+        }
+        touchedCount = 0;
+        try {
+            for (int w = 0; w < words.size(); w++) {
+                // Best matches first, so a student's first score for this
+                // query term is their best one
+                List<Map.Entry<Term, Double>> matches = new ArrayList<>(match(words.get(w)).entrySet());
+                matches.sort(Map.Entry.<Term, Double>comparingByValue().reversed());
+                for (Map.Entry<Term, Double> match : matches) {
+                    score(match.getKey(), match.getValue().floatValue(), w + 1);
+                }
+            }
+            return best(k);
+        } finally {
+            for (int i = 0; i < touchedCount; i++) {
+                scores[touched[i]] = 0;
+                matchedBy[touched[i]] = 0;
+            }
+        }
+    }
+
+    // Adds the score to every live student having the term, unless the
+    // query term already scored them
+    private void score(Term term, float score, int word) {
+        for (int i = 0; i < term.size; i++) {
+            int ordinal = term.students[i];
+            if (matchedBy[ordinal] == word || students.get(ordinal) == null) {
+                continue;
+            }
+            if (matchedBy[ordinal] == 0) {
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                touched[touchedCount++] = ordinal;
+            }
+            matchedBy[ordinal] = word;
+            scores[ordinal] += score;
+        }
+    }
+
+    // The k best scored students, earlier added first among equals, through
+    // a bounded heap with the worst on top. Common names tie in their
+    // thousands, and each is turned away by one comparison with the top.
+    private List<Hit> best(int k) {
+        Comparator<Integer> order = Comparator.<Integer>comparingDouble(o -> -scores[o])
+                .thenComparingInt(o -> o);
+        PriorityQueue<Integer> heap = new PriorityQueue<>(order.reversed());
+        for (int i = 0; i < touchedCount; i++) {
+            int ordinal = touched[i];
+            if (heap.size() == k && order.compare(ordinal, heap.peek()) > 0) {
+                continue;
+            }
+            heap.add(ordinal);
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        }
+        List<Integer> best = new ArrayList<>(heap);
+        best.sort(order);
+        List<Hit> hits = new ArrayList<>(best.size());
+        for (int ordinal : best) {
+            hits.add(new Hit(students.get(ordinal), scores[ordinal]));
+        }
+        return hits;
+    }
+
+    // Terms matching one query term, with the score of the best way each
+    // matched. A slightly better score for a closer length keeps "kumar"
+    // ahead of "kumari" for the prefix "kuma".
+    private Map<Term, Double> match(String word) {
+        Map<Term, Double> matches = new HashMap<>();
+        Term exact = terms.get(word);
+        if (exact != null) {
+            matches.put(exact, EXACT);
+        }
+        if (word.length() >= MIN_PREFIX) {
+            for (Term term : terms.subMap(word, false, word + Character.MAX_VALUE, false).values()) {
+                matches.putIfAbsent(term, PREFIX - lengthPenalty(word, term.text));
+            }
+        }
+        if (!isWord(word)) {
+            return matches;
+        }
+
+        int maxEdits = word.length() <= 3 ? 0 : word.length() <= 6 ? 1 : 2;
+        if (maxEdits > 0 && !bkTerms.isEmpty()) {
+            Deque<Integer> stack = new ArrayDeque<>();
+            stack.push(0);
+            while (!stack.isEmpty()) {
+                int node = stack.pop();
+                Term term = bkTerms.get(node);
+                int distance = levenshtein(word, term.text);
+                if (distance > 0 && distance <= maxEdits) {
+                    matches.merge(term, distance == 1 ? ONE_EDIT : TWO_EDITS, Math::max);
+                }
+                for (int child = bkFirstChild[node]; child != 0; child = bkNextSibling[child]) {
+                    if (Math.abs(bkDistance[child] - distance) <= maxEdits) {
+                        stack.push(child);
+                    }
+                }
+            }
+
+            // Swapped letters are one typo but two edits, so they are
+            // looked up directly
+            char[] swapped = word.toCharArray();
+            for (int i = 0; i + 1 < swapped.length; i++) {
+                if (swapped[i] != swapped[i + 1]) {
+                    swap(swapped, i);
+                    Term term = terms.get(new String(swapped));
+                    if (term != null) {
+                        matches.merge(term, ONE_EDIT, Math::max);
+                    }
+                    swap(swapped, i);
+                }
+            }
+        }
+
+        if (word.length() >= 3) {
+            List<Term> rarest = null;
+            for (int i = 0; i + 3 <= word.length(); i++) {
+                List<Term> list = trigrams.getOrDefault(word.substring(i, i + 3), List.of());
+                if (rarest == null || list.size() < rarest.size()) {
+                    rarest = list;
+                }
+            }
+            for (Term term : rarest) {
+                if (term.text.contains(word)) {
+                    matches.merge(term, SUBSTRING - lengthPenalty(word, term.text), Math::max);
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static double lengthPenalty(String word, String term) {
+        return Math.min(0.05, 0.01 * Math.abs(term.length() - word.length()));
+    }
+
+    private Term termFor(String text) {
+        Term term = terms.get(text);
+        if (term == null) {
+            term = new Term(text);
+            terms.put(text, term);
+            if (isWord(text)) {
+                for (int i = 0; i + 3 <= text.length(); i++) {
+                    trigrams.computeIfAbsent(text.substring(i, i + 3), k -> new ArrayList<>()).add(term);
+                }
+                bkInsert(term);
+            }
+        }
+        return term;
+    }
+
+    private void bkInsert(Term term) {
+        int node = bkTerms.size();
+        bkTerms.add(term);
+        if (node == bkFirstChild.length) {
+            bkFirstChild = Arrays.copyOf(bkFirstChild, node * 2);
+            bkNextSibling = Arrays.copyOf(bkNextSibling, node * 2);
+            bkDistance = Arrays.copyOf(bkDistance, node * 2);
+        }
+        if (node == 0) {
+            return; // The root
+        }
+        int parent = 0;
+        while (true) {
+            int distance = levenshtein(term.text, bkTerms.get(parent).text);
+            int child = bkFirstChild[parent];
+            while (child != 0 && bkDistance[child] != distance) {
+                child = bkNextSibling[child];
+            }
+            if (child == 0) {
+                bkDistance[node] = distance;
+                bkNextSibling[node] = bkFirstChild[parent];
+                bkFirstChild[parent] = node;
+                return;
+            }
+            parent = child;
+        }
+    }
+
+    // Reindexes the live students from scratch
+    private void rebuild() {
+        List<Student> live = new ArrayList<>(ordinalByRoll.size());
+        for (Student student : students) {
+            if (student != null) {
+                live.add(student);
+            }
+        }
+        students.clear();
+        ordinalByRoll.clear();
+        removed = 0;
+        terms.clear();
+        trigrams.clear();
+        bkTerms.clear();
+        Arrays.fill(bkFirstChild, 0);
+        for (Student student : live) {
+            add(student);
+        }
+    }
+
+    // Lower-cased runs of letters and runs of digits
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            char c = i < lower.length() ? lower.charAt(i) : ' ';
+            boolean sameRun = start >= 0 && Character.isLetter(c) == Character.isLetter(lower.charAt(start))
+                    && Character.isLetterOrDigit(c);
+            if (!sameRun) {
+                if (start >= 0) {
+                    tokens.add(lower.substring(start, i));
+                }
+                start = Character.isLetterOrDigit(c) ? i : -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static String localPart(String email) {
+        if (email == null) {
+            return "";
+        }
+        int at = email.indexOf('@');
+        return at < 0 ? email : email.substring(0, at);
+    }
+
+    private static boolean isWord(String term) {
+        return Character.isLetter(term.charAt(0));
+    }
+
+    private static void swap(char[] chars, int i) {
+        char c = chars[i];
+        chars[i] = chars[i + 1];
+        chars[i + 1] = c;
+    }
+
+    private int levenshtein(String a, String b) {
+        if (previousRow.length <= b.length()) {
+            previousRow = new int[b.length() + 1];
+            currentRow = new int[b.length() + 1];
+        }
+        int[] previous = previousRow;
+        int[] current = currentRow;
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitute = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitute, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
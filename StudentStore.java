@@ -0,0 +1,707 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// Student storage engine: an append-only record log with an in-memory index
+// from roll number to the student's latest record.
+//
+// Adding, updating or deleting a student appends one record (a delete appends
+// a tombstone) and forces it to disk, so every mutation is O(1) and durable.
+// Superseded records are removed by compaction, which runs in the background
+// once enough of the log is garbage, and at close under the same rule.
+//
+// students.csv stays the copy other programs read. Rewriting it costs as much
+// as the whole roster, so it is republished only when export() is called and
+// when a store that made changes is closed, never per change. Exports run
+// under the CSV file's lock and first catch up with the log, so one process
+// can never replace the file with an older roster than another process just
+// wrote.
+//
+// Several processes may share one log. Appends happen under the cross-process
+// lock from FileLocks, after first catching up with records other processes
+// appended; the fsync happens after that lock is released, so concurrent
+// writers share flushes instead of queueing behind each other. Within a
+// process, mutations of the same roll number are serialised by a striped lock.
+// Every record carries a global sequence number which doubles as the version
+// of that student, so callers can update optimistically: read the version,
+// and the write fails if someone else changed the student in between.
+// Reads never touch the file: other processes' records are picked up by a
+// background task every REFRESH_MILLIS, and by every write here first.
+//
+// Record layout: [int payload length][int crc32][byte type][long seq][payload]
+// where the CRC covers type, seq and payload. A torn or corrupt record at the
+// tail of the log, left by a crash mid-write, is cut off during recovery.
+//
+// In memory the students are a PersistentHashMap from roll number to the
+// latest record, and every change publishes a new immutable Snapshot of it.
+// Readers take the current snapshot without locking and can read it for as
+// long as they like: writers and compaction never block them, and they
+// never see a half-applied change. The records are held in the map, so a
+// snapshot does not depend on the log file and survives compaction. The
+// last HISTORY_VERSIONS snapshots are kept for point-in-time views and
+// undo; they share all but the changed paths of the trie, so the history
+// costs memory in proportion to those changes, not to the roster.
+public class StudentStore implements Closeable {
+    // Pass as expected version to write regardless of the current version
+    public static final long ANY_VERSION = -1;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 8;
+
+    // Compact when at least half the log is garbage and there is enough of it
+    // to be worth rewriting
+    private static final double COMPACTION_RATIO = 0.5;
+    private static final long COMPACTION_MIN_GARBAGE = 64 * 1024;
+    private static final long COMPACTION_CHECK_SECONDS = 30;
+    private static final long REFRESH_MILLIS = 500;
+    private static final int HISTORY_VERSIONS = 256;
+
+    // The latest record for one roll number
+    private static class Entry {
+        final String record; // The CSV record, as in the log payload
+        final int length; // Size of the record in the log, header included
+        final long seq;
+        final long order; // Position among the students in insertion order
+
+        Entry(String record, int length, long seq, long order) {
+            this.record = record;
+            this.length = length;
+            this.seq = seq;
+            this.order = order;
+        }
+    }
+
+    // The roster as of one version. Immutable, so it can be read without
+    // locks while the store changes.
+    public static class Snapshot {
+        private final PersistentHashMap<String, Entry> students;
+        private final long version;
+
+        private Snapshot(PersistentHashMap<String, Entry> students, long version) {
+            this.students = students;
+            this.version = version;
+        }
+
+        // Sequence number of the last change included
+        public long version() {
+            return version;
+        }
+
+        public Student get(String rollNumber) {
+            Entry entry = students.get(key(rollNumber));
+            return entry == null ? null : parse(entry.record);
+        }
+
+        // Returns the student's version, or 0 if there is no such student
+        public long version(String rollNumber) {
+            Entry entry = students.get(key(rollNumber));
+            return entry == null ? 0 : entry.seq;
+        }
+
+        public boolean contains(String rollNumber) {
+            return students.containsKey(key(rollNumber));
+        }
+
+        public int size() {
+            return students.size();
+        }
+
+        // Returns every student in insertion order
+        public List<Student> all() {
+            List<Student> result = new ArrayList<>(students.size());
+            for (Entry entry : inOrder()) {
+                result.add(parse(entry.record));
+            }
+            return result;
+        }
+
+        private List<Entry> inOrder() {
+            List<Entry> entries = students.values();
+            entries.sort(Comparator.comparingLong(entry -> entry.order));
+            return entries;
+        }
+    }
+
+    private final Path logFile;
+    private final Path csvFile;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final StripedLocks rollLocks = new StripedLocks(64);
+    private final ScheduledExecutorService compactor; // Also runs the refreshes
+    private volatile boolean changed; // Whether this store has written anything
+    private long exportedVersion = -1; // Guarded by the CSV file's lock
+
+    private FileChannel channel;
+    private Object fileKey; // Identity of the log file the channel has open
+    private volatile Snapshot current = new Snapshot(PersistentHashMap.empty(), 0);
+    private final Deque<Snapshot> history = new ArrayDeque<>(); // Oldest first
+    private long end;
+    private long liveBytes;
+    private long nextSeq = 1;
+    private long nextOrder;
+
+    private StudentStore(Path logFile, Path csvFile) {
+        this.logFile = logFile;
+        this.csvFile = csvFile;
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "student-store-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Opens the store, recovering the log or, on first use, importing the
+    // existing CSV file into a fresh log
+    public static StudentStore open(String logFile, String csvFile) throws IOException {
+        StudentStore store = new StudentStore(Paths.get(logFile), Paths.get(csvFile));
+        FileLocks.withExclusiveLock(store.logFile, () -> {
+            if (!Files.exists(store.logFile)) {
+                store.importCsv();
+            }
+            store.openChannel();
+            store.recover();
+            return null;
+        });
+        store.compactor.scheduleWithFixedDelay(store::compactIfNeeded, COMPACTION_CHECK_SECONDS,
+                COMPACTION_CHECK_SECONDS, TimeUnit.SECONDS);
+        store.compactor.scheduleWithFixedDelay(store::refreshInBackground, REFRESH_MILLIS, REFRESH_MILLIS,
+                TimeUnit.MILLISECONDS);
+        return store;
+    }
+
+    // The roster as it is on disk, read without writing anything: no log is
+    // created, recovered, compacted or exported, so a read-only program such
+    // as a report can run while operators have the files open. Takes no
+    // lock either: a torn record at the tail is left out like a record not
+    // yet written, and a compaction swaps in a complete file. Before the
+    // first store has created the log, the roster comes from the CSV file.
+    public static Snapshot readSnapshot(String logFile, String csvFile) throws IOException {
+        StudentStore reader = new StudentStore(Paths.get(logFile), Paths.get(csvFile));
+        reader.compactor.shutdown(); // Nothing is scheduled, so no thread was started
+        try {
+            reader.channel = FileChannel.open(reader.logFile, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            PersistentHashMap<String, Entry> students = PersistentHashMap.empty();
+            if (Files.exists(reader.csvFile)) {
+                for (Student student : CsvCodec.importStudents(reader.csvFile)) {
+                    ByteBuffer record = encode(PUT, reader.nextSeq,
+                            format(student).getBytes(StandardCharsets.UTF_8));
+                    students = reader.applyRecord(students, record, record.remaining());
+                }
+            }
+            reader.publish(students);
+            return reader.current;
+        }
+        try {
+            reader.scan(0);
+        } finally {
+            reader.channel.close();
+        }
+        return reader.current;
+    }
+
+    // The latest version of the roster, without locking or touching the
+    // file. It includes every change made through this store; changes made
+    // by other processes show up within REFRESH_MILLIS, or at the next write
+    // here, which always catches up first.
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    // The roster as it was just after the change with the given sequence
+    // number, or null if that is older than the history kept
+    public Snapshot snapshotAt(long version) {
+        synchronized (history) {
+            Iterator<Snapshot> newestFirst = history.descendingIterator();
+            while (newestFirst.hasNext()) {
+                Snapshot snapshot = newestFirst.next();
+                if (snapshot.version <= version) {
+                    return snapshot;
+                }
+            }
+            return null;
+        }
+    }
+
+    public Student get(String rollNumber) {
+        return snapshot().get(rollNumber);
+    }
+
+    // Returns the student's current version, or 0 if there is no such student
+    public long version(String rollNumber) {
+        return snapshot().version(rollNumber);
+    }
+
+    public boolean contains(String rollNumber) {
+        return snapshot().contains(rollNumber);
+    }
+
+    public int size() {
+        return snapshot().size();
+    }
+
+    // Adds the student, or replaces the record with the same roll number, and
+    // returns the student's new version
+    public long put(Student student) throws IOException {
+        return put(student, ANY_VERSION);
+    }
+
+    // Writes the student only if its current version is still the expected
+    // one (0 meaning it must not exist yet), otherwise throws
+    // ConcurrentModificationException. Returns the student's new version.
+    public long put(Student student, long expectedVersion) throws IOException {
+        String key = key(student.rollNumber);
+        return mutate(key, expectedVersion, PUT, format(student).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns false if no student has the roll number
+    public boolean delete(String rollNumber) throws IOException {
+        return delete(rollNumber, ANY_VERSION);
+    }
+
+    // Deletes the student only if its current version is still the expected
+    // one, otherwise throws ConcurrentModificationException
+    public boolean delete(String rollNumber, long expectedVersion) throws IOException {
+        String key = key(rollNumber);
+        return mutate(key, expectedVersion, DELETE, key.getBytes(StandardCharsets.UTF_8)) != 0;
+    }
+
+    // Returns every live student in insertion order, all from one version
+    public List<Student> all() {
+        return snapshot().all();
+    }
+
+    // Rewrites the log with only live records. Holds the cross-process lock
+    // throughout, so no process appends during the copy; in-process readers
+    // are never blocked.
+    public void compact() throws IOException {
+        FileLocks.withExclusiveLock(logFile, () -> {
+            compactLocked();
+            return null;
+        });
+    }
+
+    // Republishes students.csv with the latest version, including other
+    // processes' changes. Skipped if the file already holds that version.
+    public void export() throws IOException {
+        FileLocks.withExclusiveLock(csvFile, () -> {
+            refresh();
+            exportCsv(current);
+            return null;
+        });
+    }
+
+    // Compacts the log if it has grown enough to need it, and exports the CSV
+    // if this store changed anything. Waits for a background compaction to
+    // finish rather than interrupting it, which would close the channel
+    // under it.
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel.isOpen()) {
+            compactIfGrown();
+            if (changed) {
+                export();
+            }
+            channel.close();
+        }
+    }
+
+    // Returns the sequence number of the record written, or 0 if there was
+    // nothing to delete
+    private long mutate(String key, long expectedVersion, byte type, byte[] payload) throws IOException {
+        ReentrantLock rollLock = rollLocks.lockFor(key);
+        rollLock.lock();
+        try {
+            long[] seq = new long[1];
+            FileChannel written = FileLocks.withExclusiveLock(logFile, () -> {
+                lock.writeLock().lock();
+                try {
+                    catchUp();
+                    Entry latest = current.students.get(key);
+                    long version = latest == null ? 0 : latest.seq;
+                    if (expectedVersion != ANY_VERSION && expectedVersion != version) {
+                        throw new ConcurrentModificationException(
+                                "Student " + key + " was changed by another operator");
+                    }
+                    if (type == DELETE && latest == null) {
+                        return null;
+                    }
+                    seq[0] = nextSeq;
+                    append(type, payload);
+                    return channel;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            });
+            if (written == null) {
+                return 0;
+            }
+            try {
+                written.force(false);
+            } catch (ClosedChannelException e) {
+                // A compaction swapped the file in the meantime; it copied this
+                // record and forced the new file before the swap
+            }
+            changed = true;
+            return seq[0];
+        } finally {
+            rollLock.unlock();
+        }
+    }
+
+    private void compactLocked() throws IOException {
+        Snapshot snapshot;
+        lock.writeLock().lock();
+        try {
+            catchUp();
+            snapshot = current;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // Nobody can append while we hold the cross-process lock, so the
+        // snapshot stays the latest version while it is copied
+        Path tmp = FileLocks.tempFileFor(logFile);
+        try {
+            long position = 0;
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                for (Entry entry : snapshot.inOrder()) {
+                    ByteBuffer record = encode(PUT, entry.seq, entry.record.getBytes(StandardCharsets.UTF_8));
+                    writeFully(out, record, position);
+                    position += entry.length;
+                }
+                out.force(true);
+            }
+            lock.writeLock().lock();
+            try {
+                Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel.close();
+                openChannel();
+                end = position;
+                liveBytes = position;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void compactIfNeeded() {
+        try {
+            compactIfGrown();
+        } catch (IOException e) {
+            System.out.println("Background compaction failed: " + e.getMessage());
+        }
+    }
+
+    // Compacts only once enough of the log is garbage, see needsCompaction()
+    private void compactIfGrown() throws IOException {
+        if (!needsCompaction()) {
+            return;
+        }
+        FileLocks.withExclusiveLock(logFile, () -> {
+            // Another process may have compacted while we waited
+            lock.writeLock().lock();
+            try {
+                catchUp();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (needsCompaction()) {
+                compactLocked();
+            }
+            return null;
+        });
+    }
+
+    private boolean needsCompaction() {
+        lock.readLock().lock();
+        try {
+            long garbage = end - liveBytes;
+            return garbage >= COMPACTION_MIN_GARBAGE && garbage >= end * COMPACTION_RATIO;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Picks up other processes' changes for the readers, off their path
+    private void refreshInBackground() {
+        try {
+            refresh();
+        } catch (IOException e) {
+            System.out.println("Background refresh of " + logFile + " failed: " + e.getMessage());
+        }
+    }
+
+    // Picks up records written by other processes, if there are any
+    private void refresh() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (channel.size() == end && Objects.equals(currentFileKey(), fileKey)) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            catchUp();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Brings the snapshot up to date with the log on disk; caller holds the
+    // write lock. If another process compacted, the new file is read from
+    // the start.
+    private void catchUp() throws IOException {
+        Object key = currentFileKey();
+        if (!Objects.equals(key, fileKey) || channel.size() < end) {
+            channel.close();
+            openChannel();
+            end = 0;
+        }
+        end = scan(end);
+    }
+
+    // Applies complete records from the given offset and returns the offset
+    // after the last one. Stops at a torn or corrupt record, which may still
+    // be in the middle of being written by another process.
+    //
+    // Records appended since the last scan are published one by one, so the
+    // history has every version. A scan from the start reads a recovered or
+    // compacted log, whose records are not in version order, and publishes
+    // only the end result.
+    private long scan(long position) throws IOException {
+        boolean fromStart = position == 0;
+        PersistentHashMap<String, Entry> students = fromStart ? PersistentHashMap.empty() : current.students;
+        if (fromStart) {
+            liveBytes = 0;
+            nextOrder = 0;
+        }
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int payloadLength = header.getInt();
+            int checksum = header.getInt();
+            if (payloadLength < 0 || position + HEADER_SIZE + payloadLength > size) {
+                break;
+            }
+
+            int length = HEADER_SIZE + payloadLength;
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(channel, record, position);
+            crc.reset();
+            crc.update(record.array(), 8, length - 8);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            record.flip();
+            students = applyRecord(students, record, length);
+            if (!fromStart) {
+                publish(students);
+            }
+            position += length;
+        }
+        if (fromStart) {
+            // The versions in between were never seen, so the history
+            // starts again here
+            synchronized (history) {
+                history.clear();
+            }
+            publish(students);
+        }
+        return position;
+    }
+
+    // Appends a record and publishes the version with it; caller holds both
+    // the cross-process lock and the write lock
+    private void append(byte type, byte[] payload) throws IOException {
+        ByteBuffer record = encode(type, nextSeq, payload);
+        int length = record.remaining();
+        writeFully(channel, record, end);
+        record.flip();
+        end += length;
+        publish(applyRecord(current.students, record, length));
+    }
+
+    // Makes the students the current version and keeps it in the history;
+    // caller holds the write lock
+    private void publish(PersistentHashMap<String, Entry> students) {
+        Snapshot snapshot = new Snapshot(students, nextSeq - 1);
+        synchronized (history) {
+            history.addLast(snapshot);
+            if (history.size() > HISTORY_VERSIONS) {
+                history.removeFirst();
+            }
+        }
+        current = snapshot;
+    }
+
+    // Applies one encoded record to the students, keeping liveBytes and the
+    // sequence and order counters in step, and returns the new version
+    private PersistentHashMap<String, Entry> applyRecord(PersistentHashMap<String, Entry> students,
+            ByteBuffer record, int length) {
+        record.position(8);
+        byte type = record.get();
+        long seq = record.getLong();
+        byte[] payload = new byte[length - HEADER_SIZE];
+        record.get(payload);
+        nextSeq = Math.max(nextSeq, seq + 1);
+
+        String text = new String(payload, StandardCharsets.UTF_8);
+        if (type == PUT) {
+            String key = key(parse(text).rollNumber);
+            Entry old = students.get(key);
+            liveBytes += length - (old == null ? 0 : old.length);
+            return students.plus(key, new Entry(text, length, seq, old == null ? nextOrder++ : old.order));
+        }
+        Entry old = students.get(text);
+        if (old == null) {
+            return students;
+        }
+        liveBytes -= old.length;
+        return students.minus(text);
+    }
+
+    // Builds the snapshot by scanning the log, truncating any torn tail
+    // record. Runs under the exclusive lock, so nobody can be mid-append.
+    private void recover() throws IOException {
+        long size = channel.size();
+        end = scan(0);
+        if (end < size) {
+            System.out.println("Recovered student log: discarded " + (size - end) + " bytes of incomplete data.");
+            channel.truncate(end);
+            channel.force(true);
+        }
+    }
+
+    // Writes the CSV file's students into a new log. The log is built under a
+    // temporary name and renamed into place once it is complete and forced,
+    // so a crash part way through leaves no log and the next open imports
+    // again, rather than taking a partial log for the whole roster.
+    private void importCsv() throws IOException {
+        Path tmp = FileLocks.tempFileFor(logFile);
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                if (Files.exists(csvFile)) {
+                    long position = 0;
+                    long seq = 1;
+                    for (Student student : CsvCodec.importStudents(csvFile)) {
+                        ByteBuffer record = encode(PUT, seq++, format(student).getBytes(StandardCharsets.UTF_8));
+                        int length = record.remaining();
+                        writeFully(out, record, position);
+                        position += length;
+                    }
+                }
+                out.force(true);
+            }
+            Files.move(tmp, logFile, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Writes the students to the CSV file via a temporary file and an atomic
+    // rename, so readers never see a half-written file. Skipped if the file
+    // already holds this version. Caller holds the CSV file's lock.
+    private void exportCsv(Snapshot snapshot) throws IOException {
+        if (snapshot.version == exportedVersion) {
+            return;
+        }
+        Path tmp = FileLocks.tempFileFor(csvFile);
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Entry entry : snapshot.inOrder()) {
+                    out.write(entry.record); // Records are already CSV
+                    out.write('\n');
+                }
+            }
+            Files.move(tmp, csvFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            exportedVersion = snapshot.version;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        fileKey = currentFileKey();
+    }
+
+    // Returns an identity for the file currently at the log path, which
+    // changes when a compaction renames a new file into place
+    private Object currentFileKey() throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(logFile, BasicFileAttributes.class);
+            return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static ByteBuffer encode(byte type, long seq, byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt(0).put(type).putLong(seq).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.capacity() - 8);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = ch.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of student log");
+            }
+            position += n;
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += ch.write(buffer, position);
+        }
+    }
+
+    private static String key(String rollNumber) {
+        return rollNumber.trim();
+    }
+
+    static String format(Student s) {
+        return CsvCodec.format(CsvCodec.studentFields(s));
+    }
+
+    // Returns null for lines that are not a complete student record
+    static Student parse(String line) {
+        try (CsvCodec.Parser parser = new CsvCodec.Parser(new StringReader(line))) {
+            return parser.next() ? CsvCodec.toStudent(parser) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
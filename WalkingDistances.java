@@ -0,0 +1,164 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.parsers.ParserConfigurationException;
+import org.xml.sax.SAXException;
+
+// Walking distances along the campus roads from students' hostels to event
+// venues.
+//
+// Hostels and buildings are found by name in locations.txt and snapped to
+// the nearest road node of the OSM network. Distances are cached per
+// (hostel, building) pair. When a venue needs hostels that are not cached
+// yet, one Dijkstra search from the venue settles all of them, so the cost
+// is one search per building rather than one per student or per hostel.
+// The caches are concurrent, so venues can be served in parallel.
+public class WalkingDistances {
+
+    // How far an event's participants walk from their hostels
+    public static class Walk {
+        public int students; // Hostellers whose distance is known
+        public int dayScholars;
+        public int unknown; // Hostellers whose hostel or route is not on the map
+        public double total; // Metres, summed over students
+        public double max;
+        public String farthest; // Hostel of the longest walk
+
+        public double average() {
+            return students == 0 ? 0 : total / students;
+        }
+
+        // Adds another walk to this one, for totals over many events
+        public void add(Walk other) {
+            students += other.students;
+            dayScholars += other.dayScholars;
+            unknown += other.unknown;
+            total += other.total;
+            if (other.farthest != null && (farthest == null || other.max > max)) {
+                max = other.max;
+                farthest = other.farthest;
+            }
+        }
+    }
+
+    private static final long NOT_ON_MAP = -1;
+
+    private final OSMRouteCalculator.RoadNetwork network;
+    private final Map<String, OSMRouteCalculator.Coordinate> places = new LinkedHashMap<>(); // By normalised name
+    private final Map<String, Long> nodes = new ConcurrentHashMap<>(); // Place name to road node
+    // Metres by hostel + '\0' + building, NaN if there is no route
+    private final Map<String, Double> distances = new ConcurrentHashMap<>();
+
+    private WalkingDistances(OSMRouteCalculator.RoadNetwork network) {
+        this.network = network;
+        network.connectedNodes(); // Build the lookup arrays now, before any parallel use
+    }
+
+    // Reads the road network and the named locations
+    public static WalkingDistances load(String osmFile, String locationsFile)
+            throws IOException, ParserConfigurationException, SAXException {
+        WalkingDistances walking = new WalkingDistances(OSMRouteCalculator.parseOSMFile(osmFile));
+        try (BufferedReader br = new BufferedReader(new FileReader(locationsFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length >= 3) {
+                    try {
+                        walking.places.put(EventSchedule.normalise(parts[0]), new OSMRouteCalculator.Coordinate(
+                                Double.parseDouble(parts[1].trim()), Double.parseDouble(parts[2].trim())));
+                    } catch (NumberFormatException e) {
+                        // Not a location line
+                    }
+                }
+            }
+        }
+        return walking;
+    }
+
+    // Walking distance in metres from each of the hostels to the building.
+    // Hostels that are not on the map, or not connected to it, are left out.
+    public Map<String, Double> fromHostels(String building, Collection<String> hostels) {
+        String venue = EventSchedule.normalise(building);
+        Map<Long, List<String>> missing = new HashMap<>(); // Road node to the hostels snapped to it
+        for (String hostel : hostels) {
+            String key = EventSchedule.normalise(hostel) + '\u0000' + venue;
+            if (!distances.containsKey(key)) {
+                long node = nodeOf(hostel);
+                if (node == NOT_ON_MAP) {
+                    distances.put(key, Double.NaN);
+                } else {
+                    missing.computeIfAbsent(node, k -> new ArrayList<>()).add(key);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            long from = nodeOf(building);
+            Map<Long, Double> found = from == NOT_ON_MAP ? Map.of()
+                    : OSMRouteCalculator.distancesFrom(network, from, missing.keySet());
+            for (Map.Entry<Long, List<String>> entry : missing.entrySet()) {
+                for (String key : entry.getValue()) {
+                    distances.put(key, found.getOrDefault(entry.getKey(), Double.NaN));
+                }
+            }
+        }
+
+        Map<String, Double> result = new HashMap<>();
+        for (String hostel : hostels) {
+            double metres = distances.get(EventSchedule.normalise(hostel) + '\u0000' + venue);
+            if (!Double.isNaN(metres)) {
+                result.put(hostel, metres);
+            }
+        }
+        return result;
+    }
+
+    // The walk of an event's participants, given how many of them live in
+    // each hostel (day scholars under a null key)
+    public Walk walk(String building, Map<String, Integer> studentsPerHostel) {
+        Walk walk = new Walk();
+        Map<String, Integer> hostellers = new HashMap<>(studentsPerHostel);
+        Integer dayScholars = hostellers.remove(null);
+        walk.dayScholars = dayScholars == null ? 0 : dayScholars;
+
+        Map<String, Double> metres = fromHostels(building, hostellers.keySet());
+        for (Map.Entry<String, Integer> entry : hostellers.entrySet()) {
+            Double distance = metres.get(entry.getKey());
+            if (distance == null) {
+                walk.unknown += entry.getValue();
+                continue;
+            }
+            walk.students += entry.getValue();
+            walk.total += distance * entry.getValue();
+            if (walk.farthest == null || distance > walk.max) {
+                walk.max = distance;
+                walk.farthest = entry.getKey();
+            }
+        }
+        return walk;
+    }
+
+    // Road node nearest to the named place, or NOT_ON_MAP
+    private long nodeOf(String name) {
+        return nodes.computeIfAbsent(EventSchedule.normalise(name), key -> {
+            OSMRouteCalculator.Coordinate coord = placeOf(key);
+            return coord == null ? NOT_ON_MAP : OSMRouteCalculator.findNearestNode(network, coord);
+        });
+    }
+
+    // Names are typed differently in different files ("Archimedes" for
+    // "Archimedes Hostel"), so an exact match is tried first and then the
+    // shortest location name containing the given one
+    private OSMRouteCalculator.Coordinate placeOf(String key) {
+        OSMRouteCalculator.Coordinate exact = places.get(key);
+        if (exact != null || key.isEmpty()) {
+            return exact;
+        }
+        String best = null;
+        for (String name : places.keySet()) {
+            if (name.contains(key) && (best == null || name.length() < best.length())) {
+                best = name;
+            }
+        }
+        return best == null ? null : places.get(best);
+    }
+}
@@ -0,0 +1,117 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Vector API implementation of DistanceKernel. Only loaded when the
+// jdk.incubator.vector module is present; call through DistanceKernel instead
+// of using this class directly. Loop tails shorter than one vector fall back to
+// the scalar code. Kept out of the main source directory, which builds without
+// the incubator module; DistanceKernel finds this class by name.
+class VectorDistanceKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final double DEG_TO_RAD = Math.PI / 180;
+
+    private VectorDistanceKernel() {
+    }
+
+    static void distances(double lat, double lon, double[] lats, double[] lons, double[] out, int n) {
+        double lat1 = lat * DEG_TO_RAD;
+        DoubleVector cosLat1 = DoubleVector.broadcast(SPECIES, Math.cos(lat1));
+        DoubleVector vLat1 = DoubleVector.broadcast(SPECIES, lat1);
+        DoubleVector vLon1 = DoubleVector.broadcast(SPECIES, lon * DEG_TO_RAD);
+
+        int i = 0;
+        int upper = SPECIES.loopBound(n);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector lat2 = DoubleVector.fromArray(SPECIES, lats, i).mul(DEG_TO_RAD);
+            DoubleVector lon2 = DoubleVector.fromArray(SPECIES, lons, i).mul(DEG_TO_RAD);
+            haversine(vLat1, vLon1, cosLat1, lat2, lon2).intoArray(out, i);
+        }
+        for (; i < n; i++) {
+            out[i] = DistanceKernel.distance(lat, lon, lats[i], lons[i]);
+        }
+    }
+
+    static void pairDistances(double[] lats1, double[] lons1, double[] lats2, double[] lons2, double[] out, int n) {
+        int i = 0;
+        int upper = SPECIES.loopBound(n);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector lat1 = DoubleVector.fromArray(SPECIES, lats1, i).mul(DEG_TO_RAD);
+            DoubleVector lon1 = DoubleVector.fromArray(SPECIES, lons1, i).mul(DEG_TO_RAD);
+            DoubleVector lat2 = DoubleVector.fromArray(SPECIES, lats2, i).mul(DEG_TO_RAD);
+            DoubleVector lon2 = DoubleVector.fromArray(SPECIES, lons2, i).mul(DEG_TO_RAD);
+            haversine(lat1, lon1, lat1.lanewise(VectorOperators.COS), lat2, lon2).intoArray(out, i);
+        }
+        for (; i < n; i++) {
+            out[i] = DistanceKernel.distance(lats1[i], lons1[i], lats2[i], lons2[i]);
+        }
+    }
+
+    static int nearest(double lat, double lon, double[] lats, double[] lons, int n) {
+        if (n < SPECIES.length()) {
+            return DistanceKernel.scalarNearest(lat, lon, lats, lons, n);
+        }
+
+        DoubleVector qLat = DoubleVector.broadcast(SPECIES, lat);
+        DoubleVector qLon = DoubleVector.broadcast(SPECIES, lon);
+        DoubleVector cosLat = DoubleVector.broadcast(SPECIES, Math.cos(lat * DEG_TO_RAD));
+
+        // Each lane keeps its own running minimum and the index it came from;
+        // the lanes are only combined once at the end
+        DoubleVector bestDist = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        DoubleVector bestIndex = DoubleVector.broadcast(SPECIES, -1);
+        DoubleVector index = DoubleVector.zero(SPECIES).addIndex(1);
+        DoubleVector step = DoubleVector.broadcast(SPECIES, SPECIES.length());
+
+        int i = 0;
+        int upper = SPECIES.loopBound(n);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, lons, i).sub(qLon).mul(cosLat);
+            DoubleVector y = DoubleVector.fromArray(SPECIES, lats, i).sub(qLat);
+            DoubleVector d = x.mul(x).add(y.mul(y));
+            VectorMask<Double> closer = d.compare(VectorOperators.LT, bestDist);
+            bestDist = bestDist.blend(d, closer);
+            bestIndex = bestIndex.blend(index, closer);
+            index = index.add(step);
+        }
+
+        double[] dists = bestDist.toArray();
+        double[] indices = bestIndex.toArray();
+        int best = -1;
+        double min = Double.POSITIVE_INFINITY;
+        for (int lane = 0; lane < dists.length; lane++) {
+            // Ties go to the lower index, matching the scalar scan order
+            if (dists[lane] < min || (dists[lane] == min && indices[lane] < best)) {
+                min = dists[lane];
+                best = (int) indices[lane];
+            }
+        }
+
+        double cos = Math.cos(lat * DEG_TO_RAD);
+        for (; i < n; i++) {
+            double x = (lons[i] - lon) * cos;
+            double y = lats[i] - lat;
+            double d = x * x + y * y;
+            if (d < min) {
+                min = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // Haversine on radians, returning meters
+    private static DoubleVector haversine(DoubleVector lat1, DoubleVector lon1, DoubleVector cosLat1,
+            DoubleVector lat2, DoubleVector lon2) {
+        DoubleVector sinLat = lat2.sub(lat1).mul(0.5).lanewise(VectorOperators.SIN);
+        DoubleVector sinLon = lon2.sub(lon1).mul(0.5).lanewise(VectorOperators.SIN);
+        DoubleVector a = sinLat.mul(sinLat)
+                .add(cosLat1.mul(lat2.lanewise(VectorOperators.COS)).mul(sinLon).mul(sinLon));
+        DoubleVector c = a.lanewise(VectorOperators.SQRT)
+                .lanewise(VectorOperators.ATAN2, a.neg().add(1).lanewise(VectorOperators.SQRT))
+                .mul(2);
+        return c.mul(DistanceKernel.EARTH_RADIUS_METERS);
+    }
+}